@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2.benchmarks;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.sun.jersey.api.model.AbstractMethod;
+import com.sun.jersey.api.model.AbstractResource;
+import com.sun.jersey.api.model.AbstractResourceMethod;
+import com.sun.jersey.api.model.PathValue;
+import me.lazerka.gae.jersey.oauth2.AuthFilterFactory;
+import me.lazerka.gae.jersey.oauth2.Role;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.annotation.security.DenyAll;
+import javax.annotation.security.PermitAll;
+import javax.annotation.security.RolesAllowed;
+import javax.ws.rs.DELETE;
+import javax.ws.rs.GET;
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.POST;
+import javax.ws.rs.PUT;
+import javax.ws.rs.Path;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link AuthFilterFactory#create} over every method of a large synthetic resource model, like Jersey does on
+ * application startup. One operation is the whole model.
+ *
+ * @author Dzmitry Lazerka
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AuthFilterFactoryBenchmark {
+	/** Number of copies of each template resource. */
+	@Param({"100", "1000"})
+	int copies;
+
+	AuthFilterFactory factory;
+	List<AbstractMethod> methods;
+
+	@Setup
+	public void setUp() {
+		Injector injector = Guice.createInjector(new StubAuthModule());
+		factory = injector.getInstance(AuthFilterFactory.class);
+
+		methods = new ArrayList<>();
+		Class<?>[] templates = {UserResource.class, OpenResource.class, UnannotatedResource.class};
+		for (int i = 0; i < copies; i++) {
+			for (Class<?> template : templates) {
+				String path = "/" + i + template.getAnnotation(Path.class).value();
+				AbstractResource resource = new AbstractResource(template, new PathValue(path));
+				for (Method method : template.getDeclaredMethods()) {
+					String httpMethod = getHttpMethod(method);
+					if (httpMethod != null) {
+						methods.add(new AbstractResourceMethod(
+								resource,
+								method,
+								method.getReturnType(),
+								method.getGenericReturnType(),
+								httpMethod,
+								method.getAnnotations()));
+					}
+				}
+			}
+		}
+	}
+
+	private static String getHttpMethod(Method method) {
+		for (Annotation annotation : method.getAnnotations()) {
+			HttpMethod httpMethod = annotation.annotationType().getAnnotation(HttpMethod.class);
+			if (httpMethod != null) {
+				return httpMethod.value();
+			}
+		}
+		return null;
+	}
+
+	@Benchmark
+	public void create(Blackhole blackhole) {
+		for (AbstractMethod method : methods) {
+			blackhole.consume(factory.create(method));
+		}
+	}
+
+	@Path("/user")
+	@RolesAllowed(Role.USER)
+	static class UserResource {
+		@GET
+		public String get() {
+			return null;
+		}
+
+		@POST
+		@RolesAllowed(Role.ADMIN)
+		public String post() {
+			return null;
+		}
+
+		@GET
+		@Path("public")
+		@PermitAll
+		public String getPublic() {
+			return null;
+		}
+
+		@DELETE
+		@DenyAll
+		public void delete() {}
+	}
+
+	@Path("/open")
+	@PermitAll
+	static class OpenResource {
+		@GET
+		public String get() {
+			return null;
+		}
+
+		@PUT
+		@RolesAllowed({Role.USER, Role.OPTIONAL})
+		public void put() {}
+	}
+
+	@Path("/none")
+	static class UnannotatedResource {
+		@GET
+		public String get() {
+			return null;
+		}
+	}
+}
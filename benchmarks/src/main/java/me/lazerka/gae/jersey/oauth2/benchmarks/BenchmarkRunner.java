@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs benchmarks with GC profiler always on, so that every result has both throughput and `gc.alloc.rate.norm`
+ * (bytes allocated per operation).
+ *
+ * Accepts usual JMH command line, e.g. `java -jar benchmarks.jar GaeOauthAuthFilterBenchmark -f 1`.
+ *
+ * @author Dzmitry Lazerka
+ */
+public class BenchmarkRunner {
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+		ChainedOptionsBuilder options = new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.addProfiler(GCProfiler.class);
+
+		if (args.length == 0) {
+			options.include(BenchmarkRunner.class.getPackage().getName() + ".*");
+		}
+
+		new Runner(options.build()).run();
+	}
+}
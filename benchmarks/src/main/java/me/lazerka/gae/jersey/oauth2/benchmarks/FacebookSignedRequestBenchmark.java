@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.BaseEncoding;
+import me.lazerka.gae.jersey.oauth2.UserPrincipal;
+import me.lazerka.gae.jersey.oauth2.facebook.TokenVerifierFacebookSignedRequest;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.inject.Provider;
+import java.io.IOException;
+import java.security.InvalidKeyException;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * {@link TokenVerifierFacebookSignedRequest#verify} in offline mode, so that only local work is measured.
+ *
+ * @author Dzmitry Lazerka
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FacebookSignedRequestBenchmark {
+	static final String APP_SECRET = "secret";
+
+	TokenVerifierFacebookSignedRequest verifier;
+	String signedRequest;
+	String forgedRequest;
+
+	@Setup
+	public void setUp() throws Exception {
+		final DateTime now = DateTime.now();
+		verifier = new TokenVerifierFacebookSignedRequest(
+				new ObjectMapper(),
+				APP_SECRET,
+				Duration.standardDays(1),
+				new Provider<DateTime>() {
+					@Override
+					public DateTime get() {
+						return now;
+					}
+				});
+
+		byte[] payloadJson = new ObjectMapper().writeValueAsBytes(ImmutableMap.of(
+				"algorithm", "HMAC-SHA256",
+				"code", "AQA5ZiaEhqnZsKL_cSRRAO3g0iixXNgIptcKYdLBZtOX6Oa8RZ1GsUyARYNDzJK3tC_tFwuQ5ITZH0XcZGLOghMpP1B",
+				"issued_at", now.getMillis() / 1000,
+				"user_id", "10153390127171076"
+		));
+		BaseEncoding base64Url = BaseEncoding.base64Url().omitPadding();
+		String payload = base64Url.encode(payloadJson);
+
+		Mac mac = Mac.getInstance("HmacSHA256");
+		mac.init(new SecretKeySpec(APP_SECRET.getBytes(UTF_8), "HmacSHA256"));
+		byte[] signature = mac.doFinal(payload.getBytes(US_ASCII));
+
+		signedRequest = base64Url.encode(signature) + '.' + payload;
+
+		signature[0] ^= 1;
+		forgedRequest = base64Url.encode(signature) + '.' + payload;
+	}
+
+	@Benchmark
+	public UserPrincipal valid() throws Exception {
+		return verifier.verify(signedRequest);
+	}
+
+	@Benchmark
+	public Exception forged() {
+		try {
+			verifier.verify(forgedRequest);
+			throw new AssertionError("Forged request accepted");
+		} catch (InvalidKeyException e) {
+			return e;
+		} catch (IOException e) {
+			throw new AssertionError(e);
+		}
+	}
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2.benchmarks;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.sun.jersey.spi.container.ContainerRequest;
+import me.lazerka.gae.jersey.oauth2.AuthFilter;
+import me.lazerka.gae.jersey.oauth2.Role;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of {@link me.lazerka.gae.jersey.oauth2.GaeOauthAuthFilter#filter} itself, with verifiers stubbed out.
+ *
+ * @author Dzmitry Lazerka
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GaeOauthAuthFilterBenchmark {
+	AuthFilter userFilter;
+	AuthFilter optionalFilter;
+
+	ContainerRequest bearerRequest;
+	ContainerRequest anonymousRequest;
+
+	@Setup
+	public void setUp() {
+		Injector injector = Guice.createInjector(new StubAuthModule());
+
+		userFilter = injector.getInstance(AuthFilter.class);
+		userFilter.setRolesAllowed(ImmutableSet.of(Role.USER));
+
+		optionalFilter = injector.getInstance(AuthFilter.class);
+		optionalFilter.setRolesAllowed(ImmutableSet.of(Role.OPTIONAL));
+
+		bearerRequest = Requests.create("Bearer token", StubAuthModule.SCHEME);
+		anonymousRequest = Requests.create(null, null);
+	}
+
+	@Benchmark
+	public ContainerRequest bearer() {
+		return userFilter.filter(bearerRequest);
+	}
+
+	@Benchmark
+	public ContainerRequest anonymousOptional() {
+		return optionalFilter.filter(anonymousRequest);
+	}
+}
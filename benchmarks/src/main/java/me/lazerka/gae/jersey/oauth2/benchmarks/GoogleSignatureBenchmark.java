@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2.benchmarks;
+
+import com.google.api.client.googleapis.auth.oauth2.GoogleIdToken.Payload;
+import com.google.api.client.googleapis.auth.oauth2.GoogleIdTokenVerifier;
+import com.google.api.client.googleapis.auth.oauth2.GooglePublicKeysManager;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.json.webtoken.JsonWebSignature;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.client.util.PemReader;
+import com.google.api.client.util.SecurityUtils;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Resources;
+import com.google.common.util.concurrent.MoreExecutors;
+import me.lazerka.gae.jersey.oauth2.UserPrincipal;
+import me.lazerka.gae.jersey.oauth2.google.GooglePublicKeysRefresher;
+import me.lazerka.gae.jersey.oauth2.google.RefreshingGoogleIdTokenVerifier;
+import me.lazerka.gae.jersey.oauth2.google.TokenVerifierGoogleSignature;
+import org.joda.time.DateTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.inject.Provider;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.security.PrivateKey;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * {@link TokenVerifierGoogleSignature#verify} with a locally generated RSA key pair, which is served in place of
+ * Google certificates endpoint. Keys are fetched once during setup, so only parsing and verification is measured.
+ *
+ * @author Dzmitry Lazerka
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GoogleSignatureBenchmark {
+	static final String CLIENT_ID = "web-client-id.apps.googleusercontent.com";
+	static final String KEY_ID = "test-key-1";
+
+	final JsonFactory jsonFactory = JacksonFactory.getDefaultInstance();
+
+	TokenVerifierGoogleSignature verifier;
+	String token;
+
+	@Setup
+	public void setUp() throws Exception {
+		GooglePublicKeysManager manager = new GooglePublicKeysManager.Builder(new CertsTransport(), jsonFactory)
+				.build();
+		GooglePublicKeysRefresher refresher = new GooglePublicKeysRefresher(
+				manager,
+				MoreExecutors.directExecutor(),
+				GooglePublicKeysRefresher.DEFAULT_REFRESH_AHEAD);
+		refresher.refresh();
+
+		GoogleIdTokenVerifier.Builder builder = new GoogleIdTokenVerifier.Builder(manager)
+				.setAudience(ImmutableList.of(CLIENT_ID))
+				.setIssuer("https://accounts.google.com");
+		verifier = new TokenVerifierGoogleSignature(
+				new RefreshingGoogleIdTokenVerifier(builder, refresher),
+				new Provider<DateTime>() {
+					@Override
+					public DateTime get() {
+						return DateTime.now();
+					}
+				});
+
+		token = sign();
+	}
+
+	private String sign() throws Exception {
+		PrivateKey privateKey;
+		try (Reader reader = new InputStreamReader(GoogleSignatureBenchmark.class.getResourceAsStream("test-key-1.pem"), UTF_8)) {
+			byte[] bytes = PemReader.readFirstSectionAndClose(reader, "PRIVATE KEY").getBase64DecodedBytes();
+			privateKey = SecurityUtils.getRsaKeyFactory().generatePrivate(new PKCS8EncodedKeySpec(bytes));
+		}
+
+		JsonWebSignature.Header header = new JsonWebSignature.Header()
+				.setAlgorithm("RS256")
+				.setKeyId(KEY_ID);
+		long now = System.currentTimeMillis() / 1000;
+		Payload payload = new Payload()
+				.setIssuer("https://accounts.google.com")
+				.setAudience(CLIENT_ID)
+				.setSubject("1234")
+				.setEmail("test@example.com")
+				.setIssuedAtTimeSeconds(now)
+				.setExpirationTimeSeconds(now + TimeUnit.DAYS.toSeconds(1));
+
+		return JsonWebSignature.signUsingRsaSha256(privateKey, jsonFactory, header, payload);
+	}
+
+	@Benchmark
+	public UserPrincipal verify() throws Exception {
+		return verifier.verify(token);
+	}
+
+	/**
+	 * Serves certificate of test-key-1.pem in the format of https://www.googleapis.com/oauth2/v1/certs.
+	 */
+	static class CertsTransport extends MockHttpTransport {
+		final String certsJson;
+
+		CertsTransport() throws IOException {
+			String cert = Resources.toString(Resources.getResource(GoogleSignatureBenchmark.class, "test-cert-1.pem"), UTF_8);
+			certsJson = JacksonFactory.getDefaultInstance().toString(ImmutableMap.of(KEY_ID, cert));
+		}
+
+		@Override
+		public LowLevelHttpRequest buildRequest(String method, String url) {
+			MockLowLevelHttpResponse response = new MockLowLevelHttpResponse()
+					.setContentType("application/json")
+					.setContent(certsJson)
+					.addHeader("Cache-Control", "public, max-age=" + TimeUnit.DAYS.toSeconds(1));
+			return new MockLowLevelHttpRequest(url).setResponse(response);
+		}
+	}
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2.benchmarks;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import me.lazerka.gae.jersey.oauth2.OauthModule;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creating injector with {@link OauthModule} in a fresh JVM, as App Engine loading request does.
+ * Each fork measures one cold invocation, so compare {@code lazy} values over many forks.
+ *
+ * @author Dzmitry Lazerka
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(10)
+public class OauthModuleStartupBenchmark {
+	@Param({"false", "true"})
+	boolean lazy;
+
+	@Benchmark
+	public Injector createInjector() {
+		OauthModule module = new OauthModule("client-id.apps.googleusercontent.com", "app-id", "app-secret");
+		if (lazy) {
+			module.lazyInitialization();
+		}
+		return Guice.createInjector(module);
+	}
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2.benchmarks;
+
+import com.google.appengine.api.users.User;
+import com.google.appengine.api.users.UserService;
+import com.sun.jersey.core.header.InBoundHeaders;
+import com.sun.jersey.spi.container.ContainerRequest;
+import com.sun.jersey.spi.container.WebApplicationFactory;
+
+import javax.ws.rs.core.SecurityContext;
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.security.Principal;
+import java.util.Set;
+
+/**
+ * Fixtures for running filters outside of servlet container.
+ *
+ * @author Dzmitry Lazerka
+ */
+class Requests {
+	static final URI BASE_URI = URI.create("https://example.com/");
+	static final URI REQUEST_URI = URI.create("https://example.com/resource");
+
+	/**
+	 * Request needs a WebApplication, but not an initialized one for what auth filter does with it.
+	 */
+	static ContainerRequest create(String authorization, String authorizationScheme) {
+		InBoundHeaders headers = new InBoundHeaders();
+		if (authorization != null) {
+			headers.putSingle("Authorization", authorization);
+		}
+		if (authorizationScheme != null) {
+			headers.putSingle("X-Authorization-Scheme", authorizationScheme);
+		}
+		ContainerRequest request = new ContainerRequest(
+				WebApplicationFactory.createWebApplication(),
+				"GET",
+				BASE_URI,
+				REQUEST_URI,
+				headers,
+				new ByteArrayInputStream(new byte[0]));
+		request.setSecurityContext(new HttpsSecurityContext());
+		return request;
+	}
+
+	/**
+	 * What servlet container provides for an HTTPS request before any authentication.
+	 */
+	static class HttpsSecurityContext implements SecurityContext {
+		@Override
+		public Principal getUserPrincipal() {
+			return null;
+		}
+
+		@Override
+		public boolean isUserInRole(String role) {
+			return false;
+		}
+
+		@Override
+		public boolean isSecure() {
+			return true;
+		}
+
+		@Override
+		public String getAuthenticationScheme() {
+			return null;
+		}
+	}
+
+	/**
+	 * No GAE user is logged in, so that filter goes for OAuth.
+	 */
+	static class LoggedOutUserService implements UserService {
+		@Override
+		public String createLoginURL(String destinationURL) {
+			return "https://example.com/login";
+		}
+
+		@Override
+		public String createLoginURL(String destinationURL, String authDomain) {
+			return createLoginURL(destinationURL);
+		}
+
+		@Override
+		public String createLoginURL(
+				String destinationURL,
+				String authDomain,
+				String federatedIdentity,
+				Set<String> attributesRequest
+		) {
+			return createLoginURL(destinationURL);
+		}
+
+		@Override
+		public String createLogoutURL(String destinationURL) {
+			return "https://example.com/logout";
+		}
+
+		@Override
+		public String createLogoutURL(String destinationURL, String authDomain) {
+			return createLogoutURL(destinationURL);
+		}
+
+		@Override
+		public boolean isUserLoggedIn() {
+			return false;
+		}
+
+		@Override
+		public boolean isUserAdmin() {
+			return false;
+		}
+
+		@Override
+		public User getCurrentUser() {
+			return null;
+		}
+	}
+}
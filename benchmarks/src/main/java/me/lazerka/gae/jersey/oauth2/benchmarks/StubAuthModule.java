@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2.benchmarks;
+
+import com.google.appengine.api.users.UserService;
+import com.google.inject.AbstractModule;
+import com.google.inject.multibindings.Multibinder;
+import com.google.inject.name.Names;
+import me.lazerka.gae.jersey.oauth2.AuthFilter;
+import me.lazerka.gae.jersey.oauth2.GaeOauthAuthFilter;
+import me.lazerka.gae.jersey.oauth2.TokenVerifier;
+import me.lazerka.gae.jersey.oauth2.UserPrincipal;
+import me.lazerka.gae.jersey.oauth2.facebook.BasicTokenVerifier;
+import me.lazerka.gae.jersey.oauth2.google.GoogleUserPrincipal;
+
+/**
+ * Binds {@link GaeOauthAuthFilter} with a verifier that accepts any token without doing any work.
+ *
+ * @author Dzmitry Lazerka
+ */
+class StubAuthModule extends AbstractModule {
+	static final String SCHEME = "Stub";
+
+	@Override
+	protected void configure() {
+		TokenVerifier verifier = new StubTokenVerifier();
+		Multibinder.newSetBinder(binder(), TokenVerifier.class).addBinding().toInstance(verifier);
+		bind(TokenVerifier.class).annotatedWith(Names.named("default")).toInstance(verifier);
+		bind(UserService.class).toInstance(new Requests.LoggedOutUserService());
+		bind(AuthFilter.class).to(GaeOauthAuthFilter.class);
+	}
+
+	static class StubTokenVerifier extends BasicTokenVerifier {
+		final UserPrincipal principal = new GoogleUserPrincipal("1234", "test@example.com");
+
+		@Override
+		public UserPrincipal verify(String authToken) {
+			return principal;
+		}
+
+		@Override
+		public String getAuthenticationScheme() {
+			return SCHEME;
+		}
+	}
+}
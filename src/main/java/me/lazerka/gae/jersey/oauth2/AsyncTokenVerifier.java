@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.Executor;
+
+/**
+ * Verifier that doesn't block the calling thread, so that callers can overlap authentication with other work, and
+ * verifiers can pipeline their remote calls.
+ *
+ * Future fails with the same exceptions as {@link #verify} throws: usually {@link IOException} or
+ * {@link GeneralSecurityException}. See {@link AsyncTokenVerifiers#await} to get them back.
+ *
+ * @author Dzmitry Lazerka
+ * @see AsyncTokenVerifiers#adapt
+ */
+public interface AsyncTokenVerifier extends TokenVerifier {
+	/**
+	 * @param executor waits for App Engine API responses and runs continuations. On App Engine, it must run its
+	 *                 tasks on threads of current request (see {@link com.google.appengine.api.ThreadManager}).
+	 *                 With a direct executor, the call blocks, like {@link #verify}.
+	 */
+	ListenableFuture<UserPrincipal> verifyAsync(String authToken, Executor executor);
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
+/**
+ * Utilities for {@link AsyncTokenVerifier}.
+ *
+ * @author Dzmitry Lazerka
+ */
+public final class AsyncTokenVerifiers {
+	private AsyncTokenVerifiers() {}
+
+	/**
+	 * @return given verifier if it's already asynchronous, otherwise one that runs its {@link TokenVerifier#verify}
+	 * on the executor passed to {@link AsyncTokenVerifier#verifyAsync}.
+	 */
+	public static AsyncTokenVerifier adapt(@Nonnull TokenVerifier tokenVerifier) {
+		if (tokenVerifier instanceof AsyncTokenVerifier) {
+			return (AsyncTokenVerifier) tokenVerifier;
+		}
+		return new Adapter(tokenVerifier);
+	}
+
+	/**
+	 * Waits for the future, and rethrows its failure as it would be thrown by {@link TokenVerifier#verify}.
+	 */
+	public static <T> T await(@Nonnull Future<T> future) throws IOException, GeneralSecurityException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof GeneralSecurityException) {
+				throw (GeneralSecurityException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+
+	/**
+	 * Runs blocking {@link TokenVerifier#verify} on the executor.
+	 */
+	static ListenableFuture<UserPrincipal> verifyOn(
+			final TokenVerifier tokenVerifier,
+			final String authToken,
+			Executor executor
+	) {
+		ListenableFutureTask<UserPrincipal> task = ListenableFutureTask.create(new Callable<UserPrincipal>() {
+			@Override
+			public UserPrincipal call() throws Exception {
+				return tokenVerifier.verify(authToken);
+			}
+		});
+		executor.execute(task);
+		return task;
+	}
+
+	/**
+	 * {@link ForwardingTokenVerifier} already runs {@link #verify} on the executor.
+	 */
+	static class Adapter extends ForwardingTokenVerifier {
+		Adapter(TokenVerifier delegate) {
+			super(delegate);
+		}
+	}
+}
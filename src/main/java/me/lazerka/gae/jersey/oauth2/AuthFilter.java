@@ -27,5 +27,15 @@ import java.util.Set;
  * @author Dzmitry Lazerka
  */
 public interface AuthFilter extends ResourceFilter, ContainerRequestFilter {
+	/**
+	 * Called once, right after creation. Same filter instance is then used for all resource methods that allow
+	 * these roles, so implementations should not keep per-method state.
+	 *
+	 * Roles are read by request threads, so implementations must publish them safely (e.g. volatile), and reject
+	 * further calls, so that shared filter policy can't be changed. Therefore, {@link AuthFilter} must not be bound
+	 * as a singleton.
+	 *
+	 * @throws IllegalStateException if roles are already set.
+	 */
 	void setRolesAllowed(Set<String> rolesAllowed);
 }
@@ -32,13 +32,22 @@ import javax.inject.Inject;
 import javax.inject.Provider;
 import javax.ws.rs.Path;
 import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Adds an AuthFilter to appropriately annotated resources.
  * If no annotations present, denies access.
  * For method/class annotations precedence, see {@link #internalCreate} code.
+ *
+ * Filters are stateless apart from their roles, so there is only one filter per distinct set of roles,
+ * shared by all methods that allow those roles.
  */
 public class AuthFilterFactory implements ResourceFilterFactory {
 	private static final Logger logger = LoggerFactory.getLogger(AuthFilterFactory.class);
@@ -47,6 +56,12 @@ public class AuthFilterFactory implements ResourceFilterFactory {
 
 	private final Provider<AuthFilter> authFilterProvider;
 
+	/** Filters by roles they allow. Published only after roles are set. */
+	private final ConcurrentMap<Set<String>, AuthFilter> filters = new ConcurrentHashMap<>();
+
+	/** Roles allowed by each method that has a filter. */
+	private final ConcurrentMap<Method, Set<String>> methodRoles = new ConcurrentHashMap<>();
+
 	@Inject
 	public AuthFilterFactory(Provider<AuthFilter> authFilterProvider) {
 		this.authFilterProvider = authFilterProvider;
@@ -54,44 +69,76 @@ public class AuthFilterFactory implements ResourceFilterFactory {
 
 	@Override
 	public List<ResourceFilter> create(AbstractMethod method) {
-		ResourceFilter filter = internalCreate(method);
+		Set<String> rolesAllowed = internalCreate(method);
+		ResourceFilter filter = rolesAllowed == null ? null : getFilter(rolesAllowed);
 
 		logAppliedFilter(method, filter);
 
+		if (rolesAllowed != null && method.getMethod() != null) {
+			methodRoles.put(method.getMethod(), rolesAllowed);
+		}
+
 		return filter == null ? null : ImmutableList.of(filter);
 	}
 
+	/**
+	 * @return roles allowed, or null if no filter needed.
+	 */
 	@Nullable
-	private ResourceFilter internalCreate(AbstractMethod method) {
+	private Set<String> internalCreate(AbstractMethod method) {
 		// DenyAll on the method take precedence over anything.
-		if (method.isAnnotationPresent(DenyAll.class)) return getFilter(new String[]{});
+		if (method.isAnnotationPresent(DenyAll.class)) return ImmutableSet.of();
 
 		// RolesAllowed on method takes precedence over PermitAll.
 		RolesAllowed methodRoles = method.getAnnotation(RolesAllowed.class);
-		if (methodRoles != null) return getFilter(methodRoles.value());
+		if (methodRoles != null) return ImmutableSet.copyOf(methodRoles.value());
 
 		// PermitAll on method takes precedence over anything on class.
 		if (method.isAnnotationPresent(PermitAll.class)) return null;
 
 		// DenyAll on class take precedence over anything else on class.
-		if (method.getResource().isAnnotationPresent(DenyAll.class)) return getFilter(new String[]{});
+		if (method.getResource().isAnnotationPresent(DenyAll.class)) return ImmutableSet.of();
 
 		// RolesAllowed on class takes precedence over PermitAll on class.
 		RolesAllowed resourceRoles = method.getResource().getAnnotation(RolesAllowed.class);
-		if (resourceRoles != null) return getFilter(resourceRoles.value());
+		if (resourceRoles != null) return ImmutableSet.copyOf(resourceRoles.value());
 
 		// PermitAll on class.
 		if (method.getResource().isAnnotationPresent(PermitAll.class)) return null;
 
 		// No annotations: deny by default.
 		logger.warn("No auth annotations on resource: {}", method.getResource().getPath().getValue());
-		return getFilter(new String[]{});
+		return ImmutableSet.of();
+	}
+
+	private AuthFilter getFilter(Set<String> rolesAllowed) {
+		AuthFilter result = filters.get(rolesAllowed);
+		if (result == null) {
+			AuthFilter authFilter = authFilterProvider.get();
+			authFilter.setRolesAllowed(rolesAllowed);
+
+			result = filters.putIfAbsent(rolesAllowed, authFilter);
+			if (result == null) {
+				logger.debug("Created filter for roles {}", rolesAllowed);
+				result = authFilter;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return filter for each distinct set of roles seen so far.
+	 */
+	public Map<Set<String>, AuthFilter> getFilters() {
+		return Collections.unmodifiableMap(filters);
 	}
 
-	private ResourceFilter getFilter(String[] roles) {
-		AuthFilter authFilter = authFilterProvider.get();
-		authFilter.setRolesAllowed(ImmutableSet.copyOf(roles));
-		return authFilter;
+	/**
+	 * @return roles allowed by each resource method that has a filter. Methods without filter (e.g. {@link PermitAll})
+	 * are absent.
+	 */
+	public Map<Method, Set<String>> getMethodRoles() {
+		return Collections.unmodifiableMap(methodRoles);
 	}
 
 	private void logAppliedFilter(AbstractMethod am, @Nullable ResourceFilter filter) {
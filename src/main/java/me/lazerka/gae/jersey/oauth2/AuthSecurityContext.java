@@ -16,27 +16,66 @@
 
 package me.lazerka.gae.jersey.oauth2;
 
+import com.google.common.collect.ImmutableSet;
+
 import javax.ws.rs.core.SecurityContext;
 import java.util.Set;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
+ * Keeps roles as a mask of {@link RoleRegistry} bits.
+ *
+ * Roles that are not registered (no resource requires them) are kept as strings, and never registered here, because
+ * registry only has room for {@value RoleRegistry#MAX_ROLES} roles.
+ *
  * @author Dzmitry Lazerka
  */
 public class AuthSecurityContext implements SecurityContext {
 	private final UserPrincipal user;
 	private final boolean secure;
-	private final Set<String> roles;
+	private final long roles;
 	private final String authenticationScheme;
 
-	public AuthSecurityContext(UserPrincipal user, boolean secure, Set<String> role, String authenticationScheme) {
+	/** Roles that were not in {@link RoleRegistry#INSTANCE} when this was created, usually empty. */
+	private final ImmutableSet<String> unregisteredRoles;
+
+	public AuthSecurityContext(UserPrincipal user, boolean secure, Set<String> roles, String authenticationScheme) {
+		this(user, secure, RoleRegistry.INSTANCE.getMask(checkNotNull(roles)), getUnregistered(roles),
+				authenticationScheme);
+	}
+
+	/**
+	 * @param roles mask of {@link RoleRegistry#INSTANCE} bits.
+	 */
+	public AuthSecurityContext(UserPrincipal user, boolean secure, long roles, String authenticationScheme) {
+		this(user, secure, roles, ImmutableSet.<String>of(), authenticationScheme);
+	}
+
+	private AuthSecurityContext(
+			UserPrincipal user,
+			boolean secure,
+			long roles,
+			ImmutableSet<String> unregisteredRoles,
+			String authenticationScheme
+	) {
 		this.user = user;
 		this.secure = secure;
-		this.roles = checkNotNull(role);
+		this.roles = roles;
+		this.unregisteredRoles = unregisteredRoles;
 		this.authenticationScheme = checkNotNull(authenticationScheme);
 	}
 
+	private static ImmutableSet<String> getUnregistered(Set<String> roles) {
+		ImmutableSet.Builder<String> result = ImmutableSet.builder();
+		for (String role : roles) {
+			if (RoleRegistry.INSTANCE.getBit(role) == 0) {
+				result.add(role);
+			}
+		}
+		return result.build();
+	}
+
 	/**
 	 * May be null if roles contain {@link Role#OPTIONAL}.
 	 */
@@ -47,7 +86,23 @@ public class AuthSecurityContext implements SecurityContext {
 
 	@Override
 	public boolean isUserInRole(String role) {
-		return roles.contains(role);
+		return (roles & RoleRegistry.INSTANCE.getBit(role)) != 0 || unregisteredRoles.contains(role);
+	}
+
+	/**
+	 * @param mask of {@link RoleRegistry#INSTANCE} bits.
+	 */
+	public boolean isUserInAnyRole(long mask) {
+		if ((roles & mask) != 0) {
+			return true;
+		}
+		// Could have been registered since.
+		return !unregisteredRoles.isEmpty() && (RoleRegistry.INSTANCE.getMask(unregisteredRoles) & mask) != 0;
+	}
+
+	/** Mask of {@link RoleRegistry#INSTANCE} bits, without roles that were not registered at creation. */
+	public long getRoleMask() {
+		return roles;
 	}
 
 	@Override
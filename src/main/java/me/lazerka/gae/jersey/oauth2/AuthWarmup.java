@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2;
+
+import com.google.api.client.googleapis.auth.oauth2.GooglePublicKeysManager;
+import com.google.common.base.Stopwatch;
+import com.google.common.io.BaseEncoding;
+import me.lazerka.gae.jersey.oauth2.facebook.TokenVerifierFacebookCode;
+import me.lazerka.gae.jersey.oauth2.facebook.TokenVerifierFacebookDebugToken;
+import me.lazerka.gae.jersey.oauth2.facebook.TokenVerifierFacebookSignedRequest;
+import me.lazerka.gae.jersey.oauth2.google.GooglePublicKeysRefresher;
+import org.joda.time.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Prepares authentication on a fresh instance, so that the first real user doesn't pay for it.
+ * Call {@link #warmUp()} from your App Engine `/_ah/warmup` handler.
+ *
+ * Loads Google public keys, initializes lazy verifiers, and runs every verifier over a synthetic token,
+ * so that JSON and crypto classes get loaded. Synthetic token is passed to the innermost verifier,
+ * bypassing caches and metrics, and is always rejected. Verifiers that check tokens remotely will make a call,
+ * which warms up URL Fetch too.
+ *
+ * Never throws, failures are only logged.
+ *
+ * @author Dzmitry Lazerka
+ */
+@Singleton
+public class AuthWarmup {
+	private static final Logger logger = LoggerFactory.getLogger(AuthWarmup.class);
+
+	static final String GOOGLE_PUBLIC_KEYS = "googlePublicKeys";
+
+	private static final BaseEncoding BASE64_URL = BaseEncoding.base64Url().omitPadding();
+
+	@Inject
+	protected Set<TokenVerifier> tokenVerifiers;
+
+	/** Preferred over {@link #googlePublicKeysManager}, so that it knows about fetched keys. */
+	@com.google.inject.Inject(optional = true)
+	protected GooglePublicKeysRefresher googlePublicKeysRefresher;
+
+	@com.google.inject.Inject(optional = true)
+	protected GooglePublicKeysManager googlePublicKeysManager;
+
+	/**
+	 * @return how long each step took, in order of execution. Keys are {@value #GOOGLE_PUBLIC_KEYS} and
+	 * authentication schemes.
+	 */
+	public Map<String, Duration> warmUp() {
+		Stopwatch total = Stopwatch.createStarted();
+		Map<String, Duration> result = new LinkedHashMap<>();
+
+		if (googlePublicKeysRefresher != null || googlePublicKeysManager != null) {
+			Stopwatch stopwatch = Stopwatch.createStarted();
+			try {
+				if (googlePublicKeysRefresher != null) {
+					googlePublicKeysRefresher.getPublicKeys();
+				} else {
+					googlePublicKeysManager.getPublicKeys();
+				}
+			} catch (GeneralSecurityException | IOException | RuntimeException e) {
+				logger.warn("Cannot load Google public keys", e);
+			}
+			result.put(GOOGLE_PUBLIC_KEYS, elapsed(stopwatch));
+		}
+
+		for (TokenVerifier tokenVerifier : tokenVerifiers) {
+			String scheme = tokenVerifier.getAuthenticationScheme();
+			Stopwatch stopwatch = Stopwatch.createStarted();
+			try {
+				TokenVerifier innermost = unwrap(tokenVerifier);
+				innermost.verify(syntheticToken(innermost));
+				logger.warn("Synthetic token accepted by {}", scheme);
+			} catch (GeneralSecurityException e) {
+				logger.trace("Synthetic token rejected by {}: {}", scheme, e.getMessage());
+			} catch (IOException | RuntimeException e) {
+				logger.warn("Cannot warm up {}", scheme, e);
+			}
+			result.put(scheme, elapsed(stopwatch));
+		}
+
+		logger.info("Warmed up in {}ms: {}", total.elapsed(MILLISECONDS), result);
+		return result;
+	}
+
+	/**
+	 * Initializes {@link LazyTokenVerifier}s on the way.
+	 */
+	protected TokenVerifier unwrap(TokenVerifier tokenVerifier) {
+		TokenVerifier current = tokenVerifier;
+		while (true) {
+			if (current instanceof ForwardingTokenVerifier) {
+				current = ((ForwardingTokenVerifier) current).getDelegate();
+			} else if (current instanceof LazyTokenVerifier) {
+				current = ((LazyTokenVerifier) current).getDelegate();
+			} else {
+				return current;
+			}
+		}
+	}
+
+	/**
+	 * Override to give your verifiers tokens of their format.
+	 *
+	 * @return well-formed token with invalid signature, or opaque token for verifiers that don't accept JWTs.
+	 */
+	protected String syntheticToken(TokenVerifier tokenVerifier) {
+		// Facebook access tokens and codes are opaque, and must not contain dots.
+		if (tokenVerifier instanceof TokenVerifierFacebookDebugToken
+				|| tokenVerifier instanceof TokenVerifierFacebookCode) {
+			return "warmup" + BASE64_URL.encode(new byte[24]);
+		}
+
+		String payload = BASE64_URL.encode(
+				"{\"iss\":\"accounts.google.com\",\"sub\":\"0\",\"algorithm\":\"HMAC-SHA256\"}".getBytes(UTF_8));
+		String signature = BASE64_URL.encode(new byte[32]);
+
+		if (tokenVerifier instanceof TokenVerifierFacebookSignedRequest) {
+			return signature + '.' + payload;
+		}
+
+		String header = BASE64_URL.encode("{\"alg\":\"RS256\",\"kid\":\"warmup\"}".getBytes(UTF_8));
+		return header + '.' + payload + '.' + signature;
+	}
+
+	private static Duration elapsed(Stopwatch stopwatch) {
+		return Duration.millis(stopwatch.elapsed(MILLISECONDS));
+	}
+}
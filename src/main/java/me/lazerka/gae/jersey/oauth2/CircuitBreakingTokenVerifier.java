@@ -0,0 +1,297 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2;
+
+import com.google.common.base.MoreObjects;
+import me.lazerka.gae.jersey.oauth2.diagnostics.Diagnosable;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.inject.Provider;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Verifies tokens by a remote verifier, but stops calling it while it's failing, and verifies by a local
+ * fallback verifier instead (e.g. Google's /tokeninfo and signature check).
+ *
+ * Failures are {@link IOException}s and calls slower than {@code slowCallThreshold}.
+ * {@link GeneralSecurityException} means remote works fine, token is just invalid, so it's not a failure.
+ *
+ * <ul>
+ *     <li>CLOSED: calls go to remote. A failed call is retried by fallback. Once failure rate over the last
+ *     {@code windowSize} calls reaches {@code failureRateThreshold}, circuit opens.</li>
+ *     <li>OPEN: calls go to fallback only, for {@code openDuration}.</li>
+ *     <li>HALF_OPEN: one call at a time probes remote, others go to fallback. Success of the probe closes the
+ *     circuit, failure opens it again.</li>
+ * </ul>
+ *
+ * Reports scheme of the remote verifier, and handles the same requests.
+ *
+ * @author Dzmitry Lazerka
+ */
+public class CircuitBreakingTokenVerifier extends ForwardingTokenVerifier implements Diagnosable {
+	private static final Logger logger = LoggerFactory.getLogger(CircuitBreakingTokenVerifier.class);
+
+	public static final int DEFAULT_WINDOW_SIZE = 20;
+	public static final double DEFAULT_FAILURE_RATE_THRESHOLD = 0.5;
+	public static final Duration DEFAULT_SLOW_CALL_THRESHOLD = Duration.standardSeconds(2);
+	public static final Duration DEFAULT_OPEN_DURATION = Duration.standardSeconds(30);
+
+	public enum State {
+		CLOSED,
+		OPEN,
+		HALF_OPEN,
+	}
+
+	private final TokenVerifier fallback;
+	private final double failureRateThreshold;
+	private final long slowCallThresholdNanos;
+	private final Duration openDuration;
+	private final Provider<DateTime> nowProvider;
+
+	/** State changes together with the time it opened, so that a late failure can't move that time. */
+	private final AtomicReference<Circuit> circuit = new AtomicReference<>(new Circuit(State.CLOSED, null));
+	private final AtomicBoolean probing = new AtomicBoolean();
+
+	/** Outcomes of the last calls to remote, true for failure. Guarded by itself. */
+	private final boolean[] window;
+	private int windowPosition;
+	private int windowCalls;
+	private int windowFailures;
+
+	private final AtomicLong opened = new AtomicLong();
+	private final AtomicLong fallbacks = new AtomicLong();
+
+	public CircuitBreakingTokenVerifier(
+			@Nonnull TokenVerifier remote,
+			@Nonnull TokenVerifier fallback,
+			@Nonnull Provider<DateTime> nowProvider
+	) {
+		this(
+				remote,
+				fallback,
+				DEFAULT_WINDOW_SIZE,
+				DEFAULT_FAILURE_RATE_THRESHOLD,
+				DEFAULT_SLOW_CALL_THRESHOLD,
+				DEFAULT_OPEN_DURATION,
+				nowProvider);
+	}
+
+	/**
+	 * @param windowSize how many last calls to remote count for failure rate. Circuit doesn't open before that
+	 *                   many calls are made.
+	 * @param failureRateThreshold from 0 to 1.
+	 * @param slowCallThreshold calls to remote slower than that count as failures, even if they succeeded.
+	 * @param openDuration how long to use only fallback, before probing remote again.
+	 */
+	public CircuitBreakingTokenVerifier(
+			@Nonnull TokenVerifier remote,
+			@Nonnull TokenVerifier fallback,
+			int windowSize,
+			double failureRateThreshold,
+			@Nonnull Duration slowCallThreshold,
+			@Nonnull Duration openDuration,
+			@Nonnull Provider<DateTime> nowProvider
+	) {
+		super(remote);
+		checkArgument(windowSize > 0, windowSize);
+		checkArgument(failureRateThreshold > 0 && failureRateThreshold <= 1, failureRateThreshold);
+		this.fallback = checkNotNull(fallback);
+		this.window = new boolean[windowSize];
+		this.failureRateThreshold = failureRateThreshold;
+		this.slowCallThresholdNanos = MILLISECONDS.toNanos(slowCallThreshold.getMillis());
+		this.openDuration = checkNotNull(openDuration);
+		this.nowProvider = checkNotNull(nowProvider);
+	}
+
+	@Override
+	public UserPrincipal verify(String authToken) throws IOException, GeneralSecurityException {
+		Circuit circuit = this.circuit.get();
+		State current = circuit.state;
+
+		if (current == State.OPEN) {
+			if (nowProvider.get().isBefore(circuit.openedAt.plus(openDuration))) {
+				return verifyByFallback(authToken);
+			}
+			this.circuit.compareAndSet(circuit, new Circuit(State.HALF_OPEN, circuit.openedAt));
+			current = State.HALF_OPEN;
+		}
+
+		if (current == State.HALF_OPEN) {
+			if (!probing.compareAndSet(false, true)) {
+				return verifyByFallback(authToken);
+			}
+			try {
+				return probe(authToken);
+			} finally {
+				probing.set(false);
+			}
+		}
+
+		long start = System.nanoTime();
+		try {
+			UserPrincipal result = getDelegate().verify(authToken);
+			record(System.nanoTime() - start > slowCallThresholdNanos);
+			return result;
+		} catch (GeneralSecurityException e) {
+			record(false);
+			throw e;
+		} catch (IOException | RuntimeException e) {
+			record(true);
+			logger.warn("Remote verifier failed, falling back: {}", e.toString());
+			return verifyByFallback(authToken);
+		}
+	}
+
+	private UserPrincipal probe(String authToken) throws IOException, GeneralSecurityException {
+		logger.debug("Probing remote verifier");
+
+		long start = System.nanoTime();
+		boolean failed = true;
+		try {
+			UserPrincipal result = getDelegate().verify(authToken);
+			failed = System.nanoTime() - start > slowCallThresholdNanos;
+			return result;
+		} catch (GeneralSecurityException e) {
+			failed = false;
+			throw e;
+		} catch (IOException | RuntimeException e) {
+			logger.warn("Remote verifier still failing: {}", e.toString());
+			return verifyByFallback(authToken);
+		} finally {
+			if (failed) {
+				open(State.HALF_OPEN);
+			} else {
+				close();
+			}
+		}
+	}
+
+	private UserPrincipal verifyByFallback(String authToken) throws IOException, GeneralSecurityException {
+		fallbacks.incrementAndGet();
+		return fallback.verify(authToken);
+	}
+
+	private void record(boolean failure) {
+		boolean shouldOpen;
+		synchronized (window) {
+			if (windowCalls == window.length) {
+				if (window[windowPosition]) {
+					windowFailures--;
+				}
+			} else {
+				windowCalls++;
+			}
+			window[windowPosition] = failure;
+			if (failure) {
+				windowFailures++;
+			}
+			windowPosition = (windowPosition + 1) % window.length;
+
+			shouldOpen = windowCalls == window.length
+					&& windowFailures >= failureRateThreshold * window.length;
+		}
+
+		if (shouldOpen) {
+			open(State.CLOSED);
+		}
+	}
+
+	/**
+	 * Does nothing if circuit is not in {@code from} state, e.g. a late failure of a call sent while it was closed.
+	 */
+	private void open(State from) {
+		Circuit current = circuit.get();
+		if (current.state == from && circuit.compareAndSet(current, new Circuit(State.OPEN, nowProvider.get()))) {
+			opened.incrementAndGet();
+			logger.warn("Circuit opened, verifying by {} for {}", fallback.getAuthenticationScheme(), openDuration);
+		}
+	}
+
+	private void close() {
+		synchronized (window) {
+			windowPosition = 0;
+			windowCalls = 0;
+			windowFailures = 0;
+		}
+		Circuit current = circuit.get();
+		if (current.state == State.HALF_OPEN
+				&& circuit.compareAndSet(current, new Circuit(State.CLOSED, current.openedAt))) {
+			logger.info("Circuit closed, remote verifier recovered");
+		}
+	}
+
+	@Nonnull
+	public TokenVerifier getFallback() {
+		return fallback;
+	}
+
+	@Nonnull
+	public State getState() {
+		return circuit.get().state;
+	}
+
+	@Override
+	public Map<String, Object> getDiagnostics() {
+		Map<String, Object> result = new LinkedHashMap<>();
+		Circuit circuit = this.circuit.get();
+		result.put("state", circuit.state.name());
+		result.put("openedAt", circuit.openedAt == null ? null : circuit.openedAt.toString());
+		result.put("opened", opened.get());
+		result.put("fallbacks", fallbacks.get());
+		result.put("fallbackScheme", fallback.getAuthenticationScheme());
+		result.put("slowCallThresholdMillis", NANOSECONDS.toMillis(slowCallThresholdNanos));
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return MoreObjects.toStringHelper(this)
+				.addValue(getDelegate())
+				.add("fallback", fallback)
+				.add("state", getState())
+				.toString();
+	}
+
+	private static class Circuit {
+		final State state;
+
+		/** Last time circuit opened, or null if never. */
+		@Nullable
+		final DateTime openedAt;
+
+		Circuit(State state, @Nullable DateTime openedAt) {
+			this.state = state;
+			this.openedAt = openedAt;
+		}
+	}
+}
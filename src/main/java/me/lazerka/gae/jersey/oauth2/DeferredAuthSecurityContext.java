@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static me.lazerka.gae.jersey.oauth2.GaeOauthAuthFilter.UNAUTHENTICATED_AUTH_SCHEME;
+
+/**
+ * Security context for {@link Role#OPTIONAL} resources, that waits for verification only when the resource asks who
+ * the user is. Resources that never do that don't pay for verification.
+ *
+ * Verification is started by {@link #start}: remote calls of {@link AsyncTokenVerifier}s are sent right away, so they
+ * overlap with resource work. All continuations (and the whole verification, for synchronous verifiers) run on the
+ * thread that first asks, so no extra threads are needed.
+ *
+ * Asynchronous verifiers use URLFetch {@code fetchAsync}, so unlike blocking verification, their calls are neither
+ * retried (see {@link me.lazerka.gae.jersey.oauth2.facebook.FetchPolicy}) nor hedged
+ * (see {@link me.lazerka.gae.jersey.oauth2.urlfetch.HedgingUrlFetchService}).
+ * Decorators pass asynchronous verification through (see {@link ForwardingTokenVerifier#verifyAsync}), except ones
+ * that must block, like {@link me.lazerka.gae.jersey.oauth2.cache.SingleFlightTokenVerifier}: those are synchronous.
+ *
+ * If token turns out invalid, behaves as unauthenticated context with only {@link Role#OPTIONAL}.
+ *
+ * @author Dzmitry Lazerka
+ */
+public class DeferredAuthSecurityContext extends AuthSecurityContext {
+	private static final Logger logger = LoggerFactory.getLogger(DeferredAuthSecurityContext.class);
+
+	private final ListenableFuture<UserPrincipal> principal;
+	private final TaskQueue taskQueue;
+	private final long roles;
+
+	private volatile AuthSecurityContext resolved;
+
+	private DeferredAuthSecurityContext(
+			ListenableFuture<UserPrincipal> principal,
+			TaskQueue taskQueue,
+			boolean secure,
+			long roles,
+			String authenticationScheme
+	) {
+		super(null, secure, roles, authenticationScheme);
+		this.principal = principal;
+		this.taskQueue = taskQueue;
+		this.roles = roles;
+	}
+
+	/**
+	 * @param roles of the user if token is valid, mask of {@link RoleRegistry#INSTANCE} bits.
+	 */
+	public static DeferredAuthSecurityContext start(
+			AsyncTokenVerifier tokenVerifier,
+			String token,
+			boolean secure,
+			long roles
+	) {
+		TaskQueue taskQueue = new TaskQueue();
+		ListenableFuture<UserPrincipal> principal = tokenVerifier.verifyAsync(token, taskQueue);
+		return new DeferredAuthSecurityContext(
+				principal,
+				taskQueue,
+				secure,
+				roles,
+				tokenVerifier.getAuthenticationScheme());
+	}
+
+	public boolean isResolved() {
+		return resolved != null;
+	}
+
+	/**
+	 * Waits for verification to finish, running its tasks on the current thread.
+	 */
+	public AuthSecurityContext resolve() {
+		AuthSecurityContext result = resolved;
+		if (result == null) {
+			synchronized (this) {
+				result = resolved;
+				if (result == null) {
+					result = doResolve();
+					resolved = result;
+				}
+			}
+		}
+		return result;
+	}
+
+	private AuthSecurityContext doResolve() {
+		taskQueue.runUntilDone(principal);
+
+		try {
+			UserPrincipal userPrincipal = AsyncTokenVerifiers.await(principal);
+			return new AuthSecurityContext(userPrincipal, super.isSecure(), roles, super.getAuthenticationScheme());
+		} catch (GeneralSecurityException e) {
+			logger.info(e.getClass().getName() + ": " + e.getMessage());
+		} catch (IOException e) {
+			logger.error("IOException verifying OAuth token", e);
+		}
+
+		return new AuthSecurityContext(
+				null,
+				super.isSecure(),
+				RoleRegistry.INSTANCE.getBit(Role.OPTIONAL),
+				UNAUTHENTICATED_AUTH_SCHEME);
+	}
+
+	@Override
+	public UserPrincipal getUserPrincipal() {
+		return resolve().getUserPrincipal();
+	}
+
+	@Override
+	public boolean isUserInRole(String role) {
+		return resolve().isUserInRole(role);
+	}
+
+	@Override
+	public boolean isUserInAnyRole(long mask) {
+		return resolve().isUserInAnyRole(mask);
+	}
+
+	@Override
+	public long getRoleMask() {
+		return resolve().getRoleMask();
+	}
+
+	@Override
+	public String getAuthenticationScheme() {
+		return resolve().getAuthenticationScheme();
+	}
+
+	/**
+	 * Runs nothing by itself, only keeps tasks until someone needs their result.
+	 */
+	static class TaskQueue implements Executor {
+		/** Queued when the future is done, to wake up {@link #runUntilDone} if it was completed by another thread. */
+		private static final Runnable WAKE_UP = new Runnable() {
+			@Override
+			public void run() {}
+		};
+
+		private final BlockingQueue<Runnable> tasks = new LinkedBlockingQueue<>();
+
+		@Override
+		public void execute(Runnable command) {
+			tasks.add(command);
+		}
+
+		/**
+		 * Runs queued tasks, including ones they queue, until the future is done.
+		 * While there are no tasks, waits for more, because the future may be completed by another thread,
+		 * e.g. a remote call.
+		 */
+		void runUntilDone(ListenableFuture<?> future) {
+			future.addListener(WAKE_UP, this);
+			try {
+				while (!future.isDone()) {
+					tasks.take().run();
+				}
+			} catch (InterruptedException e) {
+				// Caller sees it when waiting for the future.
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableList;
+import org.joda.time.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Verifies a token of unknown type by all candidate verifiers at once, takes the first success and cancels the rest.
+ * So latency is that of the fastest verifier that accepts the token, bounded by the deadline.
+ *
+ * If none accepts, throws {@link GeneralSecurityException} only if all of them rejected the token, otherwise
+ * {@link IOException}, because the token might have been valid.
+ *
+ * @author Dzmitry Lazerka
+ * @see GaeOauthAuthFilter#useFirstSuccessAuthentication
+ */
+public class FirstSuccessVerification {
+	private static final Logger logger = LoggerFactory.getLogger(FirstSuccessVerification.class);
+
+	private final ImmutableList<TokenVerifier> candidates;
+	private final Executor executor;
+	private final Duration deadline;
+
+	/**
+	 * @param executor must be able to run all candidates concurrently. On App Engine, threads must be created for
+	 *                 current request, see {@link com.google.appengine.api.ThreadManager}.
+	 * @param deadline for all the candidates together.
+	 */
+	public FirstSuccessVerification(
+			@Nonnull List<? extends TokenVerifier> candidates,
+			@Nonnull Executor executor,
+			@Nonnull Duration deadline
+	) {
+		checkArgument(!candidates.isEmpty(), "No candidates");
+		checkArgument(deadline.getMillis() > 0, "Deadline must be positive");
+		this.candidates = ImmutableList.copyOf(candidates);
+		this.executor = checkNotNull(executor);
+		this.deadline = deadline;
+	}
+
+	public Result verify(final String authToken) throws IOException, GeneralSecurityException {
+		long deadlineNanos = System.nanoTime() + NANOSECONDS.convert(deadline.getMillis(), MILLISECONDS);
+
+		CompletionService<Result> completionService = new ExecutorCompletionService<>(executor);
+		List<Future<Result>> futures = new ArrayList<>(candidates.size());
+		for (final TokenVerifier candidate : candidates) {
+			futures.add(completionService.submit(new Callable<Result>() {
+				@Override
+				public Result call() throws Exception {
+					return new Result(candidate, candidate.verify(authToken));
+				}
+			}));
+		}
+
+		GeneralSecurityException rejected = null;
+		IOException failed = null;
+		try {
+			for (int i = 0; i < futures.size(); i++) {
+				long remaining = deadlineNanos - System.nanoTime();
+				Future<Result> future = completionService.poll(remaining, NANOSECONDS);
+				if (future == null) {
+					Exception cause = failed != null ? failed : rejected;
+					throw new IOException("No verifier succeeded in " + deadline.getMillis() + "ms", cause);
+				}
+
+				try {
+					Result result = future.get();
+					logger.trace("Verified by {}", result.getTokenVerifier().getAuthenticationScheme());
+					return result;
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof GeneralSecurityException) {
+						rejected = (GeneralSecurityException) cause;
+					} else if (cause instanceof IOException) {
+						failed = (IOException) cause;
+					} else {
+						failed = new IOException(cause);
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted", e);
+		} finally {
+			for (Future<Result> future : futures) {
+				future.cancel(true);
+			}
+		}
+
+		if (failed != null) {
+			throw failed;
+		}
+		throw rejected;
+	}
+
+	public List<TokenVerifier> getCandidates() {
+		return candidates;
+	}
+
+	public Duration getDeadline() {
+		return deadline;
+	}
+
+	@Override
+	public String toString() {
+		return MoreObjects.toStringHelper(this)
+				.add("candidates", candidates)
+				.add("deadline", deadline)
+				.toString();
+	}
+
+	public static class Result {
+		private final TokenVerifier tokenVerifier;
+		private final UserPrincipal userPrincipal;
+
+		Result(TokenVerifier tokenVerifier, UserPrincipal userPrincipal) {
+			this.tokenVerifier = tokenVerifier;
+			this.userPrincipal = userPrincipal;
+		}
+
+		/** The one that accepted the token. */
+		public TokenVerifier getTokenVerifier() {
+			return tokenVerifier;
+		}
+
+		public UserPrincipal getUserPrincipal() {
+			return userPrincipal;
+		}
+	}
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.sun.jersey.spi.container.ContainerRequest;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.Executor;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Base class for decorators of {@link TokenVerifier}: forwards all calls to the delegate.
+ *
+ * Subclasses override only what they decorate (usually {@link #verify}), so a decorated verifier handles the same
+ * requests and reports the same authentication scheme as the original one.
+ *
+ * By default, {@link #verifyAsync} runs the whole {@link #verify} on the executor, so remote calls are not sent until
+ * executor runs it. Decorators that can pass the call through to {@link #getAsyncDelegate()} override it.
+ *
+ * @author Dzmitry Lazerka
+ */
+public abstract class ForwardingTokenVerifier implements AsyncTokenVerifier {
+	private final TokenVerifier delegate;
+
+	protected ForwardingTokenVerifier(@Nonnull TokenVerifier delegate) {
+		this.delegate = checkNotNull(delegate);
+	}
+
+	@Nonnull
+	public TokenVerifier getDelegate() {
+		return delegate;
+	}
+
+	/**
+	 * @return delegate, adapted if it's not asynchronous.
+	 */
+	@Nonnull
+	protected AsyncTokenVerifier getAsyncDelegate() {
+		return AsyncTokenVerifiers.adapt(delegate);
+	}
+
+	@Override
+	public boolean canHandle(@Nonnull ContainerRequest request) {
+		return delegate.canHandle(request);
+	}
+
+	@Override
+	public UserPrincipal verify(String authToken) throws IOException, GeneralSecurityException {
+		return delegate.verify(authToken);
+	}
+
+	@Override
+	public ListenableFuture<UserPrincipal> verifyAsync(String authToken, Executor executor) {
+		return AsyncTokenVerifiers.verifyOn(this, authToken, executor);
+	}
+
+	@Override
+	public String getAuthenticationScheme() {
+		return delegate.getAuthenticationScheme();
+	}
+
+	@Override
+	public String toString() {
+		return MoreObjects.toStringHelper(this)
+				.addValue(delegate)
+				.toString();
+	}
+}
@@ -26,6 +26,8 @@ import com.sun.jersey.spi.container.ContainerRequest;
 import com.sun.jersey.spi.container.ContainerRequestFilter;
 import com.sun.jersey.spi.container.ContainerResponseFilter;
 import me.lazerka.gae.jersey.oauth2.google.GoogleUserPrincipal;
+import me.lazerka.gae.jersey.oauth2.metrics.AuthMetrics;
+import me.lazerka.gae.jersey.oauth2.metrics.NoopAuthMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -60,6 +62,10 @@ public class GaeOauthAuthFilter implements AuthFilter {
 	public static final String GAE_AUTH_SCHEME = "GAE";
 	public static final String UNAUTHENTICATED_AUTH_SCHEME = "Unauthenticated";
 
+	private static final long OPTIONAL_ROLES = RoleRegistry.INSTANCE.register(Role.OPTIONAL);
+	private static final long USER_ROLES = RoleRegistry.INSTANCE.register(ImmutableSet.of(Role.USER, Role.OPTIONAL));
+	private static final long ADMIN_ROLES = USER_ROLES | RoleRegistry.INSTANCE.register(Role.ADMIN);
+
 	@Inject
 	protected Set<TokenVerifier> tokenVerifiers;
 
@@ -70,10 +76,71 @@ public class GaeOauthAuthFilter implements AuthFilter {
 	@Inject
 	protected UserService userService;
 
-	protected Set<String> rolesAllowed;
+	/** Optional, so that filter works without any metrics bound. */
+	@com.google.inject.Inject(optional = true)
+	protected AuthMetrics metrics = NoopAuthMetrics.INSTANCE;
+
+	/**
+	 * Opt-in: if bound, tokens without explicit scheme are verified by all its candidates in parallel,
+	 * instead of guessing the verifier.
+	 */
+	@com.google.inject.Inject(optional = true)
+	protected FirstSuccessVerification firstSuccessVerification;
+
+	/**
+	 * Opt-in: whether to verify tokens for {@link Role#OPTIONAL} resources only when resource asks for the user.
+	 * Such verification has no retries and no hedging, see {@link OauthModule#deferOptionalAuthentication()}.
+	 *
+	 * @see DeferredAuthSecurityContext
+	 */
+	@com.google.inject.Inject(optional = true)
+	@Named("oauth.deferOptionalAuthentication")
+	protected boolean deferOptionalAuthentication;
+
+	private TokenVerifierDispatcher dispatcher;
+
+	/**
+	 * Set once by {@link AuthFilterFactory} before the filter is shared between methods and threads.
+	 * Volatile, so that reading it first publishes {@link #rolesAllowedMask} too.
+	 */
+	protected volatile Set<String> rolesAllowed;
+
+	/**
+	 * Same as {@link #rolesAllowed}, as {@link RoleRegistry} mask, except {@link #unregisteredRolesAllowed}.
+	 * Written before {@link #rolesAllowed}.
+	 */
+	protected long rolesAllowedMask;
+
+	/**
+	 * Roles that didn't fit into {@link RoleRegistry}, checked by name. Usually empty.
+	 * Written before {@link #rolesAllowed}.
+	 */
+	protected Set<String> unregisteredRolesAllowed;
 
-	public void setRolesAllowed(Set<String> rolesAllowed) {
-		this.rolesAllowed = rolesAllowed;
+	/**
+	 * @throws IllegalStateException if roles are already set, because filter may already be shared.
+	 */
+	@Override
+	public synchronized void setRolesAllowed(Set<String> rolesAllowed) {
+		checkState(this.rolesAllowed == null, "Roles already set to %s", this.rolesAllowed);
+
+		long mask = 0;
+		ImmutableSet.Builder<String> unregistered = ImmutableSet.builder();
+		for (String role : rolesAllowed) {
+			long bit = RoleRegistry.INSTANCE.tryRegister(role);
+			if (bit == 0) {
+				unregistered.add(role);
+			}
+			mask |= bit;
+		}
+
+		this.rolesAllowedMask = mask;
+		this.unregisteredRolesAllowed = unregistered.build();
+		this.rolesAllowed = ImmutableSet.copyOf(rolesAllowed);
+
+		if (!unregisteredRolesAllowed.isEmpty()) {
+			logger.warn("Too many roles, checking {} by name", unregisteredRolesAllowed);
+		}
 	}
 
 	public static boolean isDevServer() {
@@ -89,19 +156,31 @@ public class GaeOauthAuthFilter implements AuthFilter {
 
 		AuthSecurityContext securityContext = getSecurityContext(request);
 
-		for(String roleAllowed : rolesAllowed) {
-			if (securityContext.isUserInRole(roleAllowed)) {
-				request.setSecurityContext(securityContext);
-				return request;
-			}
+		// Any context has OPTIONAL role, and it must not be resolved if deferred.
+		if ((rolesAllowedMask & OPTIONAL_ROLES) != 0 || isUserInAnyRoleAllowed(securityContext)) {
+			request.setSecurityContext(securityContext);
+			return request;
 		}
 
 		UserPrincipal principal = securityContext.getUserPrincipal();
 		logger.warn("User {} not in roles {}", principal, rolesAllowed);
+		metrics.recordRejection(Status.FORBIDDEN.getStatusCode());
 
 		throw new WebApplicationException(getForbiddenResponse("Not Authorized"));
 	}
 
+	protected boolean isUserInAnyRoleAllowed(AuthSecurityContext securityContext) {
+		if (securityContext.isUserInAnyRole(rolesAllowedMask)) {
+			return true;
+		}
+		for (String role : unregisteredRolesAllowed) {
+			if (securityContext.isUserInRole(role)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	protected AuthSecurityContext getSecurityContext(ContainerRequest request) {
 		// Deny all insecure requests on production (@PermitAll requests do not come here at all).
 		if (!request.isSecure() && !isDevServer()) {
@@ -135,7 +214,20 @@ public class GaeOauthAuthFilter implements AuthFilter {
 	}
 
 	protected AuthSecurityContext useBearerAuthentication(ContainerRequest request, String token) {
-		TokenVerifier tokenVerifier = findTokenVerifier(request);
+		if (firstSuccessVerification != null && getDispatcher().findExplicit(request) == null) {
+			return useFirstSuccessAuthentication(request, token);
+		}
+
+		TokenVerifier tokenVerifier = findTokenVerifier(request, token);
+
+		if (deferOptionalAuthentication && (rolesAllowedMask & OPTIONAL_ROLES) != 0) {
+			logger.trace("Deferring authentication using {} scheme", tokenVerifier.getAuthenticationScheme());
+			return DeferredAuthSecurityContext.start(
+					AsyncTokenVerifiers.adapt(tokenVerifier),
+					token,
+					request.isSecure(),
+					USER_ROLES);
+		}
 
 		logger.trace("Authenticating using {} scheme...", tokenVerifier.getAuthenticationScheme());
 		try {
@@ -143,7 +235,7 @@ public class GaeOauthAuthFilter implements AuthFilter {
 			return new AuthSecurityContext(
 					userPrincipal,
 					request.isSecure(),
-					ImmutableSet.of(Role.USER, Role.OPTIONAL),
+					USER_ROLES,
 					tokenVerifier.getAuthenticationScheme()
 			);
 		} catch (GeneralSecurityException e) {
@@ -155,20 +247,53 @@ public class GaeOauthAuthFilter implements AuthFilter {
 		}
 	}
 
-	protected TokenVerifier findTokenVerifier(ContainerRequest request) {
-		for (TokenVerifier tokenVerifier : tokenVerifiers) {
-			if (tokenVerifier.canHandle(request)) {
-				return tokenVerifier;
-			}
+	protected AuthSecurityContext useFirstSuccessAuthentication(ContainerRequest request, String token) {
+		logger.trace("Authenticating using {}...", firstSuccessVerification);
+		try {
+			FirstSuccessVerification.Result result = firstSuccessVerification.verify(token);
+			return new AuthSecurityContext(
+					result.getUserPrincipal(),
+					request.isSecure(),
+					USER_ROLES,
+					result.getTokenVerifier().getAuthenticationScheme()
+			);
+		} catch (GeneralSecurityException e) {
+			logger.info(e.getClass().getName() + ": " + e.getMessage());
+			return throwUnauthenticatedIfNotOptional(request, "Invalid OAuth2.0 token", e);
+		} catch (IOException e) {
+			logger.error("IOException verifying OAuth token", e);
+			return throwUnauthenticatedIfNotOptional(request, "Error verifying OAuth2.0 token", e);
 		}
+	}
+
+	protected TokenVerifier findTokenVerifier(ContainerRequest request) {
+		return getDispatcher().find(request);
+	}
 
-		return defaultTokenVerifier;
+	/**
+	 * Like {@link #findTokenVerifier(ContainerRequest)}, but guesses verifier by {@link TokenShape} if request doesn't
+	 * specify the scheme.
+	 */
+	protected TokenVerifier findTokenVerifier(ContainerRequest request, String token) {
+		return getDispatcher().find(request, token);
+	}
+
+	/**
+	 * Built on first request, after injection. Racing threads may build it twice, which is harmless,
+	 * because it's immutable.
+	 */
+	protected TokenVerifierDispatcher getDispatcher() {
+		TokenVerifierDispatcher result = dispatcher;
+		if (result == null) {
+			result = new TokenVerifierDispatcher(tokenVerifiers, defaultTokenVerifier);
+			logger.debug("Built {}", result);
+			dispatcher = result;
+		}
+		return result;
 	}
 
 	protected AuthSecurityContext useGaeAuthentication(ContainerRequest request) {
-		Set<String> roles = userService.isUserAdmin()
-				? ImmutableSet.of(Role.USER, Role.ADMIN, Role.OPTIONAL)
-				: ImmutableSet.of(Role.USER, Role.OPTIONAL);
+		long roles = userService.isUserAdmin() ? ADMIN_ROLES : USER_ROLES;
 
 		User user = userService.getCurrentUser();
 		UserPrincipal userPrincipal = new GoogleUserPrincipal(user.getUserId(), user.getEmail());
@@ -200,15 +325,16 @@ public class GaeOauthAuthFilter implements AuthFilter {
 				.entity(reason)
 				.build();
 
-		if (rolesAllowed.contains(Role.OPTIONAL)) {
+		if ((rolesAllowedMask & OPTIONAL_ROLES) != 0) {
 			return new AuthSecurityContext(
 					null,
 					request.isSecure(),
-					ImmutableSet.of(Role.OPTIONAL),
+					OPTIONAL_ROLES,
 					UNAUTHENTICATED_AUTH_SCHEME
 			);
 		}
 
+		metrics.recordRejection(Status.UNAUTHORIZED.getStatusCode());
 		throw new WebApplicationException(cause, response);
 	}
 
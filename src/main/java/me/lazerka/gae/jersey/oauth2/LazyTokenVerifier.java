@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Supplier;
+import com.google.common.util.concurrent.ListenableFuture;
+import me.lazerka.gae.jersey.oauth2.diagnostics.Diagnosable;
+import me.lazerka.gae.jersey.oauth2.facebook.BasicTokenVerifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Creates the actual verifier on first verification, so that its (possibly heavy) dependencies are not created at
+ * startup, or at all if no request ever needs them.
+ *
+ * Scheme must be known upfront, because {@link #canHandle} is called for every request. Delegate's own `canHandle`
+ * is not used, the scheme header is checked as in {@link BasicTokenVerifier}.
+ *
+ * @author Dzmitry Lazerka
+ */
+public class LazyTokenVerifier extends BasicTokenVerifier implements AsyncTokenVerifier, Diagnosable {
+	private static final Logger logger = LoggerFactory.getLogger(LazyTokenVerifier.class);
+
+	private final String authenticationScheme;
+	private final Supplier<? extends TokenVerifier> supplier;
+
+	private volatile TokenVerifier delegate;
+
+	/**
+	 * @param supplier called at most once.
+	 */
+	public LazyTokenVerifier(String authenticationScheme, Supplier<? extends TokenVerifier> supplier) {
+		this.authenticationScheme = checkNotNull(authenticationScheme);
+		this.supplier = checkNotNull(supplier);
+	}
+
+	public TokenVerifier getDelegate() {
+		TokenVerifier result = delegate;
+		if (result == null) {
+			synchronized (this) {
+				result = delegate;
+				if (result == null) {
+					logger.info("Initializing verifier for {}", authenticationScheme);
+					result = checkNotNull(supplier.get());
+					delegate = result;
+				}
+			}
+		}
+		return result;
+	}
+
+	public boolean isInitialized() {
+		return delegate != null;
+	}
+
+	@Override
+	public UserPrincipal verify(String authToken) throws IOException, GeneralSecurityException {
+		return getDelegate().verify(authToken);
+	}
+
+	@Override
+	public ListenableFuture<UserPrincipal> verifyAsync(String authToken, Executor executor) {
+		return AsyncTokenVerifiers.adapt(getDelegate()).verifyAsync(authToken, executor);
+	}
+
+	@Override
+	public String getAuthenticationScheme() {
+		return authenticationScheme;
+	}
+
+	@Override
+	public Map<String, Object> getDiagnostics() {
+		return Collections.<String, Object>singletonMap("initialized", isInitialized());
+	}
+
+	@Override
+	public String toString() {
+		return MoreObjects.toStringHelper(this)
+				.add("scheme", authenticationScheme)
+				.add("delegate", delegate)
+				.toString();
+	}
+}
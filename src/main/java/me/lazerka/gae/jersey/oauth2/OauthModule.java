@@ -21,15 +21,37 @@ import com.google.api.client.extensions.appengine.http.UrlFetchTransport;
 import com.google.api.client.googleapis.auth.oauth2.GoogleIdTokenVerifier;
 import com.google.api.client.googleapis.auth.oauth2.GooglePublicKeysManager;
 import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.appengine.api.ThreadManager;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.urlfetch.URLFetchService;
 import com.google.appengine.api.urlfetch.URLFetchServiceFactory;
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hashing;
 import com.google.common.io.Files;
 import com.google.inject.AbstractModule;
 import com.google.inject.multibindings.Multibinder;
 import com.google.inject.name.Names;
+import me.lazerka.gae.jersey.oauth2.cache.CachingTokenVerifier;
+import me.lazerka.gae.jersey.oauth2.cache.MemcachePrincipalCache;
+import me.lazerka.gae.jersey.oauth2.cache.NegativeCachingTokenVerifier;
+import me.lazerka.gae.jersey.oauth2.cache.PrincipalCodec;
+import me.lazerka.gae.jersey.oauth2.cache.SingleFlightTokenVerifier;
+import me.lazerka.gae.jersey.oauth2.diagnostics.Diagnosable;
+import me.lazerka.gae.jersey.oauth2.facebook.FetchPolicy;
 import me.lazerka.gae.jersey.oauth2.facebook.TokenVerifierFacebookDebugToken;
+import me.lazerka.gae.jersey.oauth2.google.GooglePublicKeysRefresher;
+import me.lazerka.gae.jersey.oauth2.google.RefreshingGoogleIdTokenVerifier;
+import me.lazerka.gae.jersey.oauth2.google.TokenVerifierGoogleRemote;
 import me.lazerka.gae.jersey.oauth2.google.TokenVerifierGoogleSignature;
+import me.lazerka.gae.jersey.oauth2.metrics.AuthMetrics;
+import me.lazerka.gae.jersey.oauth2.metrics.InMemoryAuthMetrics;
+import me.lazerka.gae.jersey.oauth2.metrics.MeteredTokenVerifier;
+import me.lazerka.gae.jersey.oauth2.metrics.NoopAuthMetrics;
+import me.lazerka.gae.jersey.oauth2.urlfetch.HedgingUrlFetchService;
 import org.joda.time.DateTime;
+import org.joda.time.Duration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -38,10 +60,18 @@ import javax.inject.Provider;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Suppliers.memoize;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.joda.time.DateTimeZone.UTC;
 
@@ -64,6 +94,37 @@ public class OauthModule extends AbstractModule {
 	private final String facebookAppId;
 	private final String facebookAppSecret;
 
+	/** Authentication scheme -> cache settings. */
+	private final Map<String, CacheSettings> cachedSchemes = new HashMap<>();
+
+	/** Authentication scheme -> negative cache settings. */
+	private final Map<String, CacheSettings> negativeCachedSchemes = new HashMap<>();
+
+	/** Authentication schemes to coalesce concurrent verifications of the same token for. */
+	private final Set<String> singleFlightSchemes = new HashSet<>();
+
+	private boolean shareVerifiedTokens;
+	private MemcachePrincipalCache sharedCache;
+
+	private AuthMetrics metrics = NoopAuthMetrics.INSTANCE;
+
+	/** Authentication schemes to verify in parallel tokens without explicit scheme. */
+	private final List<String> firstSuccessSchemes = new ArrayList<>();
+	private Duration firstSuccessDeadline;
+
+	private boolean lazy;
+
+	private boolean googleRemote;
+
+	/** For Facebook /debug_token calls, or null for default. */
+	private FetchPolicy debugTokenPolicy;
+
+	/** Budget of hedged remote calls in flight, or null if not hedging. */
+	private Integer maxHedgesInFlight;
+	private URLFetchService urlFetchService;
+
+	private boolean deferOptionalAuthentication;
+
 	public OauthModule(
 			@Nonnull File googleClientId,
 			@Nonnull File facebookAppId,
@@ -90,34 +151,364 @@ public class OauthModule extends AbstractModule {
 		this.facebookAppSecret = checkNotNull(facebookAppSecret);
 	}
 
+	/**
+	 * Enables caching of verified tokens for verifier of given scheme, with default settings.
+	 *
+	 * @see CachingTokenVerifier
+	 */
+	public OauthModule cacheVerifiedTokens(@Nonnull String authenticationScheme) {
+		return cacheVerifiedTokens(
+				authenticationScheme,
+				CachingTokenVerifier.DEFAULT_MAXIMUM_SIZE,
+				CachingTokenVerifier.DEFAULT_MAX_TTL);
+	}
+
+	/**
+	 * Enables caching of verified tokens for verifier of given scheme.
+	 *
+	 * @param maximumSize How many tokens to remember at most.
+	 * @param maxTtl How long to remember a token, if it doesn't expire earlier.
+	 * @see CachingTokenVerifier
+	 */
+	public OauthModule cacheVerifiedTokens(
+			@Nonnull String authenticationScheme,
+			long maximumSize,
+			@Nonnull Duration maxTtl
+	) {
+		cachedSchemes.put(checkNotNull(authenticationScheme), new CacheSettings(maximumSize, checkNotNull(maxTtl)));
+		return this;
+	}
+
+	/**
+	 * Makes caches of verified tokens also use Memcache, so that tokens verified by one instance are not verified
+	 * again by others. Has effect only on schemes with {@link #cacheVerifiedTokens} enabled.
+	 *
+	 * @see MemcachePrincipalCache
+	 */
+	public OauthModule shareVerifiedTokensCache() {
+		shareVerifiedTokens = true;
+		return this;
+	}
+
+	/**
+	 * Enables remembering of invalid tokens for verifier of given scheme, with default settings.
+	 *
+	 * @see NegativeCachingTokenVerifier
+	 */
+	public OauthModule cacheInvalidTokens(@Nonnull String authenticationScheme) {
+		return cacheInvalidTokens(
+				authenticationScheme,
+				NegativeCachingTokenVerifier.DEFAULT_MAXIMUM_SIZE,
+				NegativeCachingTokenVerifier.DEFAULT_TTL);
+	}
+
+	/**
+	 * Enables remembering of invalid tokens for verifier of given scheme.
+	 *
+	 * @param maximumSize How many tokens to remember at most.
+	 * @param ttl How long to reject a token without verifying it again. Keep it short.
+	 * @see NegativeCachingTokenVerifier
+	 */
+	public OauthModule cacheInvalidTokens(
+			@Nonnull String authenticationScheme,
+			long maximumSize,
+			@Nonnull Duration ttl
+	) {
+		negativeCachedSchemes.put(checkNotNull(authenticationScheme), new CacheSettings(maximumSize, checkNotNull(ttl)));
+		return this;
+	}
+
+	/**
+	 * Makes concurrent verifications of the same token by verifier of given scheme share one verification.
+	 *
+	 * @see SingleFlightTokenVerifier
+	 */
+	public OauthModule coalesceConcurrentVerifications(@Nonnull String authenticationScheme) {
+		singleFlightSchemes.add(checkNotNull(authenticationScheme));
+		return this;
+	}
+
+	/**
+	 * Records verification latencies and outcomes, remote calls, cache hits and rejections into given metrics, which
+	 * is also bound as {@link AuthMetrics}. Nothing is recorded by default.
+	 *
+	 * @see InMemoryAuthMetrics
+	 */
+	public OauthModule recordMetrics(@Nonnull AuthMetrics metrics) {
+		this.metrics = checkNotNull(metrics);
+		return this;
+	}
+
+	/**
+	 * Defers creation of verifiers and their dependencies (Google keys manager, HTTP transports, JSON mappers) until
+	 * the first request that needs them, to make App Engine loading requests faster.
+	 * The first authenticated request pays for that instead.
+	 *
+	 * @see LazyTokenVerifier
+	 */
+	public OauthModule lazyInitialization() {
+		lazy = true;
+		return this;
+	}
+
+	/**
+	 * Makes tokens that don't specify their scheme be verified by verifiers of all given schemes in parallel,
+	 * taking the first success.
+	 *
+	 * @param deadline for all verifiers together.
+	 * @see FirstSuccessVerification
+	 */
+	public OauthModule verifyInParallel(@Nonnull Duration deadline, @Nonnull String... authenticationSchemes) {
+		checkArgument(authenticationSchemes.length > 0, "No schemes");
+		firstSuccessDeadline = checkNotNull(deadline);
+		firstSuccessSchemes.clear();
+		firstSuccessSchemes.addAll(Arrays.asList(authenticationSchemes));
+		return this;
+	}
+
+	/**
+	 * Adds verifier of {@link TokenVerifierGoogleRemote#AUTH_SCHEME}, that asks Google's /tokeninfo endpoint.
+	 * While the endpoint is failing or slow, tokens are verified by signature instead.
+	 *
+	 * @see CircuitBreakingTokenVerifier
+	 */
+	public OauthModule verifyGoogleTokensRemotely() {
+		googleRemote = true;
+		return this;
+	}
+
+	/**
+	 * Overrides deadline and retries of Facebook /debug_token calls.
+	 *
+	 * @see FetchPolicy#DEFAULT_DEBUG_TOKEN
+	 */
+	public OauthModule facebookDebugTokenPolicy(@Nonnull FetchPolicy policy) {
+		debugTokenPolicy = checkNotNull(policy);
+		return this;
+	}
+
+	/**
+	 * Makes remote verifiers send a duplicate request when the first one is slower than usual for its endpoint,
+	 * taking whichever responds first. Only read-only endpoints are hedged, not Facebook code exchange.
+	 *
+	 * @param maxHedgesInFlight how many duplicate requests may be in flight at once.
+	 * @see HedgingUrlFetchService
+	 */
+	public OauthModule hedgeRemoteCalls(int maxHedgesInFlight) {
+		checkArgument(maxHedgesInFlight > 0, maxHedgesInFlight);
+		this.maxHedgesInFlight = maxHedgesInFlight;
+		return this;
+	}
+
+	/**
+	 * Makes {@link Role#OPTIONAL} resources verify tokens only when they ask for the user, overlapping remote calls
+	 * with resource work.
+	 *
+	 * Caching, negative caching, metrics and lazy initialization pass such verification through, so Facebook verifiers
+	 * send their calls right away, using asynchronous URLFetch: such calls are not retried, and not hedged even if
+	 * {@link #hedgeRemoteCalls} is set. Verifiers with {@link #coalesceConcurrentVerifications} or
+	 * {@link #circuitBreakGoogleRemote} are verified as usual (blocking, retried and hedged), but only once the resource
+	 * asks for the user.
+	 *
+	 * @see DeferredAuthSecurityContext
+	 */
+	public OauthModule deferOptionalAuthentication() {
+		deferOptionalAuthentication = true;
+		return this;
+	}
+
 	@Override
 	protected void configure() {
+		bind(AuthMetrics.class).toInstance(metrics);
+		bind(Boolean.class)
+				.annotatedWith(Names.named("oauth.deferOptionalAuthentication"))
+				.toInstance(deferOptionalAuthentication);
 
 		// This guy is recommended to be a singleton, because it keeps a shared store of Google's public keys.
-		GooglePublicKeysManager googlePublicKeysManager = getGooglePublicKeysManager();
-		bind(GooglePublicKeysManager.class).toInstance(googlePublicKeysManager);
-		TokenVerifier googleVerifier = new TokenVerifierGoogleSignature(
-				getGoogleIdTokenVerifier(googlePublicKeysManager, googleClientId),
-				new NowProvider()
-		);
+		final Supplier<GooglePublicKeysManager> googlePublicKeysManager = memoize(
+				new Supplier<GooglePublicKeysManager>() {
+					@Override
+					public GooglePublicKeysManager get() {
+						return getGooglePublicKeysManager();
+					}
+				});
 
-		ObjectMapper jackson = new ObjectMapper();
+		// Refreshes keys ahead of their expiration, so that requests don't wait for that.
+		final Supplier<GooglePublicKeysRefresher> googlePublicKeysRefresher = memoize(
+				new Supplier<GooglePublicKeysRefresher>() {
+					@Override
+					public GooglePublicKeysRefresher get() {
+						return new GooglePublicKeysRefresher(
+								googlePublicKeysManager.get(),
+								new RequestThreadExecutor(),
+								GooglePublicKeysRefresher.DEFAULT_REFRESH_AHEAD);
+					}
+				});
+
+		Supplier<TokenVerifier> googleVerifier = new Supplier<TokenVerifier>() {
+			@Override
+			public TokenVerifier get() {
+				return decorate(new TokenVerifierGoogleSignature(
+						getGoogleIdTokenVerifier(
+								googlePublicKeysManager.get(),
+								googlePublicKeysRefresher.get(),
+								googleClientId),
+						new NowProvider()
+				));
+			}
+		};
 
 		bind(String.class).annotatedWith(Names.named("facebook.app.id")).toInstance(facebookAppId);
 		bind(String.class).annotatedWith(Names.named("facebook.app.secret")).toInstance(facebookAppSecret);
-		TokenVerifier facebookVerifierSignedRequest = new TokenVerifierFacebookDebugToken(
-				URLFetchServiceFactory.getURLFetchService(),
-				jackson,
-				facebookAppId,
-				facebookAppSecret,
-				new NowProvider()
-		);
+		Supplier<TokenVerifier> facebookVerifier = new Supplier<TokenVerifier>() {
+			@Override
+			public TokenVerifier get() {
+				TokenVerifierFacebookDebugToken verifier = new TokenVerifierFacebookDebugToken(
+						getUrlFetchService(),
+						new ObjectMapper(),
+						facebookAppId,
+						facebookAppSecret,
+						new NowProvider(),
+						metrics
+				);
+				if (debugTokenPolicy != null) {
+					verifier.setFetchPolicy(FetchPolicy.DEBUG_TOKEN, debugTokenPolicy);
+				}
+				return decorate(verifier);
+			}
+		};
+
+		TokenVerifier google;
+		TokenVerifier facebook;
+		if (lazy) {
+			logger.trace("Deferring creation of verifiers until first use");
+			bind(GooglePublicKeysManager.class).toProvider(new SupplierProvider<>(googlePublicKeysManager));
+			bind(GooglePublicKeysRefresher.class).toProvider(new SupplierProvider<>(googlePublicKeysRefresher));
+			google = new LazyTokenVerifier(TokenVerifierGoogleSignature.AUTH_SCHEME, googleVerifier);
+			facebook = new LazyTokenVerifier(TokenVerifierFacebookDebugToken.AUTH_SCHEME, facebookVerifier);
+		} else {
+			bind(GooglePublicKeysManager.class).toInstance(googlePublicKeysManager.get());
+			bind(GooglePublicKeysRefresher.class).toInstance(googlePublicKeysRefresher.get());
+			google = googleVerifier.get();
+			facebook = facebookVerifier.get();
+		}
+
+		// Shared components, that diagnostics wouldn't find in verifier chains.
+		Multibinder<Diagnosable> diagnosables = Multibinder.newSetBinder(binder(), Diagnosable.class);
+		if (maxHedgesInFlight != null) {
+			// Cheap to create, no need to be lazy.
+			diagnosables.addBinding().toInstance((HedgingUrlFetchService) getUrlFetchService());
+		}
 
 		Multibinder<TokenVerifier> multibinder = Multibinder.newSetBinder(binder(), TokenVerifier.class);
-		multibinder.addBinding().toInstance(googleVerifier);
-		multibinder.addBinding().toInstance(facebookVerifierSignedRequest);
+		multibinder.addBinding().toInstance(google);
+		multibinder.addBinding().toInstance(facebook);
+
+		bind(TokenVerifier.class).annotatedWith(Names.named("default")).toInstance(google);
+
+		ImmutableMap.Builder<String, TokenVerifier> verifiers = ImmutableMap.<String, TokenVerifier>builder()
+				.put(google.getAuthenticationScheme(), google)
+				.put(facebook.getAuthenticationScheme(), facebook);
+
+		if (googleRemote) {
+			// Not lazy, it's cheap to create, and the expensive fallback is already lazy if needed.
+			TokenVerifier remote = decorate(new CircuitBreakingTokenVerifier(
+					new TokenVerifierGoogleRemote(
+							getUrlFetchService(),
+							JacksonFactory.getDefaultInstance(),
+							googleClientId,
+							metrics),
+					google,
+					new NowProvider()));
+			multibinder.addBinding().toInstance(remote);
+			verifiers.put(remote.getAuthenticationScheme(), remote);
+		}
+
+		if (!firstSuccessSchemes.isEmpty()) {
+			Map<String, TokenVerifier> byScheme = verifiers.build();
+			List<TokenVerifier> candidates = new ArrayList<>();
+			for (String scheme : firstSuccessSchemes) {
+				TokenVerifier candidate = byScheme.get(scheme);
+				checkArgument(candidate != null, "Unknown scheme %s, known: %s", scheme, byScheme.keySet());
+				candidates.add(candidate);
+			}
+			bind(FirstSuccessVerification.class).toInstance(new FirstSuccessVerification(
+					candidates,
+					new RequestThreadExecutor(),
+					firstSuccessDeadline));
+		}
+	}
+
+	/**
+	 * Wraps verifier into decorators enabled for its authentication scheme.
+	 */
+	protected TokenVerifier decorate(TokenVerifier verifier) {
+		TokenVerifier result = verifier;
+
+		if (singleFlightSchemes.contains(verifier.getAuthenticationScheme())) {
+			logger.trace("Coalescing concurrent verifications of {}", verifier.getAuthenticationScheme());
+			result = new SingleFlightTokenVerifier(result);
+		}
+
+		CacheSettings negativeCacheSettings = negativeCachedSchemes.get(verifier.getAuthenticationScheme());
+		if (negativeCacheSettings != null) {
+			logger.trace("Caching invalid tokens of {}", verifier.getAuthenticationScheme());
+			result = new NegativeCachingTokenVerifier(
+					result,
+					negativeCacheSettings.maximumSize,
+					negativeCacheSettings.maxTtl);
+		}
+
+		CacheSettings cacheSettings = cachedSchemes.get(verifier.getAuthenticationScheme());
+		if (cacheSettings != null) {
+			logger.trace("Caching verified tokens of {}", verifier.getAuthenticationScheme());
+			result = new CachingTokenVerifier(
+					result,
+					cacheSettings.maximumSize,
+					cacheSettings.maxTtl,
+					new NowProvider(),
+					shareVerifiedTokens ? getSharedCache() : null,
+					metrics);
+		}
+
+		if (metrics != NoopAuthMetrics.INSTANCE) {
+			result = new MeteredTokenVerifier(result, metrics);
+		}
 
-		bind(TokenVerifier.class).annotatedWith(Names.named("default")).toInstance(googleVerifier);
+		return result;
+	}
+
+	private MemcachePrincipalCache getSharedCache() {
+		if (sharedCache == null) {
+			// Scoped by audience, so that other configurations in the same app don't accept our tokens.
+			String audience = Hashing.sha256()
+					.hashString(googleClientId + '\n' + facebookAppId, UTF_8)
+					.toString()
+					.substring(0, 16);
+			sharedCache = new MemcachePrincipalCache(
+					MemcacheServiceFactory.getMemcacheService(MemcachePrincipalCache.NAMESPACE),
+					new PrincipalCodec())
+					.forScope(audience);
+		}
+		return sharedCache;
+	}
+
+	/**
+	 * Shared by all remote verifiers, so that they share the hedging budget.
+	 */
+	private URLFetchService getUrlFetchService() {
+		if (urlFetchService == null) {
+			URLFetchService result = URLFetchServiceFactory.getURLFetchService();
+			if (maxHedgesInFlight != null) {
+				result = new HedgingUrlFetchService(
+						result,
+						HedgingUrlFetchService.DEFAULT_PERCENTILE,
+						HedgingUrlFetchService.DEFAULT_INITIAL_DELAY,
+						maxHedgesInFlight);
+			}
+			urlFetchService = result;
+		}
+		return urlFetchService;
 	}
 
 	private GooglePublicKeysManager getGooglePublicKeysManager() {
@@ -131,11 +522,15 @@ public class OauthModule extends AbstractModule {
 		return new GooglePublicKeysManager(transport, JacksonFactory.getDefaultInstance());
 	}
 
-	private GoogleIdTokenVerifier getGoogleIdTokenVerifier(GooglePublicKeysManager publicKeysManager, String clientId) {
-		return new GoogleIdTokenVerifier.Builder(publicKeysManager)
+	private GoogleIdTokenVerifier getGoogleIdTokenVerifier(
+			GooglePublicKeysManager publicKeysManager,
+			GooglePublicKeysRefresher publicKeysRefresher,
+			String clientId
+	) {
+		GoogleIdTokenVerifier.Builder builder = new GoogleIdTokenVerifier.Builder(publicKeysManager)
 				.setAudience(ImmutableSet.of(clientId))
-				.setIssuers(ALLOWED_ISSUERS)
-				.build();
+				.setIssuers(ALLOWED_ISSUERS);
+		return new RefreshingGoogleIdTokenVerifier(builder, publicKeysRefresher);
 	}
 
 	/**
@@ -145,7 +540,7 @@ public class OauthModule extends AbstractModule {
 		logger.trace("Reading {}", file.getAbsolutePath());
 
 		try {
-			String result = Files.toString(file, UTF_8)
+			String result = Files.asCharSource(file, UTF_8).read()
 					.trim();
 			if (result.isEmpty()) {
 				throw new RuntimeException("File is empty: " + file.getAbsolutePath());
@@ -159,6 +554,42 @@ public class OauthModule extends AbstractModule {
 		}
 	}
 
+	private static class CacheSettings {
+		final long maximumSize;
+		final Duration maxTtl;
+
+		CacheSettings(long maximumSize, Duration maxTtl) {
+			this.maximumSize = maximumSize;
+			this.maxTtl = maxTtl;
+		}
+	}
+
+	/**
+	 * Runs each task in a new thread bound to the current request, as App Engine allows.
+	 */
+	static class RequestThreadExecutor implements Executor {
+		@Override
+		public void execute(@Nonnull Runnable command) {
+			ThreadManager.createThreadForCurrentRequest(command).start();
+		}
+	}
+
+	/**
+	 * Adapts memoizing supplier to Guice, so that binding is resolved on first injection.
+	 */
+	static class SupplierProvider<T> implements Provider<T> {
+		private final Supplier<T> supplier;
+
+		SupplierProvider(Supplier<T> supplier) {
+			this.supplier = supplier;
+		}
+
+		@Override
+		public T get() {
+			return supplier.get();
+		}
+	}
+
 	/**
 	 * Simply returns current time. Helps mocking in unit-tests.
 	 */
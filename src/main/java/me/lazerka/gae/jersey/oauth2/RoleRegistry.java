@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import javax.annotation.Nonnull;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Assigns each role a bit, so that a set of roles is a single `long`, and checking whether user has any of allowed
+ * roles is a single AND.
+ *
+ * Roles are registered on first use, usually when {@link AuthFilterFactory} reads annotations on startup.
+ * Standard {@link Role}s are always registered. At most {@value #MAX_ROLES} distinct roles have bits, others can
+ * only be checked by name (see {@link #tryRegister}).
+ *
+ * @author Dzmitry Lazerka
+ */
+public final class RoleRegistry {
+	public static final int MAX_ROLES = Long.SIZE;
+
+	public static final RoleRegistry INSTANCE = new RoleRegistry();
+
+	/** Copy-on-write, because roles are registered rarely, but read on every request. */
+	private volatile ImmutableMap<String, Long> bits = ImmutableMap.of();
+
+	RoleRegistry() {
+		register(Role.USER);
+		register(Role.ADMIN);
+		register(Role.OPTIONAL);
+	}
+
+	/**
+	 * Registers role if not registered yet.
+	 *
+	 * @return bit of the role.
+	 * @throws IllegalStateException if there are too many roles.
+	 */
+	public long register(@Nonnull String role) {
+		long bit = tryRegister(role);
+		checkState(bit != 0, "Too many roles, cannot register %s", role);
+		return bit;
+	}
+
+	/**
+	 * Like {@link #register(String)}, but doesn't throw if there are too many roles.
+	 *
+	 * @return bit of the role, or 0 if there's no room for it, so it cannot be in any mask.
+	 */
+	public long tryRegister(@Nonnull String role) {
+		Long bit = bits.get(checkNotNull(role));
+		if (bit != null) {
+			return bit;
+		}
+
+		synchronized (this) {
+			bit = bits.get(role);
+			if (bit == null) {
+				if (bits.size() >= MAX_ROLES) {
+					return 0;
+				}
+				bit = 1L << bits.size();
+				bits = ImmutableMap.<String, Long>builder()
+						.putAll(bits)
+						.put(role, bit)
+						.build();
+			}
+			return bit;
+		}
+	}
+
+	/**
+	 * Registers roles if not registered yet.
+	 *
+	 * @return mask of all the given roles.
+	 */
+	public long register(@Nonnull Iterable<String> roles) {
+		long result = 0;
+		for (String role : roles) {
+			result |= register(role);
+		}
+		return result;
+	}
+
+	/**
+	 * Unlike {@link #register(Iterable)}, doesn't register anything, so it's safe for roles that come with requests.
+	 *
+	 * @return mask of those of the given roles that are registered.
+	 */
+	public long getMask(@Nonnull Iterable<String> roles) {
+		long result = 0;
+		for (String role : roles) {
+			result |= getBit(role);
+		}
+		return result;
+	}
+
+	/**
+	 * @return bit of the role, or 0 if role is not registered, so it cannot be in any mask.
+	 */
+	public long getBit(String role) {
+		Long bit = bits.get(role);
+		return bit == null ? 0 : bit;
+	}
+
+	/**
+	 * @return roles of the mask, for logging and the String-based API.
+	 */
+	public Set<String> getRoles(long mask) {
+		ImmutableSet.Builder<String> result = ImmutableSet.builder();
+		for (Entry<String, Long> entry : bits.entrySet()) {
+			if ((mask & entry.getValue()) != 0) {
+				result.add(entry.getKey());
+			}
+		}
+		return result.build();
+	}
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2;
+
+import com.google.common.collect.ImmutableList;
+import me.lazerka.gae.jersey.oauth2.facebook.TokenVerifierFacebookDebugToken;
+import me.lazerka.gae.jersey.oauth2.facebook.TokenVerifierFacebookSignedRequest;
+import me.lazerka.gae.jersey.oauth2.google.TokenVerifierGoogleRemote;
+import me.lazerka.gae.jersey.oauth2.google.TokenVerifierGoogleSignature;
+
+import javax.annotation.Nonnull;
+import java.util.List;
+
+/**
+ * Kind of token, guessed from its structure alone, to find a verifier for requests without scheme header.
+ *
+ * @author Dzmitry Lazerka
+ * @see TokenVerifierDispatcher
+ */
+public enum TokenShape {
+	/** Three base64url segments, header is a JSON object. Google ID token. */
+	JWS(TokenVerifierGoogleSignature.AUTH_SCHEME, TokenVerifierGoogleRemote.AUTH_SCHEME),
+
+	/** Two base64url segments: signature and payload. Facebook signed_request. */
+	SIGNED_REQUEST(TokenVerifierFacebookSignedRequest.AUTH_SCHEME),
+
+	/** Single base64url segment. Facebook user access token. */
+	OPAQUE(TokenVerifierFacebookDebugToken.AUTH_SCHEME),
+
+	/** Anything else. */
+	UNKNOWN;
+
+	/** Base64url of `{"`, how every JWS header starts. */
+	private static final String JSON_OBJECT_PREFIX = "eyJ";
+
+	private final ImmutableList<String> schemes;
+
+	TokenShape(String... schemes) {
+		this.schemes = ImmutableList.copyOf(schemes);
+	}
+
+	/**
+	 * @return authentication schemes that accept tokens of this shape, most preferred first.
+	 */
+	public List<String> getSchemes() {
+		return schemes;
+	}
+
+	/**
+	 * Doesn't allocate.
+	 */
+	@Nonnull
+	public static TokenShape classify(@Nonnull String token) {
+		int length = token.length();
+		int segments = 1;
+		int segmentStart = 0;
+		for (int i = 0; i < length; i++) {
+			char c = token.charAt(i);
+			if (c == '.') {
+				if (i == segmentStart) {
+					return UNKNOWN;
+				}
+				segments++;
+				segmentStart = i + 1;
+			} else if (!isBase64Url(c)) {
+				return UNKNOWN;
+			}
+		}
+		if (segmentStart == length) {
+			// Empty token or empty last segment.
+			return UNKNOWN;
+		}
+
+		switch (segments) {
+			case 1:
+				return OPAQUE;
+			case 2:
+				return SIGNED_REQUEST;
+			case 3:
+				return token.startsWith(JSON_OBJECT_PREFIX) ? JWS : UNKNOWN;
+			default:
+				return UNKNOWN;
+		}
+	}
+
+	private static boolean isBase64Url(char c) {
+		return (c >= 'A' && c <= 'Z')
+				|| (c >= 'a' && c <= 'z')
+				|| (c >= '0' && c <= '9')
+				|| c == '-'
+				|| c == '_'
+				|| c == '=';
+	}
+}
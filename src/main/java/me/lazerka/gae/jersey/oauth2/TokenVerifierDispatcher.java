@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.sun.jersey.spi.container.ContainerRequest;
+import me.lazerka.gae.jersey.oauth2.facebook.BasicTokenVerifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Finds {@link TokenVerifier} for a request, reading {@link BasicTokenVerifier#AUTH_SCHEME_HEADER} only once.
+ *
+ * Verifiers that use the standard {@link BasicTokenVerifier#canHandle} (possibly decorated by
+ * {@link ForwardingTokenVerifier}s) are looked up by scheme. Others are asked by {@link TokenVerifier#canHandle},
+ * in order, only if there's no verifier for the scheme. If none can handle, verifier is guessed by
+ * {@link TokenShape}, so that clients may omit the header. If shape doesn't tell, default verifier is used.
+ *
+ * Immutable.
+ *
+ * @author Dzmitry Lazerka
+ */
+public class TokenVerifierDispatcher {
+	private static final Logger logger = LoggerFactory.getLogger(TokenVerifierDispatcher.class);
+
+	private final ImmutableMap<String, TokenVerifier> byScheme;
+	private final ImmutableList<TokenVerifier> fallback;
+	private final TokenVerifier defaultTokenVerifier;
+	private final ImmutableMap<TokenShape, TokenVerifier> byShape;
+
+	public TokenVerifierDispatcher(Iterable<TokenVerifier> tokenVerifiers, @Nonnull TokenVerifier defaultTokenVerifier) {
+		Map<String, TokenVerifier> byScheme = new LinkedHashMap<>();
+		ImmutableList.Builder<TokenVerifier> fallback = ImmutableList.builder();
+		for (TokenVerifier tokenVerifier : tokenVerifiers) {
+			if (!handlesByScheme(tokenVerifier)) {
+				fallback.add(tokenVerifier);
+				continue;
+			}
+
+			String scheme = tokenVerifier.getAuthenticationScheme();
+			TokenVerifier existing = byScheme.get(scheme);
+			if (existing == null) {
+				byScheme.put(scheme, tokenVerifier);
+			} else {
+				logger.warn("Both {} and {} handle scheme {}, using the first one", existing, tokenVerifier, scheme);
+			}
+		}
+
+		this.byScheme = ImmutableMap.copyOf(byScheme);
+		this.fallback = fallback.build();
+		this.defaultTokenVerifier = checkNotNull(defaultTokenVerifier);
+		this.byShape = Maps.immutableEnumMap(mapShapes(this.byScheme, defaultTokenVerifier));
+	}
+
+	/**
+	 * Prefers default verifier if it accepts the shape, so that behaviour doesn't change for what worked before.
+	 */
+	private static Map<TokenShape, TokenVerifier> mapShapes(
+			Map<String, TokenVerifier> byScheme,
+			TokenVerifier defaultTokenVerifier
+	) {
+		Map<TokenShape, TokenVerifier> result = new EnumMap<>(TokenShape.class);
+		for (TokenShape shape : TokenShape.values()) {
+			if (shape.getSchemes().contains(defaultTokenVerifier.getAuthenticationScheme())) {
+				result.put(shape, defaultTokenVerifier);
+				continue;
+			}
+			for (String scheme : shape.getSchemes()) {
+				TokenVerifier tokenVerifier = byScheme.get(scheme);
+				if (tokenVerifier != null) {
+					result.put(shape, tokenVerifier);
+					break;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return whether verifier's {@link TokenVerifier#canHandle} only compares scheme header with its scheme.
+	 */
+	static boolean handlesByScheme(TokenVerifier tokenVerifier) {
+		TokenVerifier current = tokenVerifier;
+		while (true) {
+			Class<?> declaring;
+			try {
+				declaring = current.getClass().getMethod("canHandle", ContainerRequest.class).getDeclaringClass();
+			} catch (NoSuchMethodException e) {
+				throw new AssertionError(e);
+			}
+
+			if (declaring == BasicTokenVerifier.class) {
+				return true;
+			} else if (declaring == ForwardingTokenVerifier.class) {
+				current = ((ForwardingTokenVerifier) current).getDelegate();
+			} else {
+				return false;
+			}
+		}
+	}
+
+	@Nonnull
+	public TokenVerifier find(@Nonnull ContainerRequest request) {
+		return find(request, null);
+	}
+
+	/**
+	 * @param token if given, used to guess verifier when request doesn't tell.
+	 */
+	@Nonnull
+	public TokenVerifier find(@Nonnull ContainerRequest request, @Nullable String token) {
+		TokenVerifier result = findExplicit(request);
+		if (result != null) {
+			return result;
+		}
+
+		if (token != null) {
+			result = byShape.get(TokenShape.classify(token));
+			if (result != null) {
+				return result;
+			}
+		}
+
+		return defaultTokenVerifier;
+	}
+
+	/**
+	 * @return verifier chosen by request itself (scheme header or custom {@link TokenVerifier#canHandle}), or null.
+	 */
+	@Nullable
+	public TokenVerifier findExplicit(@Nonnull ContainerRequest request) {
+		String scheme = request.getHeaderValue(BasicTokenVerifier.AUTH_SCHEME_HEADER);
+		if (scheme != null) {
+			TokenVerifier result = byScheme.get(scheme);
+			if (result != null) {
+				return result;
+			}
+		}
+
+		for (int i = 0; i < fallback.size(); i++) {
+			TokenVerifier tokenVerifier = fallback.get(i);
+			if (tokenVerifier.canHandle(request)) {
+				return tokenVerifier;
+			}
+		}
+
+		return null;
+	}
+
+	public Map<String, TokenVerifier> getByScheme() {
+		return byScheme;
+	}
+
+	public Map<TokenShape, TokenVerifier> getByShape() {
+		return byShape;
+	}
+
+	public List<TokenVerifier> getFallback() {
+		return fallback;
+	}
+
+	@Override
+	public String toString() {
+		return MoreObjects.toStringHelper(this)
+				.add("schemes", byScheme.keySet())
+				.add("fallback", fallback)
+				.toString();
+	}
+}
@@ -16,7 +16,10 @@
 
 package me.lazerka.gae.jersey.oauth2;
 
+import org.joda.time.DateTime;
+
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.security.Principal;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -42,6 +45,14 @@ public abstract class UserPrincipal implements Principal {
 		return id;
 	}
 
+	/**
+	 * @return When the token this principal was verified from expires, or null if unknown.
+	 */
+	@Nullable
+	public DateTime getExpiresAt() {
+		return null;
+	}
+
 	@Override
 	public boolean equals(Object o) {
 		if (this == o) return true;
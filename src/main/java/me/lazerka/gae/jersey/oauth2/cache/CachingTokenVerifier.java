@@ -0,0 +1,264 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2.cache;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.hash.HashCode;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import me.lazerka.gae.jersey.oauth2.ForwardingTokenVerifier;
+import me.lazerka.gae.jersey.oauth2.TokenVerifier;
+import me.lazerka.gae.jersey.oauth2.UserPrincipal;
+import me.lazerka.gae.jersey.oauth2.diagnostics.Diagnosable;
+import me.lazerka.gae.jersey.oauth2.metrics.AuthMetrics;
+import me.lazerka.gae.jersey.oauth2.metrics.NoopAuthMetrics;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.inject.Provider;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.util.concurrent.Futures.immediateFuture;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import static java.time.Duration.ofMillis;
+import static org.joda.time.DateTimeZone.UTC;
+
+/**
+ * Remembers principals of successfully verified tokens, so that the same token is not verified again.
+ *
+ * Entry lives no longer than `maxTtl`, and no longer than the token itself (see {@link UserPrincipal#getExpiresAt()}).
+ * Cache is bounded by `maximumSize`, least recently used entries are evicted first.
+ *
+ * Optionally, there's a second tier shared between instances ({@link MemcachePrincipalCache}), which is consulted
+ * when in-process cache misses, so that a new instance doesn't need to verify tokens already verified by others.
+ *
+ * Failures are not cached here.
+ *
+ * @author Dzmitry Lazerka
+ */
+public class CachingTokenVerifier extends ForwardingTokenVerifier implements Diagnosable {
+	private static final Logger logger = LoggerFactory.getLogger(CachingTokenVerifier.class);
+
+	public static final long DEFAULT_MAXIMUM_SIZE = 10000;
+	public static final Duration DEFAULT_MAX_TTL = Duration.standardMinutes(10);
+
+	private final Cache<HashCode, Entry> cache;
+	private final Duration maxTtl;
+	private final Provider<DateTime> nowProvider;
+
+	@Nullable
+	private final MemcachePrincipalCache sharedCache;
+
+	private final AuthMetrics metrics;
+
+	public CachingTokenVerifier(
+			TokenVerifier delegate,
+			long maximumSize,
+			Duration maxTtl,
+			Provider<DateTime> nowProvider
+	) {
+		this(delegate, maximumSize, maxTtl, nowProvider, null);
+	}
+
+	/**
+	 * @param sharedCache Second tier, consulted when in-process cache misses. Entries are scoped by authentication
+	 *                    scheme of the delegate; scope it by audience too, if several apps share the Memcache.
+	 */
+	public CachingTokenVerifier(
+			TokenVerifier delegate,
+			long maximumSize,
+			Duration maxTtl,
+			Provider<DateTime> nowProvider,
+			@Nullable MemcachePrincipalCache sharedCache
+	) {
+		this(delegate, maximumSize, maxTtl, nowProvider, sharedCache, NoopAuthMetrics.INSTANCE);
+	}
+
+	/**
+	 * @param metrics records hits and misses of both tiers together.
+	 */
+	public CachingTokenVerifier(
+			TokenVerifier delegate,
+			long maximumSize,
+			Duration maxTtl,
+			Provider<DateTime> nowProvider,
+			@Nullable MemcachePrincipalCache sharedCache,
+			AuthMetrics metrics
+	) {
+		super(delegate);
+		this.sharedCache = sharedCache == null ? null : sharedCache.forScope(delegate.getAuthenticationScheme());
+		this.metrics = checkNotNull(metrics);
+		checkArgument(maxTtl.getMillis() > 0, "maxTtl must be positive");
+		this.maxTtl = maxTtl;
+		this.nowProvider = nowProvider;
+		this.cache = CacheBuilder.newBuilder()
+				.maximumSize(maximumSize)
+				.expireAfterWrite(ofMillis(maxTtl.getMillis()))
+				.recordStats()
+				.build();
+	}
+
+	@Override
+	public UserPrincipal verify(String authToken) throws IOException, GeneralSecurityException {
+		HashCode key = TokenDigests.digest(authToken);
+		long now = nowProvider.get().getMillis();
+
+		UserPrincipal cached = lookup(key, now);
+		if (cached != null) {
+			return cached;
+		}
+
+		UserPrincipal principal = getDelegate().verify(authToken);
+		store(key, principal, now);
+		return principal;
+	}
+
+	/**
+	 * Looks up both tiers right away, then passes the call through to delegate, and caches its result on completion.
+	 */
+	@Override
+	public ListenableFuture<UserPrincipal> verifyAsync(String authToken, Executor executor) {
+		final HashCode key = TokenDigests.digest(authToken);
+		final long now = nowProvider.get().getMillis();
+
+		UserPrincipal cached = lookup(key, now);
+		if (cached != null) {
+			return immediateFuture(cached);
+		}
+
+		ListenableFuture<UserPrincipal> result = getAsyncDelegate().verifyAsync(authToken, executor);
+		Futures.addCallback(result, new FutureCallback<UserPrincipal>() {
+			@Override
+			public void onSuccess(UserPrincipal principal) {
+				store(key, principal, now);
+			}
+
+			@Override
+			public void onFailure(@Nonnull Throwable t) {}
+		}, directExecutor());
+		return result;
+	}
+
+	/**
+	 * @return cached principal, or null if it's not cached, recording the lookup.
+	 */
+	@Nullable
+	private UserPrincipal lookup(HashCode key, long now) {
+		Entry entry = cache.getIfPresent(key);
+		if (entry != null) {
+			if (now < entry.expiresAtMillis) {
+				metrics.recordCacheLookup(getAuthenticationScheme(), true);
+				return entry.principal;
+			}
+			// Token expired after it was cached, let delegate tell client that.
+			cache.invalidate(key);
+		}
+
+		if (sharedCache != null) {
+			UserPrincipal principal = sharedCache.get(key);
+			if (principal != null) {
+				long expiresAtMillis = getExpiresAtMillis(principal, now);
+				if (now < expiresAtMillis) {
+					logger.trace("Found {} in shared cache", principal);
+					cache.put(key, new Entry(principal, expiresAtMillis));
+					metrics.recordCacheLookup(getAuthenticationScheme(), true);
+					return principal;
+				}
+			}
+		}
+
+		metrics.recordCacheLookup(getAuthenticationScheme(), false);
+		return null;
+	}
+
+	private void store(HashCode key, UserPrincipal principal, long now) {
+		long expiresAtMillis = getExpiresAtMillis(principal, now);
+		if (now < expiresAtMillis) {
+			cache.put(key, new Entry(principal, expiresAtMillis));
+
+			if (sharedCache != null) {
+				sharedCache.put(key, principal, new DateTime(expiresAtMillis, UTC));
+			}
+		}
+	}
+
+	private long getExpiresAtMillis(UserPrincipal principal, long now) {
+		long result = now + maxTtl.getMillis();
+
+		DateTime tokenExpiresAt = principal.getExpiresAt();
+		if (tokenExpiresAt != null && tokenExpiresAt.getMillis() < result) {
+			logger.trace("Caching {} until token expiration {}", principal, tokenExpiresAt);
+			result = tokenExpiresAt.getMillis();
+		}
+
+		return result;
+	}
+
+	public long size() {
+		return cache.size();
+	}
+
+	public CacheStats stats() {
+		return cache.stats();
+	}
+
+	public void invalidateAll() {
+		cache.invalidateAll();
+	}
+
+	@Override
+	public Map<String, Object> getDiagnostics() {
+		CacheStats stats = cache.stats();
+		Map<String, Object> result = new LinkedHashMap<>();
+		result.put("size", cache.size());
+		result.put("hitRate", stats.hitRate());
+		result.put("evictions", stats.evictionCount());
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return MoreObjects.toStringHelper(this)
+				.addValue(getDelegate())
+				.add("size", cache.size())
+				.toString();
+	}
+
+	private static class Entry {
+		final UserPrincipal principal;
+		final long expiresAtMillis;
+
+		Entry(UserPrincipal principal, long expiresAtMillis) {
+			this.principal = principal;
+			this.expiresAtMillis = expiresAtMillis;
+		}
+	}
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2.cache;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import me.lazerka.gae.jersey.oauth2.UserPrincipal;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Cache of verified principals shared by all instances of the app, backed by App Engine Memcache.
+ *
+ * Memcache is best-effort: if it's unavailable, all methods behave as if the cache is empty, and never throw.
+ *
+ * Entries are visible only within their scope (see {@link #forScope}), so that a token verified by one verifier,
+ * or for one audience, is never accepted by another.
+ *
+ * @author Dzmitry Lazerka
+ */
+public class MemcachePrincipalCache {
+	private static final Logger logger = LoggerFactory.getLogger(MemcachePrincipalCache.class);
+
+	/** Memcache namespace to use, so that our keys don't clash with application's. */
+	public static final String NAMESPACE = "gae-jersey-oauth2";
+
+	private static final String KEY_PREFIX = "principal:";
+
+	private final MemcacheService memcache;
+	private final PrincipalCodec codec;
+	private final String keyPrefix;
+
+	public MemcachePrincipalCache(@Nonnull MemcacheService memcache, @Nonnull PrincipalCodec codec) {
+		this(memcache, codec, KEY_PREFIX);
+	}
+
+	private MemcachePrincipalCache(MemcacheService memcache, PrincipalCodec codec, String keyPrefix) {
+		this.memcache = checkNotNull(memcache);
+		this.codec = checkNotNull(codec);
+		this.keyPrefix = keyPrefix;
+	}
+
+	/**
+	 * @param scope e.g. authentication scheme, or audience the tokens are verified for. Keep it short, it's part of
+	 *              every key.
+	 * @return view of the same Memcache, whose entries are not visible to other scopes.
+	 */
+	@Nonnull
+	public MemcachePrincipalCache forScope(@Nonnull String scope) {
+		checkArgument(!scope.isEmpty(), "Empty scope");
+		return new MemcachePrincipalCache(memcache, codec, keyPrefix + scope + ':');
+	}
+
+	@Nullable
+	public UserPrincipal get(HashCode tokenDigest) {
+		return getAll(Collections.singleton(tokenDigest)).get(tokenDigest);
+	}
+
+	/**
+	 * @return Only found principals.
+	 */
+	@Nonnull
+	public Map<HashCode, UserPrincipal> getAll(Collection<HashCode> tokenDigests) {
+		Map<String, HashCode> keys = new LinkedHashMap<>(tokenDigests.size());
+		for (HashCode tokenDigest : tokenDigests) {
+			keys.put(toKey(tokenDigest), tokenDigest);
+		}
+
+		Map<String, Object> values;
+		try {
+			values = memcache.getAll(keys.keySet());
+		} catch (RuntimeException e) {
+			logger.warn("Memcache unavailable: {}", e.toString());
+			return ImmutableMap.of();
+		}
+
+		Map<HashCode, UserPrincipal> result = new LinkedHashMap<>(values.size());
+		for (Entry<String, Object> entry : values.entrySet()) {
+			if (!(entry.getValue() instanceof byte[])) {
+				continue;
+			}
+			UserPrincipal principal = codec.decode((byte[]) entry.getValue());
+			if (principal != null) {
+				result.put(keys.get(entry.getKey()), principal);
+			}
+		}
+		return result;
+	}
+
+	public void put(HashCode tokenDigest, UserPrincipal principal, DateTime expiresAt) {
+		putAll(ImmutableMap.of(tokenDigest, principal), expiresAt);
+	}
+
+	/**
+	 * @param expiresAt When all the given entries should expire.
+	 */
+	public void putAll(Map<HashCode, UserPrincipal> principals, DateTime expiresAt) {
+		Map<String, byte[]> values = new LinkedHashMap<>(principals.size());
+		for (Entry<HashCode, UserPrincipal> entry : principals.entrySet()) {
+			byte[] value = codec.encode(entry.getValue());
+			if (value != null) {
+				values.put(toKey(entry.getKey()), value);
+			}
+		}
+
+		if (values.isEmpty()) {
+			return;
+		}
+
+		try {
+			memcache.putAll(values, Expiration.onDate(expiresAt.toDate()));
+		} catch (RuntimeException e) {
+			logger.warn("Memcache unavailable: {}", e.toString());
+		}
+	}
+
+	private String toKey(HashCode tokenDigest) {
+		return keyPrefix + tokenDigest;
+	}
+}
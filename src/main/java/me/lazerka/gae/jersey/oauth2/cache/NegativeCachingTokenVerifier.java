@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2.cache;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.hash.HashCode;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import me.lazerka.gae.jersey.oauth2.ForwardingTokenVerifier;
+import me.lazerka.gae.jersey.oauth2.TokenVerifier;
+import me.lazerka.gae.jersey.oauth2.UserPrincipal;
+import me.lazerka.gae.jersey.oauth2.diagnostics.Diagnosable;
+import org.joda.time.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.util.concurrent.Futures.immediateFailedFuture;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import static java.time.Duration.ofMillis;
+
+/**
+ * Remembers tokens that failed verification, and rejects them without asking delegate again.
+ *
+ * Meant for clients stuck retrying a bad token against remote verifiers. Only {@link GeneralSecurityException}s
+ * are remembered -- {@link IOException} means we don't know whether token is valid (e.g. endpoint is down),
+ * so it must not lock a user out. Delegates must throw {@link IOException} when the provider itself fails (e.g. 5xx),
+ * as remote verifiers of this library do, otherwise an outage would be remembered as invalid tokens.
+ *
+ * TTL should be short, just to absorb retries.
+ *
+ * @author Dzmitry Lazerka
+ */
+public class NegativeCachingTokenVerifier extends ForwardingTokenVerifier implements Diagnosable {
+	private static final Logger logger = LoggerFactory.getLogger(NegativeCachingTokenVerifier.class);
+
+	public static final long DEFAULT_MAXIMUM_SIZE = 10000;
+	public static final Duration DEFAULT_TTL = Duration.standardSeconds(30);
+
+	private final Cache<HashCode, GeneralSecurityException> cache;
+
+	public NegativeCachingTokenVerifier(TokenVerifier delegate, long maximumSize, Duration ttl) {
+		super(delegate);
+		checkArgument(ttl.getMillis() > 0, "ttl must be positive");
+		this.cache = CacheBuilder.newBuilder()
+				.maximumSize(maximumSize)
+				.expireAfterWrite(ofMillis(ttl.getMillis()))
+				.recordStats()
+				.build();
+	}
+
+	@Override
+	public UserPrincipal verify(String authToken) throws IOException, GeneralSecurityException {
+		HashCode key = TokenDigests.digest(authToken);
+
+		GeneralSecurityException failure = cache.getIfPresent(key);
+		if (failure != null) {
+			logger.trace("Token known to be invalid: {}", failure.getMessage());
+			// New exception, so that stack trace points here, but the original message is kept.
+			throw new InvalidKeyException(failure.getMessage(), failure);
+		}
+
+		try {
+			return getDelegate().verify(authToken);
+		} catch (GeneralSecurityException e) {
+			cache.put(key, e);
+			throw e;
+		}
+	}
+
+	@Override
+	public ListenableFuture<UserPrincipal> verifyAsync(String authToken, Executor executor) {
+		final HashCode key = TokenDigests.digest(authToken);
+
+		GeneralSecurityException failure = cache.getIfPresent(key);
+		if (failure != null) {
+			logger.trace("Token known to be invalid: {}", failure.getMessage());
+			return immediateFailedFuture(new InvalidKeyException(failure.getMessage(), failure));
+		}
+
+		ListenableFuture<UserPrincipal> result = getAsyncDelegate().verifyAsync(authToken, executor);
+		Futures.addCallback(result, new FutureCallback<UserPrincipal>() {
+			@Override
+			public void onSuccess(UserPrincipal principal) {}
+
+			@Override
+			public void onFailure(@Nonnull Throwable t) {
+				if (t instanceof GeneralSecurityException) {
+					cache.put(key, (GeneralSecurityException) t);
+				}
+			}
+		}, directExecutor());
+		return result;
+	}
+
+	public long size() {
+		return cache.size();
+	}
+
+	public CacheStats stats() {
+		return cache.stats();
+	}
+
+	public void invalidateAll() {
+		cache.invalidateAll();
+	}
+
+	@Override
+	public Map<String, Object> getDiagnostics() {
+		CacheStats stats = cache.stats();
+		Map<String, Object> result = new LinkedHashMap<>();
+		result.put("size", cache.size());
+		result.put("hitRate", stats.hitRate());
+		result.put("evictions", stats.evictionCount());
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return MoreObjects.toStringHelper(this)
+				.addValue(getDelegate())
+				.add("size", cache.size())
+				.toString();
+	}
+}
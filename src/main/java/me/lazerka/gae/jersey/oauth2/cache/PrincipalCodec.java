@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2.cache;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect.Visibility;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import me.lazerka.gae.jersey.oauth2.UserPrincipal;
+import me.lazerka.gae.jersey.oauth2.facebook.AccessTokenResponse;
+import me.lazerka.gae.jersey.oauth2.facebook.DebugTokenResponse;
+import me.lazerka.gae.jersey.oauth2.facebook.FacebookUser;
+import me.lazerka.gae.jersey.oauth2.facebook.FacebookUserPrincipal;
+import me.lazerka.gae.jersey.oauth2.google.GoogleUserPrincipal;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+
+import static org.joda.time.DateTimeZone.UTC;
+
+/**
+ * Compact serialized form of {@link GoogleUserPrincipal} and {@link FacebookUserPrincipal}, for storing in caches
+ * shared between instances.
+ *
+ * Other principals are not supported, so they are simply not shared.
+ * Facebook access tokens are not stored: decoded {@link AccessTokenResponse} has no access token.
+ *
+ * @author Dzmitry Lazerka
+ */
+public class PrincipalCodec {
+	private static final Logger logger = LoggerFactory.getLogger(PrincipalCodec.class);
+
+	static final String GOOGLE = "g";
+	static final String FACEBOOK = "f";
+
+	private final ObjectMapper jackson;
+
+	public PrincipalCodec() {
+		// Fields only: response classes have convenience getters that are not part of their JSON.
+		jackson = new ObjectMapper()
+				.setVisibility(PropertyAccessor.ALL, Visibility.NONE)
+				.setVisibility(PropertyAccessor.FIELD, Visibility.ANY)
+				.setSerializationInclusion(Include.NON_NULL)
+				.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+	}
+
+	/**
+	 * @return null if principal of this type cannot be encoded.
+	 */
+	@Nullable
+	public byte[] encode(UserPrincipal principal) {
+		Record record = new Record();
+		record.id = principal.getId();
+
+		if (principal instanceof GoogleUserPrincipal) {
+			record.type = GOOGLE;
+			record.email = ((GoogleUserPrincipal) principal).getEmail();
+		} else if (principal instanceof FacebookUserPrincipal) {
+			FacebookUserPrincipal facebookPrincipal = (FacebookUserPrincipal) principal;
+			record.type = FACEBOOK;
+			record.facebookUser = facebookPrincipal.getFacebookUser().orNull();
+			// Access token is a credential, caches never keep those (see TokenDigests).
+			AccessTokenResponse accessTokenResponse = facebookPrincipal.getAccessTokenResponse().orNull();
+			if (accessTokenResponse != null) {
+				record.accessTokenResponse = new AccessTokenResponse(
+						null,
+						accessTokenResponse.getTokenType(),
+						accessTokenResponse.getExpiresIn());
+			}
+			record.debugTokenResponse = facebookPrincipal.getDebugTokenResponse().orNull();
+		} else {
+			logger.trace("Cannot encode {}", principal.getClass().getName());
+			return null;
+		}
+
+		DateTime expiresAt = principal.getExpiresAt();
+		record.expiresAt = expiresAt == null ? null : expiresAt.getMillis();
+
+		try {
+			return jackson.writeValueAsBytes(record);
+		} catch (IOException e) {
+			logger.warn("Cannot encode {}", principal, e);
+			return null;
+		}
+	}
+
+	/**
+	 * @return null if value cannot be decoded (e.g. written by other version).
+	 */
+	@Nullable
+	public UserPrincipal decode(byte[] value) {
+		Record record;
+		try {
+			record = jackson.readValue(value, Record.class);
+		} catch (IOException e) {
+			logger.warn("Cannot decode principal: {}", e.getMessage());
+			return null;
+		}
+
+		if (record.id == null) {
+			logger.warn("Cannot decode principal without id");
+			return null;
+		}
+
+		DateTime expiresAt = record.expiresAt == null ? null : new DateTime(record.expiresAt, UTC);
+		if (GOOGLE.equals(record.type)) {
+			if (record.email == null) {
+				logger.warn("Cannot decode Google principal without email");
+				return null;
+			}
+			return new GoogleUserPrincipal(record.id, record.email, expiresAt);
+		} else if (FACEBOOK.equals(record.type)) {
+			return new FacebookUserPrincipal(
+					record.id,
+					record.facebookUser,
+					record.accessTokenResponse,
+					record.debugTokenResponse,
+					expiresAt);
+		}
+
+		logger.warn("Unknown principal type: {}", record.type);
+		return null;
+	}
+
+	static class Record {
+		@JsonProperty("t")
+		String type;
+
+		@JsonProperty("id")
+		String id;
+
+		@JsonProperty("exp")
+		Long expiresAt;
+
+		@JsonProperty("email")
+		String email;
+
+		@JsonProperty("fu")
+		FacebookUser facebookUser;
+
+		@JsonProperty("fa")
+		AccessTokenResponse accessTokenResponse;
+
+		@JsonProperty("fd")
+		DebugTokenResponse debugTokenResponse;
+	}
+}
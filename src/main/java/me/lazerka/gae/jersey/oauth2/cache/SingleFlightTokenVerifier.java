@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2.cache;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Throwables;
+import com.google.common.hash.HashCode;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+import me.lazerka.gae.jersey.oauth2.ForwardingTokenVerifier;
+import me.lazerka.gae.jersey.oauth2.TokenVerifier;
+import me.lazerka.gae.jersey.oauth2.UserPrincipal;
+import me.lazerka.gae.jersey.oauth2.diagnostics.Diagnosable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces concurrent verifications of the same token: the first caller verifies, and others wait for its result
+ * (or exception), instead of making their own remote calls.
+ *
+ * Useful for single-page apps that fire many requests in parallel right after login. Nothing is remembered after
+ * verification completes, see {@link CachingTokenVerifier} for that.
+ *
+ * @author Dzmitry Lazerka
+ */
+public class SingleFlightTokenVerifier extends ForwardingTokenVerifier implements Diagnosable {
+	private static final Logger logger = LoggerFactory.getLogger(SingleFlightTokenVerifier.class);
+
+	private final ConcurrentMap<HashCode, Future<UserPrincipal>> inFlight = new ConcurrentHashMap<>();
+	private final AtomicLong coalescedCount = new AtomicLong();
+
+	public SingleFlightTokenVerifier(TokenVerifier delegate) {
+		super(delegate);
+	}
+
+	@Override
+	public UserPrincipal verify(String authToken) throws IOException, GeneralSecurityException {
+		HashCode key = TokenDigests.digest(authToken);
+
+		SettableFuture<UserPrincipal> ours = SettableFuture.create();
+		Future<UserPrincipal> existing = inFlight.putIfAbsent(key, ours);
+		if (existing != null) {
+			coalescedCount.incrementAndGet();
+			logger.trace("Waiting for concurrent verification of the same token");
+			return await(existing);
+		}
+
+		try {
+			UserPrincipal result = getDelegate().verify(authToken);
+			ours.set(result);
+			return result;
+		} catch (IOException | GeneralSecurityException | RuntimeException | Error e) {
+			ours.setException(e);
+			throw e;
+		} finally {
+			inFlight.remove(key, ours);
+		}
+	}
+
+	private static UserPrincipal await(Future<UserPrincipal> future) throws IOException, GeneralSecurityException {
+		try {
+			return Uninterruptibles.getUninterruptibly(future);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof GeneralSecurityException) {
+				throw (GeneralSecurityException) cause;
+			}
+			Throwables.throwIfUnchecked(cause);
+			throw new IllegalStateException(cause);
+		}
+	}
+
+	/**
+	 * @return How many verifications were saved.
+	 */
+	public long getCoalescedCount() {
+		return coalescedCount.get();
+	}
+
+	public int getInFlightCount() {
+		return inFlight.size();
+	}
+
+	@Override
+	public Map<String, Object> getDiagnostics() {
+		Map<String, Object> result = new LinkedHashMap<>();
+		result.put("inFlight", getInFlightCount());
+		result.put("coalesced", getCoalescedCount());
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return MoreObjects.toStringHelper(this)
+				.addValue(getDelegate())
+				.add("inFlight", inFlight.size())
+				.toString();
+	}
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2.cache;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Cache keys for tokens. We never keep raw tokens in caches, because they are credentials.
+ *
+ * @author Dzmitry Lazerka
+ */
+public class TokenDigests {
+	private TokenDigests() {}
+
+	public static HashCode digest(String authToken) {
+		return Hashing.sha256().hashString(authToken, UTF_8);
+	}
+}
@@ -0,0 +1,25 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Caching and coalescing decorators for {@link me.lazerka.gae.jersey.oauth2.TokenVerifier}s.
+ *
+ * Verifying a token means either checking a signature or calling remote endpoint, both of which are much more
+ * expensive than a hash lookup, while clients tend to send the same token many times in a row.
+ *
+ * @author Dzmitry Lazerka
+ */
+package me.lazerka.gae.jersey.oauth2.cache;
@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2.diagnostics;
+
+import me.lazerka.gae.jersey.oauth2.ForwardingTokenVerifier;
+import me.lazerka.gae.jersey.oauth2.LazyTokenVerifier;
+import me.lazerka.gae.jersey.oauth2.TokenVerifier;
+import me.lazerka.gae.jersey.oauth2.google.GooglePublicKeysRefresher;
+import me.lazerka.gae.jersey.oauth2.google.GooglePublicKeysRefresher.KeySet;
+import me.lazerka.gae.jersey.oauth2.google.TokenVerifierGoogleSignature;
+import me.lazerka.gae.jersey.oauth2.metrics.AuthMetrics;
+import me.lazerka.gae.jersey.oauth2.metrics.AuthMetrics.Outcome;
+import me.lazerka.gae.jersey.oauth2.metrics.InMemoryAuthMetrics;
+import me.lazerka.gae.jersey.oauth2.metrics.LatencyHistogram;
+import org.joda.time.DateTime;
+
+import javax.annotation.Nullable;
+import javax.inject.Provider;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Builds a JSON-friendly snapshot of the auth subsystem.
+ *
+ * Only reads what is already in memory (counters, cache sizes, current key set), and never triggers verification or
+ * key fetching, so it's safe to call under load. Nor does it create lazily initialized verifiers, so Google keys are
+ * not shown until the Google verifier is created.
+ *
+ * @author Dzmitry Lazerka
+ */
+public class AuthDiagnostics {
+	private final Set<TokenVerifier> tokenVerifiers;
+
+	/** Shared components that are not part of any verifier chain, e.g. URLFetch wrappers. */
+	private final Set<Diagnosable> components;
+
+	@Nullable
+	private final AuthMetrics metrics;
+
+	@Nullable
+	private final Provider<GooglePublicKeysRefresher> googlePublicKeysRefresher;
+
+	public AuthDiagnostics(
+			Set<TokenVerifier> tokenVerifiers,
+			Set<Diagnosable> components,
+			@Nullable AuthMetrics metrics,
+			@Nullable Provider<GooglePublicKeysRefresher> googlePublicKeysRefresher
+	) {
+		this.tokenVerifiers = checkNotNull(tokenVerifiers);
+		this.components = checkNotNull(components);
+		this.metrics = metrics;
+		this.googlePublicKeysRefresher = googlePublicKeysRefresher;
+	}
+
+	public Map<String, Object> snapshot(DateTime now) {
+		Map<String, Object> result = new LinkedHashMap<>();
+		result.put("generatedAt", now.toString());
+
+		List<Object> verifiers = new ArrayList<>(tokenVerifiers.size());
+		for (TokenVerifier tokenVerifier : tokenVerifiers) {
+			verifiers.add(describeVerifier(tokenVerifier));
+		}
+		result.put("verifiers", verifiers);
+
+		if (!components.isEmpty()) {
+			List<Object> described = new ArrayList<>(components.size());
+			for (Diagnosable component : components) {
+				Map<String, Object> layer = new LinkedHashMap<>();
+				layer.put("type", component.getClass().getSimpleName());
+				layer.putAll(component.getDiagnostics());
+				described.add(layer);
+			}
+			result.put("components", described);
+		}
+
+		if (metrics instanceof InMemoryAuthMetrics) {
+			InMemoryAuthMetrics inMemory = (InMemoryAuthMetrics) metrics;
+
+			Map<String, Object> remoteCalls = new LinkedHashMap<>();
+			for (String endpoint : inMemory.getRemoteEndpoints()) {
+				remoteCalls.put(endpoint, describeLatency(inMemory.getRemoteCallLatency(endpoint)));
+			}
+			result.put("remoteCalls", remoteCalls);
+
+			Map<String, Object> rejections = new LinkedHashMap<>();
+			rejections.put("401", inMemory.getRejectionCount(401));
+			rejections.put("403", inMemory.getRejectionCount(403));
+			result.put("rejections", rejections);
+		}
+
+		if (googlePublicKeysRefresher != null) {
+			if (isUninitialized(TokenVerifierGoogleSignature.AUTH_SCHEME)) {
+				// Getting the refresher would create it.
+				Map<String, Object> keys = new LinkedHashMap<>();
+				keys.put("initialized", false);
+				result.put("googlePublicKeys", keys);
+			} else {
+				result.put("googlePublicKeys", describeKeys(googlePublicKeysRefresher.get(), now));
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * @return whether verifier of the scheme is a {@link LazyTokenVerifier} that hasn't been created yet.
+	 */
+	private boolean isUninitialized(String scheme) {
+		for (TokenVerifier tokenVerifier : tokenVerifiers) {
+			TokenVerifier current = tokenVerifier;
+			while (current instanceof ForwardingTokenVerifier) {
+				current = ((ForwardingTokenVerifier) current).getDelegate();
+			}
+			if (current instanceof LazyTokenVerifier
+					&& current.getAuthenticationScheme().equals(scheme)
+					&& !((LazyTokenVerifier) current).isInitialized()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private Map<String, Object> describeVerifier(TokenVerifier tokenVerifier) {
+		String scheme = tokenVerifier.getAuthenticationScheme();
+
+		Map<String, Object> result = new LinkedHashMap<>();
+		result.put("scheme", scheme);
+
+		// Decorators first, original verifier last.
+		List<Object> chain = new ArrayList<>();
+		TokenVerifier current = tokenVerifier;
+		while (current != null) {
+			Map<String, Object> layer = new LinkedHashMap<>();
+			layer.put("type", current.getClass().getSimpleName());
+			if (current instanceof Diagnosable) {
+				layer.putAll(((Diagnosable) current).getDiagnostics());
+			}
+			chain.add(layer);
+
+			if (current instanceof ForwardingTokenVerifier) {
+				current = ((ForwardingTokenVerifier) current).getDelegate();
+			} else if (current instanceof LazyTokenVerifier && ((LazyTokenVerifier) current).isInitialized()) {
+				// Don't initialize it just for diagnostics.
+				current = ((LazyTokenVerifier) current).getDelegate();
+			} else {
+				current = null;
+			}
+		}
+		result.put("chain", chain);
+
+		if (metrics instanceof InMemoryAuthMetrics) {
+			result.put("metrics", describeMetrics((InMemoryAuthMetrics) metrics, scheme));
+		}
+
+		return result;
+	}
+
+	private Map<String, Object> describeMetrics(InMemoryAuthMetrics metrics, String scheme) {
+		Map<String, Object> result = new LinkedHashMap<>();
+
+		Map<String, Object> outcomes = new LinkedHashMap<>();
+		for (Outcome outcome : Outcome.values()) {
+			outcomes.put(outcome.name(), metrics.getVerificationCount(scheme, outcome));
+		}
+		result.put("outcomes", outcomes);
+
+		LatencyHistogram latency = metrics.getVerificationLatency(scheme);
+		if (latency != null) {
+			result.put("latency", describeLatency(latency));
+		}
+
+		long hits = metrics.getCacheHits(scheme);
+		long misses = metrics.getCacheMisses(scheme);
+		if (hits + misses > 0) {
+			Map<String, Object> cache = new LinkedHashMap<>();
+			cache.put("hits", hits);
+			cache.put("misses", misses);
+			cache.put("hitRatio", (double) hits / (hits + misses));
+			result.put("cache", cache);
+		}
+
+		return result;
+	}
+
+	private Map<String, Object> describeLatency(LatencyHistogram histogram) {
+		Map<String, Object> result = new LinkedHashMap<>();
+		result.put("count", histogram.getCount());
+		result.put("meanMicros", histogram.getMean(TimeUnit.MICROSECONDS));
+		result.put("p50Micros", histogram.getPercentile(50, TimeUnit.MICROSECONDS));
+		result.put("p99Micros", histogram.getPercentile(99, TimeUnit.MICROSECONDS));
+		result.put("p999Micros", histogram.getPercentile(99.9, TimeUnit.MICROSECONDS));
+		return result;
+	}
+
+	private Map<String, Object> describeKeys(GooglePublicKeysRefresher refresher, DateTime now) {
+		Map<String, Object> result = new LinkedHashMap<>();
+
+		KeySet keySet = refresher.getKeySet();
+		if (keySet == null) {
+			result.put("fetched", false);
+			return result;
+		}
+
+		result.put("fetched", true);
+		result.put("keyIds", keySet.getKeyIds());
+		result.put("fetchedAt", keySet.getFetchedAt().toString());
+		result.put("ageSeconds", (now.getMillis() - keySet.getFetchedAt().getMillis()) / 1000);
+		result.put("expiresAt", keySet.getExpiresAt().toString());
+		result.put("nextRefreshAt", refresher.getRefreshAt(keySet).toString());
+		return result;
+	}
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2.diagnostics;
+
+import com.google.common.collect.ImmutableSet;
+import me.lazerka.gae.jersey.oauth2.Role;
+import me.lazerka.gae.jersey.oauth2.TokenVerifier;
+import me.lazerka.gae.jersey.oauth2.google.GooglePublicKeysRefresher;
+import me.lazerka.gae.jersey.oauth2.metrics.AuthMetrics;
+import org.joda.time.DateTime;
+
+import javax.annotation.security.RolesAllowed;
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import java.util.Map;
+import java.util.Set;
+
+import static org.joda.time.DateTimeZone.UTC;
+
+/**
+ * Optional resource for admins, to see the state of authentication on this instance.
+ * Install by binding it in your Guice servlet module: `bind(AuthDiagnosticsResource.class);`.
+ *
+ * @author Dzmitry Lazerka
+ * @see AuthDiagnostics
+ */
+@Singleton
+@Path("/auth/diagnostics")
+@RolesAllowed(Role.ADMIN)
+public class AuthDiagnosticsResource {
+	@Inject
+	protected Set<TokenVerifier> tokenVerifiers;
+
+	/** Metrics are shown only if it's {@link me.lazerka.gae.jersey.oauth2.metrics.InMemoryAuthMetrics}. */
+	@com.google.inject.Inject(optional = true)
+	protected AuthMetrics metrics;
+
+	/** Components registered by {@link me.lazerka.gae.jersey.oauth2.OauthModule}, e.g. hedging URLFetch. */
+	@com.google.inject.Inject(optional = true)
+	protected Set<Diagnosable> components = ImmutableSet.of();
+
+	/** Provider, so that injecting this resource doesn't create the refresher if verifiers are lazy. */
+	@com.google.inject.Inject(optional = true)
+	protected Provider<GooglePublicKeysRefresher> googlePublicKeysRefresher;
+
+	@GET
+	@Produces(MediaType.APPLICATION_JSON)
+	public Map<String, Object> get() {
+		return new AuthDiagnostics(tokenVerifiers, components, metrics, googlePublicKeysRefresher)
+				.snapshot(DateTime.now(UTC));
+	}
+}
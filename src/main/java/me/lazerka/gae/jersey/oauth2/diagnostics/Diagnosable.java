@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2.diagnostics;
+
+import java.util.Map;
+
+/**
+ * Component that can describe its current state for {@link AuthDiagnostics}, e.g. a cache or a circuit breaker.
+ *
+ * @author Dzmitry Lazerka
+ */
+public interface Diagnosable {
+	/**
+	 * Called from diagnostics requests concurrently with verifications, so must not block or take locks that
+	 * verifications take. Values must be serializable by Jackson.
+	 */
+	Map<String, Object> getDiagnostics();
+}
@@ -25,7 +25,7 @@ import javax.annotation.Nonnull;
  * @author Dzmitry Lazerka
  */
 public abstract class BasicTokenVerifier implements TokenVerifier {
-	private static final String AUTH_SCHEME_HEADER = "X-Authorization-Scheme";
+	public static final String AUTH_SCHEME_HEADER = "X-Authorization-Scheme";
 
 	@Override
 	public boolean canHandle(@Nonnull ContainerRequest request) {
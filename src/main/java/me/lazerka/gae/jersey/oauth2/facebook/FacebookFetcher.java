@@ -19,23 +19,45 @@ package me.lazerka.gae.jersey.oauth2.facebook;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.api.client.util.Joiner;
+import com.google.appengine.api.urlfetch.FetchOptions;
 import com.google.appengine.api.urlfetch.HTTPRequest;
 import com.google.appengine.api.urlfetch.HTTPResponse;
 import com.google.appengine.api.urlfetch.URLFetchService;
+import com.google.apphosting.api.ApiProxy;
+import com.google.apphosting.api.ApiProxy.Environment;
 import com.google.common.base.Stopwatch;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import me.lazerka.gae.jersey.oauth2.AsyncTokenVerifier;
+import me.lazerka.gae.jersey.oauth2.metrics.AuthMetrics;
+import me.lazerka.gae.jersey.oauth2.metrics.NoopAuthMetrics;
+import me.lazerka.gae.jersey.oauth2.metrics.RemoteCallFuture;
+import org.joda.time.Duration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.inject.Provider;
 import javax.ws.rs.core.UriBuilder;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URL;
 import java.security.InvalidKeyException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 
 import static com.google.appengine.api.urlfetch.FetchOptions.Builder.validateCertificate;
 import static com.google.appengine.api.urlfetch.HTTPMethod.GET;
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.util.concurrent.Futures.immediateFailedFuture;
+import static com.google.common.util.concurrent.Futures.immediateFuture;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 /**
@@ -48,27 +70,182 @@ class FacebookFetcher {
 
 	private static final URI GRAPH_API = URI.create("https://graph.facebook.com/v2.6/");
 
+	/** Endpoint names for {@link AuthMetrics#recordRemoteCall}. */
+	static final String ACCESS_TOKEN_ENDPOINT = FetchPolicy.ACCESS_TOKEN;
+	static final String ME_ENDPOINT = FetchPolicy.ME;
+	static final String DEBUG_TOKEN_ENDPOINT = FetchPolicy.DEBUG_TOKEN;
+
+	/** Left of the incoming request deadline for the rest of request handling, not given to remote calls. */
+	static final Duration DEADLINE_RESERVE = Duration.millis(500);
+
 	final String appId;
 	final String appSecret;
 	final ObjectMapper jackson;
 	final URLFetchService urlFetchService;
+	final AuthMetrics metrics;
+
+	/** Endpoint name -> how to call it. */
+	final ConcurrentMap<String, FetchPolicy> policies = new ConcurrentHashMap<>();
+
+	/** Time left until the incoming request deadline, or null if there's none. */
+	Provider<Duration> remainingTime = new ApiProxyRemainingTime();
 
 	FacebookFetcher(String appId, String appSecret, ObjectMapper jackson, URLFetchService urlFetchService) {
+		this(appId, appSecret, jackson, urlFetchService, NoopAuthMetrics.INSTANCE);
+	}
+
+	FacebookFetcher(
+			String appId,
+			String appSecret,
+			ObjectMapper jackson,
+			URLFetchService urlFetchService,
+			AuthMetrics metrics
+	) {
 		this.appId = appId;
 		this.appSecret = appSecret;
 		this.jackson = jackson;
 		this.urlFetchService = urlFetchService;
+		this.metrics = checkNotNull(metrics);
+
+		policies.put(ACCESS_TOKEN_ENDPOINT, FetchPolicy.DEFAULT_ACCESS_TOKEN);
+		policies.put(ME_ENDPOINT, FetchPolicy.DEFAULT_ME);
+		policies.put(DEBUG_TOKEN_ENDPOINT, FetchPolicy.DEFAULT_DEBUG_TOKEN);
+	}
+
+	void setPolicy(@Nonnull String endpoint, @Nonnull FetchPolicy policy) {
+		checkArgument(policies.containsKey(endpoint), "Unknown endpoint %s, known: %s", endpoint, policies.keySet());
+		policies.put(endpoint, checkNotNull(policy));
 	}
 
-	String fetch(URL url) throws IOException, InvalidKeyException {
+	String fetch(String endpoint, URL url) throws IOException, InvalidKeyException {
 		logger.trace("Requesting endpoint to validate token");
 
-		HTTPRequest httpRequest = new HTTPRequest(url, GET, validateCertificate());
+		FetchPolicy policy = policies.get(endpoint);
+		Duration remaining = getBudget();
+
+		for (int retry = 0; ; retry++) {
+			HTTPRequest httpRequest = new HTTPRequest(url, GET, getFetchOptions(policy, remaining));
+			boolean canRetry = retry < policy.getMaxRetries();
+
+			Stopwatch stopwatch = Stopwatch.createStarted();
+			HTTPResponse response;
+			try {
+				response = urlFetchService.fetch(httpRequest);
+			} catch (IOException e) {
+				if (!canRetry) {
+					throw e;
+				}
+				logger.warn("{} failed: {}", endpoint, e.toString());
+				remaining = backOff(policy, retry, remaining, stopwatch, e);
+				continue;
+			} finally {
+				metrics.recordRemoteCall(endpoint, stopwatch.elapsed(TimeUnit.NANOSECONDS));
+			}
+			logger.debug("Remote call took {}ms", stopwatch.elapsed(TimeUnit.MILLISECONDS));
+
+			if (response.getResponseCode() >= 500 && canRetry) {
+				logger.warn("{} responded {}", endpoint, response.getResponseCode());
+				remaining = backOff(policy, retry, remaining, stopwatch, null);
+				continue;
+			}
 
-		Stopwatch stopwatch = Stopwatch.createStarted();
-		HTTPResponse response = urlFetchService.fetch(httpRequest);
-		logger.debug("Remote call took {}ms", stopwatch.elapsed(TimeUnit.MILLISECONDS));
+			return handleResponse(response);
+		}
+	}
+
+	/**
+	 * Sleeps before next retry.
+	 *
+	 * @param failure to rethrow if there's no time left for retry, or null to return and let caller handle the
+	 *                response.
+	 * @return time budget left after sleeping, or null if unlimited.
+	 */
+	@Nullable
+	private Duration backOff(
+			FetchPolicy policy,
+			int retry,
+			@Nullable Duration remaining,
+			Stopwatch attempt,
+			@Nullable IOException failure
+	) throws IOException {
+		long backoffMillis = policy.getBackoffMillis(retry, ThreadLocalRandom.current());
+		if (remaining != null) {
+			remaining = remaining.minus(attempt.elapsed(TimeUnit.MILLISECONDS) + backoffMillis);
+			if (remaining.getMillis() <= 0) {
+				throw failure != null
+						? failure
+						: new IOException("No time left to retry within request deadline");
+			}
+		}
 
+		logger.debug("Retrying in {}ms", backoffMillis);
+		try {
+			Thread.sleep(backoffMillis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted", e);
+		}
+		return remaining;
+	}
+
+	/**
+	 * @return time left for remote calls of this request, or null if unlimited.
+	 */
+	@Nullable
+	private Duration getBudget() throws IOException {
+		Duration remaining = remainingTime.get();
+		if (remaining == null) {
+			return null;
+		}
+		remaining = remaining.minus(DEADLINE_RESERVE);
+		if (remaining.getMillis() <= 0) {
+			throw new IOException("No time left for remote call within request deadline");
+		}
+		return remaining;
+	}
+
+	private static FetchOptions getFetchOptions(FetchPolicy policy, @Nullable Duration remaining) {
+		long deadlineMillis = policy.getDeadline().getMillis();
+		if (remaining != null) {
+			deadlineMillis = Math.min(deadlineMillis, remaining.getMillis());
+		}
+		return validateCertificate().setDeadline(deadlineMillis / 1000d);
+	}
+
+	/**
+	 * Like {@link #fetch}, but doesn't block. Fails with the same exceptions.
+	 *
+	 * @param executor to wait for URL Fetch response on, see {@link AsyncTokenVerifier}.
+	 */
+	ListenableFuture<String> fetchAsync(final String endpoint, URL url, Executor executor) {
+		logger.trace("Requesting endpoint to validate token asynchronously");
+
+		// Not retried, that would need a timer to back off without blocking. Deadline still applies.
+		HTTPRequest httpRequest;
+		try {
+			httpRequest = new HTTPRequest(url, GET, getFetchOptions(policies.get(endpoint), getBudget()));
+		} catch (IOException e) {
+			return immediateFailedFuture(e);
+		}
+
+		// Timed by the URLFetch future itself, so latency doesn't include waiting for the executor.
+		long start = System.nanoTime();
+		ListenableFuture<HTTPResponse> response =
+				RemoteCallFuture.listen(urlFetchService.fetchAsync(httpRequest), metrics, endpoint, start, executor);
+
+		return Futures.transformAsync(response, new AsyncFunction<HTTPResponse, String>() {
+			@Override
+			public ListenableFuture<String> apply(HTTPResponse response) throws IOException, InvalidKeyException {
+				return immediateFuture(handleResponse(response));
+			}
+		}, directExecutor());
+	}
+
+	/**
+	 * @throws IOException if Facebook is failing (not 4xx), so we don't know whether token is valid.
+	 * @throws InvalidKeyException if Facebook rejected the token.
+	 */
+	private String handleResponse(HTTPResponse response) throws IOException, InvalidKeyException {
 		int responseCode = response.getResponseCode();
 		String content = new String(response.getContent(), UTF_8);
 
@@ -77,18 +254,20 @@ class FacebookFetcher {
 
 			String msg = "Endpoint response code " + responseCode;
 
+			if (responseCode < 400 || responseCode >= 500) {
+				throw new IOException(msg);
+			}
+
 			// Something is wrong with our request.
 			// If signature is invalid, then response code is 403.
-			if (responseCode >= 400 && responseCode < 500) {
-				try {
-					JsonNode tree = jackson.readTree(content);
-					JsonNode error = tree.findPath("error");
-					if (!error.isMissingNode()) {
-						msg += ": " + error.findPath("message").textValue();
-					}
-				} catch (IOException e) {
-					logger.warn("Cannot parse response as error");
+			try {
+				JsonNode tree = jackson.readTree(content);
+				JsonNode error = tree.findPath("error");
+				if (!error.isMissingNode()) {
+					msg += ": " + error.findPath("message").textValue();
 				}
+			} catch (IOException e) {
+				logger.warn("Cannot parse response as error");
 			}
 
 			throw new InvalidKeyException(msg);
@@ -97,6 +276,31 @@ class FacebookFetcher {
 		return content;
 	}
 
+	/**
+	 * Reads remaining time of the current App Engine request.
+	 */
+	static class ApiProxyRemainingTime implements Provider<Duration> {
+		@Nullable
+		@Override
+		public Duration get() {
+			Environment environment = ApiProxy.getCurrentEnvironment();
+			if (environment == null) {
+				// Not in a request thread, e.g. in tests.
+				return null;
+			}
+			return Duration.millis(environment.getRemainingMillis());
+		}
+	}
+
+	private <T> ListenableFuture<T> parseAsync(ListenableFuture<String> content, final Class<T> type) {
+		return Futures.transformAsync(content, new AsyncFunction<String, T>() {
+			@Override
+			public ListenableFuture<T> apply(String content) throws IOException {
+				return immediateFuture(jackson.readValue(content, type));
+			}
+		}, directExecutor());
+	}
+
 	/**
 	 * Not sure why we anyone would ever need this, because any requests accept client_id + client_secret as well.
 	 */
@@ -109,14 +313,27 @@ class FacebookFetcher {
 				.build()
 				.toURL();
 
-		String content = fetch(url);
+		String content = fetch(ACCESS_TOKEN_ENDPOINT, url);
 
 		return jackson.readValue(content, AccessTokenResponse.class);
 	}
 
 	AccessTokenResponse fetchUserAccessToken(String code, String redirectUri) throws IOException, InvalidKeyException {
 		logger.trace("Requesting {}/oauth/access_token ...", GRAPH_API);
-		URL url = UriBuilder.fromUri(GRAPH_API).path("/oauth/access_token")
+		String content = fetch(ACCESS_TOKEN_ENDPOINT, getUserAccessTokenUrl(code, redirectUri));
+		return jackson.readValue(content, AccessTokenResponse.class);
+	}
+
+	ListenableFuture<AccessTokenResponse> fetchUserAccessTokenAsync(String code, String redirectUri, Executor executor)
+			throws IOException {
+		logger.trace("Requesting {}/oauth/access_token asynchronously...", GRAPH_API);
+		ListenableFuture<String> content =
+				fetchAsync(ACCESS_TOKEN_ENDPOINT, getUserAccessTokenUrl(code, redirectUri), executor);
+		return parseAsync(content, AccessTokenResponse.class);
+	}
+
+	private URL getUserAccessTokenUrl(String code, String redirectUri) throws IOException {
+		return UriBuilder.fromUri(GRAPH_API).path("/oauth/access_token")
 				.queryParam("client_id", appId)
 				.queryParam("client_secret", appSecret)
 				.queryParam("code", code)
@@ -124,47 +341,59 @@ class FacebookFetcher {
 				.queryParam("redirect_uri", redirectUri)
 				.build()
 				.toURL();
-
-		String content = fetch(url);
-
-		return jackson.readValue(content, AccessTokenResponse.class);
 	}
 
 	FacebookUser fetchUser(String accessToken) throws IOException, InvalidKeyException {
 		logger.trace("Requesting {}/me ...", GRAPH_API);
 
+		String content = fetch(ME_ENDPOINT, getUserUrl(accessToken));
+
+		FacebookUser facebookUser = jackson.readValue(content, FacebookUser.class);
+		logger.info("Fetched {}", facebookUser);
+
+		return facebookUser;
+	}
+
+	ListenableFuture<FacebookUser> fetchUserAsync(String accessToken, Executor executor) throws IOException {
+		logger.trace("Requesting {}/me asynchronously...", GRAPH_API);
+		return parseAsync(fetchAsync(ME_ENDPOINT, getUserUrl(accessToken), executor), FacebookUser.class);
+	}
+
+	private URL getUserUrl(String accessToken) throws IOException {
 		checkArgument(!accessToken.contains("."), "This is signed_request, not access_token");
 
 		String fields = Joiner.on(',').join(FacebookUser.FIELDS);
-		URL url = UriBuilder.fromUri(GRAPH_API)
+		return UriBuilder.fromUri(GRAPH_API)
 				.path("me")
 				.queryParam("fields", fields)
 				.queryParam("access_token", accessToken)
 				.build()
 				.toURL();
+	}
 
-		String content = fetch(url);
+	DebugTokenResponse fetchDebugToken(String userAccessToken) throws IOException, InvalidKeyException {
+		logger.trace("Requesting {}/oauth/access_token ...", GRAPH_API);
 
-		FacebookUser facebookUser = jackson.readValue(content, FacebookUser.class);
-		logger.info("Fetched {}", facebookUser);
+		String content = fetch(DEBUG_TOKEN_ENDPOINT, getDebugTokenUrl(userAccessToken));
 
-		return facebookUser;
+		return jackson.readValue(content, DebugTokenResponse.class);
 	}
 
-	DebugTokenResponse fetchDebugToken(String userAccessToken) throws IOException, InvalidKeyException {
-		logger.trace("Requesting {}/oauth/access_token ...", GRAPH_API);
+	ListenableFuture<DebugTokenResponse> fetchDebugTokenAsync(String userAccessToken, Executor executor)
+			throws IOException {
+		logger.trace("Requesting {}/debug_token asynchronously...", GRAPH_API);
+		ListenableFuture<String> content = fetchAsync(DEBUG_TOKEN_ENDPOINT, getDebugTokenUrl(userAccessToken), executor);
+		return parseAsync(content, DebugTokenResponse.class);
+	}
 
+	private URL getDebugTokenUrl(String userAccessToken) throws IOException {
 		checkArgument(!userAccessToken.contains("."), "This is signed_request, not access_token");
 
-		URL url = UriBuilder.fromUri(GRAPH_API)
+		return UriBuilder.fromUri(GRAPH_API)
 				.path("debug_token")
 				.queryParam("input_token", userAccessToken)
 				.queryParam("access_token", "{appId}|{appSecret}")
 				.build(appId, appSecret)
 				.toURL();
-
-		String content = fetch(url);
-
-		return jackson.readValue(content, DebugTokenResponse.class);
 	}
 }
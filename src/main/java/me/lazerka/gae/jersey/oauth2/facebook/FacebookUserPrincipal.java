@@ -18,10 +18,13 @@ package me.lazerka.gae.jersey.oauth2.facebook;
 
 import com.google.common.base.Optional;
 import me.lazerka.gae.jersey.oauth2.UserPrincipal;
+import org.joda.time.DateTime;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
+import static org.joda.time.DateTimeZone.UTC;
+
 /**
  * @author Dzmitry Lazerka
  */
@@ -30,17 +33,32 @@ public class FacebookUserPrincipal extends UserPrincipal {
 	private final FacebookUser facebookUser;
 	private final AccessTokenResponse accessTokenResponse;
 	private final DebugTokenResponse debugTokenResponse;
+	private final DateTime expiresAt;
 
 	public FacebookUserPrincipal(
 			@Nonnull String id,
 			@Nullable FacebookUser facebookUser,
 			@Nullable AccessTokenResponse accessTokenResponse,
 			@Nullable DebugTokenResponse debugTokenResponse
+	) {
+		this(id, facebookUser, accessTokenResponse, debugTokenResponse, null);
+	}
+
+	/**
+	 * @param expiresAt overrides expiration known from debugTokenResponse, if any.
+	 */
+	public FacebookUserPrincipal(
+			@Nonnull String id,
+			@Nullable FacebookUser facebookUser,
+			@Nullable AccessTokenResponse accessTokenResponse,
+			@Nullable DebugTokenResponse debugTokenResponse,
+			@Nullable DateTime expiresAt
 	) {
 		super(id);
 		this.facebookUser = facebookUser;
 		this.accessTokenResponse = accessTokenResponse;
 		this.debugTokenResponse = debugTokenResponse;
+		this.expiresAt = expiresAt;
 	}
 
 	public Optional<FacebookUser> getFacebookUser() {
@@ -55,4 +73,19 @@ public class FacebookUserPrincipal extends UserPrincipal {
 		return Optional.fromNullable(debugTokenResponse);
 	}
 
+	/**
+	 * Known only if verified by /debug_token, or if given explicitly (e.g. end of signed_request freshness window).
+	 * Facebook returns zero for tokens that never expire.
+	 */
+	@Nullable
+	@Override
+	public DateTime getExpiresAt() {
+		if (expiresAt != null) {
+			return expiresAt;
+		}
+		if (debugTokenResponse == null || debugTokenResponse.getExpiresAt() == 0) {
+			return null;
+		}
+		return new DateTime(debugTokenResponse.getExpiresAt() * 1000, UTC);
+	}
 }
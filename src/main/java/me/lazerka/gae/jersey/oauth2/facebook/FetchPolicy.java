@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2.facebook;
+
+import com.google.common.base.MoreObjects;
+import org.joda.time.Duration;
+
+import javax.annotation.Nonnull;
+import java.util.Random;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * How to call a Graph API endpoint: URL Fetch deadline, and how many times to retry on 5xx responses and
+ * {@link java.io.IOException}s.
+ *
+ * Retries back off exponentially with full jitter, so that retries of many requests don't hit Facebook at once.
+ * All attempts together never take longer than the incoming request has left.
+ *
+ * @author Dzmitry Lazerka
+ */
+public class FetchPolicy {
+	/** Endpoint names, same as for {@link me.lazerka.gae.jersey.oauth2.metrics.AuthMetrics#recordRemoteCall}. */
+	public static final String ACCESS_TOKEN = "facebook/oauth/access_token";
+	public static final String ME = "facebook/me";
+	public static final String DEBUG_TOKEN = "facebook/debug_token";
+
+	public static final FetchPolicy DEFAULT_DEBUG_TOKEN = new FetchPolicy(
+			Duration.standardSeconds(3), 2, Duration.millis(100), Duration.standardSeconds(1));
+	public static final FetchPolicy DEFAULT_ME = new FetchPolicy(
+			Duration.standardSeconds(3), 2, Duration.millis(100), Duration.standardSeconds(1));
+	/** Not retried by default: code can be exchanged only once, so a retry after a lost response would fail. */
+	public static final FetchPolicy DEFAULT_ACCESS_TOKEN = new FetchPolicy(
+			Duration.standardSeconds(5), 0, Duration.millis(100), Duration.standardSeconds(1));
+
+	private final Duration deadline;
+	private final int maxRetries;
+	private final Duration initialBackoff;
+	private final Duration maxBackoff;
+
+	/**
+	 * @param deadline of each attempt.
+	 * @param maxRetries how many times to retry after the first attempt.
+	 * @param initialBackoff upper bound of delay before the first retry, doubled for each next one.
+	 * @param maxBackoff upper bound of delay before any retry.
+	 */
+	public FetchPolicy(
+			@Nonnull Duration deadline,
+			int maxRetries,
+			@Nonnull Duration initialBackoff,
+			@Nonnull Duration maxBackoff
+	) {
+		checkArgument(deadline.getMillis() > 0, "deadline must be positive");
+		checkArgument(maxRetries >= 0, maxRetries);
+		this.deadline = deadline;
+		this.maxRetries = maxRetries;
+		this.initialBackoff = checkNotNull(initialBackoff);
+		this.maxBackoff = checkNotNull(maxBackoff);
+	}
+
+	@Nonnull
+	public Duration getDeadline() {
+		return deadline;
+	}
+
+	public int getMaxRetries() {
+		return maxRetries;
+	}
+
+	/**
+	 * @param retry number of retry, starting from 0.
+	 * @return random delay between zero and exponentially growing cap.
+	 */
+	long getBackoffMillis(int retry, Random random) {
+		long cap = initialBackoff.getMillis() << Math.min(retry, 30);
+		cap = Math.min(cap, maxBackoff.getMillis());
+		if (cap <= 0) {
+			return 0;
+		}
+		return (long) (random.nextDouble() * cap);
+	}
+
+	@Override
+	public String toString() {
+		return MoreObjects.toStringHelper(this)
+				.add("deadline", deadline)
+				.add("maxRetries", maxRetries)
+				.add("initialBackoff", initialBackoff)
+				.add("maxBackoff", maxBackoff)
+				.toString();
+	}
+}
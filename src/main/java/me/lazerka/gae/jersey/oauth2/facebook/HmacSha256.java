@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2.facebook;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Thread-safe HMAC-SHA256 with a fixed key.
+ *
+ * {@link Mac} is stateful, so it cannot be shared between threads, and synchronizing on it would serialize all
+ * verifications. Instead, each thread gets its own {@link Mac}, cloned from an initialized prototype (cloning is much
+ * cheaper than init).
+ *
+ * @author Dzmitry Lazerka
+ */
+class HmacSha256 {
+	static final String ALGORITHM = "HmacSHA256";
+
+	/** Signature length in bytes. */
+	static final int LENGTH = 32;
+
+	private final SecretKeySpec key;
+
+	/** Never used for computing, only for cloning. */
+	private final Mac prototype;
+
+	private final ThreadLocal<Mac> macs = new ThreadLocal<Mac>() {
+		@Override
+		protected Mac initialValue() {
+			return newMac();
+		}
+	};
+
+	HmacSha256(byte[] key) {
+		this.key = new SecretKeySpec(key, ALGORITHM);
+		this.prototype = init();
+	}
+
+	private Mac init() {
+		try {
+			Mac result = Mac.getInstance(ALGORITHM);
+			result.init(key);
+			return result;
+		} catch (NoSuchAlgorithmException | InvalidKeyException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private Mac newMac() {
+		try {
+			synchronized (prototype) {
+				return (Mac) prototype.clone();
+			}
+		} catch (CloneNotSupportedException e) {
+			// Some providers don't support cloning.
+			return init();
+		}
+	}
+
+	byte[] sign(byte[] data) {
+		return sign(data, 0, data.length);
+	}
+
+	byte[] sign(byte[] data, int offset, int length) {
+		Mac mac = macs.get();
+		mac.update(data, offset, length);
+		return mac.doFinal();
+	}
+
+	/**
+	 * Compares signatures in constant time, so that response time doesn't tell attacker how many bytes matched.
+	 */
+	boolean verify(byte[] data, int offset, int length, byte[] signature) {
+		return MessageDigest.isEqual(sign(data, offset, length), signature);
+	}
+}
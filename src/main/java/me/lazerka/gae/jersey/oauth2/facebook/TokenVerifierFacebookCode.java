@@ -18,11 +18,22 @@ package me.lazerka.gae.jersey.oauth2.facebook;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.appengine.api.urlfetch.URLFetchService;
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import me.lazerka.gae.jersey.oauth2.AsyncTokenVerifier;
+import me.lazerka.gae.jersey.oauth2.UserPrincipal;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nonnull;
 import java.io.IOException;
 import java.security.InvalidKeyException;
+import java.util.concurrent.Executor;
+
+import static com.google.common.util.concurrent.Futures.immediateFailedFuture;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
 
 /**
  * Filter that verifies token by making HTTPS call to Facebook endpoint.
@@ -35,7 +46,7 @@ import java.security.InvalidKeyException;
  *
  * @author Dzmitry Lazerka
  */
-public class TokenVerifierFacebookCode extends BasicTokenVerifier {
+public class TokenVerifierFacebookCode extends BasicTokenVerifier implements AsyncTokenVerifier {
 	private static final Logger logger = LoggerFactory.getLogger(TokenVerifierFacebookCode.class);
 
 	public static final String AUTH_SCHEME = "Facebook/Code";
@@ -68,6 +79,46 @@ public class TokenVerifierFacebookCode extends BasicTokenVerifier {
 		return new FacebookUserPrincipal(facebookUser.getId(), facebookUser, accessTokenResponse, null);
 	}
 
+	/**
+	 * Pipelines both calls: asks for user as soon as access token arrives, without blocking any thread in between.
+	 */
+	@Override
+	public ListenableFuture<UserPrincipal> verifyAsync(String code, final Executor executor) {
+		logger.trace("Requesting endpoint to validate token asynchronously");
+
+		ListenableFuture<AccessTokenResponse> accessTokenResponse;
+		try {
+			accessTokenResponse = fetcher.fetchUserAccessTokenAsync(code, redirectUri, executor);
+		} catch (IOException | RuntimeException e) {
+			return immediateFailedFuture(e);
+		}
+
+		return Futures.transformAsync(accessTokenResponse, new AsyncFunction<AccessTokenResponse, UserPrincipal>() {
+			@Override
+			public ListenableFuture<UserPrincipal> apply(final AccessTokenResponse accessTokenResponse)
+					throws IOException {
+				ListenableFuture<FacebookUser> facebookUser =
+						fetcher.fetchUserAsync(accessTokenResponse.accessToken, executor);
+
+				return Futures.transform(facebookUser, new Function<FacebookUser, UserPrincipal>() {
+					@Override
+					public UserPrincipal apply(FacebookUser facebookUser) {
+						return new FacebookUserPrincipal(facebookUser.getId(), facebookUser, accessTokenResponse, null);
+					}
+				}, directExecutor());
+			}
+		}, directExecutor());
+	}
+
+	/**
+	 * Overrides deadline and retries of calls to given Graph API endpoint.
+	 *
+	 * @param endpoint {@link FetchPolicy#ACCESS_TOKEN} or {@link FetchPolicy#ME}.
+	 */
+	public void setFetchPolicy(@Nonnull String endpoint, @Nonnull FetchPolicy policy) {
+		fetcher.setPolicy(endpoint, policy);
+	}
+
 	@Override
 	public String getAuthenticationScheme() {
 		return AUTH_SCHEME;
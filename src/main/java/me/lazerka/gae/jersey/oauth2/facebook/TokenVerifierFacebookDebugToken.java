@@ -34,20 +34,33 @@ package me.lazerka.gae.jersey.oauth2.facebook;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.appengine.api.urlfetch.URLFetchService;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import me.lazerka.gae.jersey.oauth2.AsyncTokenVerifier;
+import me.lazerka.gae.jersey.oauth2.ExpiredTokenException;
+import me.lazerka.gae.jersey.oauth2.UserPrincipal;
+import me.lazerka.gae.jersey.oauth2.metrics.AuthMetrics;
+import me.lazerka.gae.jersey.oauth2.metrics.NoopAuthMetrics;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nonnull;
 import javax.inject.Provider;
 import java.io.IOException;
 import java.security.InvalidKeyException;
+import java.util.concurrent.Executor;
+
+import static com.google.common.util.concurrent.Futures.immediateFailedFuture;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
 
 /**
  * Checks User Access Token that was sent by user, by calling FB /debug_token endpoint.
  *
  * @author Dzmitry Lazerka
  */
-public class TokenVerifierFacebookDebugToken extends BasicTokenVerifier {
+public class TokenVerifierFacebookDebugToken extends BasicTokenVerifier implements AsyncTokenVerifier {
 	private static final Logger logger = LoggerFactory.getLogger(TokenVerifierFacebookDebugToken.class);
 
 	public static final String AUTH_SCHEME = "Facebook/UserAccessToken";
@@ -62,10 +75,24 @@ public class TokenVerifierFacebookDebugToken extends BasicTokenVerifier {
 			String appId,
 			String appSecret,
 			Provider<DateTime> nowProvider
+	) {
+		this(urlFetchService, jackson, appId, appSecret, nowProvider, NoopAuthMetrics.INSTANCE);
+	}
+
+	/**
+	 * @param metrics records latency of calls to /debug_token.
+	 */
+	public TokenVerifierFacebookDebugToken(
+			URLFetchService urlFetchService,
+			ObjectMapper jackson,
+			String appId,
+			String appSecret,
+			Provider<DateTime> nowProvider,
+			AuthMetrics metrics
 	) {
 		this.appId = appId;
 		this.nowProvider = nowProvider;
-		this.fetcher = new FacebookFetcher(appId, appSecret, jackson, urlFetchService);
+		this.fetcher = new FacebookFetcher(appId, appSecret, jackson, urlFetchService, metrics);
 	}
 
 	@Override
@@ -74,6 +101,29 @@ public class TokenVerifierFacebookDebugToken extends BasicTokenVerifier {
 
 		DebugTokenResponse response = fetcher.fetchDebugToken(userAccessToken);
 
+		return toPrincipal(response);
+	}
+
+	@Override
+	public ListenableFuture<UserPrincipal> verifyAsync(String userAccessToken, Executor executor) {
+		logger.trace("Requesting endpoint to validate token asynchronously");
+
+		ListenableFuture<DebugTokenResponse> response;
+		try {
+			response = fetcher.fetchDebugTokenAsync(userAccessToken, executor);
+		} catch (IOException | RuntimeException e) {
+			return immediateFailedFuture(e);
+		}
+
+		return Futures.transformAsync(response, new AsyncFunction<DebugTokenResponse, UserPrincipal>() {
+			@Override
+			public ListenableFuture<UserPrincipal> apply(DebugTokenResponse response) throws InvalidKeyException {
+				return Futures.<UserPrincipal>immediateFuture(toPrincipal(response));
+			}
+		}, directExecutor());
+	}
+
+	private FacebookUserPrincipal toPrincipal(DebugTokenResponse response) throws InvalidKeyException {
 		if (!response.data.isValid) {
 			throw new InvalidKeyException("Token invalid: " + response.data.error.message);
 		}
@@ -85,7 +135,7 @@ public class TokenVerifierFacebookDebugToken extends BasicTokenVerifier {
 
 		DateTime now = nowProvider.get();
 		if (now.getMillis() / 1000 > response.data.expiresAt) {
-			throw new InvalidKeyException("Token expired: " + response.data.expiresAt);
+			throw new ExpiredTokenException("Token expired: " + response.data.expiresAt);
 		}
 
 		if (response.data.userId == null || response.data.userId.isEmpty()) {
@@ -95,6 +145,15 @@ public class TokenVerifierFacebookDebugToken extends BasicTokenVerifier {
 		return new FacebookUserPrincipal(response.data.userId, null, null, response);
 	}
 
+	/**
+	 * Overrides deadline and retries of calls to given Graph API endpoint.
+	 *
+	 * @param endpoint {@link FetchPolicy#DEBUG_TOKEN}.
+	 */
+	public void setFetchPolicy(@Nonnull String endpoint, @Nonnull FetchPolicy policy) {
+		fetcher.setPolicy(endpoint, policy);
+	}
+
 	@Override
 	public String getAuthenticationScheme() {
 		return AUTH_SCHEME;
@@ -16,24 +16,31 @@
 
 package me.lazerka.gae.jersey.oauth2.facebook;
 
-import com.fasterxml.jackson.core.Base64Variants;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.appengine.api.urlfetch.URLFetchService;
-import com.google.common.base.Splitter;
-import com.google.common.base.Throwables;
+import me.lazerka.gae.jersey.oauth2.ExpiredTokenException;
+import me.lazerka.gae.jersey.oauth2.metrics.AuthMetrics;
+import me.lazerka.gae.jersey.oauth2.metrics.NoopAuthMetrics;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.inject.Provider;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
-import java.util.List;
+import java.util.Base64;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static java.nio.charset.StandardCharsets.US_ASCII;
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.joda.time.DateTimeZone.UTC;
 
 /**
  * Verifies FB signed_request by checking its signature.
@@ -44,6 +51,11 @@ import static java.nio.charset.StandardCharsets.UTF_8;
  *
  * Documentation on parsing signed_request: https://developers.facebook.com/docs/games/gamesonfacebook/login#parsingsr
  *
+ * By default, `code` from signed_request is exchanged for access token, which proves it is not expired, but costs a
+ * remote call per verification. In offline mode (see constructor with `offlineFreshness`) the exchange is skipped, and
+ * signed_request is accepted if signature is valid and `issued_at` is not older than given freshness window.
+ * Principal then has no access token, and expires at the end of the freshness window.
+ *
  * @author Dzmitry Lazerka
  */
 public class TokenVerifierFacebookSignedRequest extends BasicTokenVerifier {
@@ -51,60 +63,107 @@ public class TokenVerifierFacebookSignedRequest extends BasicTokenVerifier {
 
 	public static final String AUTH_SCHEME = "Facebook/SignedRequest";
 
-	private final Mac hmac;
+	/** How far in the future `issued_at` can be in offline mode, to tolerate clock differences with Facebook. */
+	static final Duration ALLOWED_CLOCK_SKEW = Duration.standardMinutes(1);
+
+	private final HmacSha256 hmac;
 
 	final ObjectMapper jackson;
 	final String redirectUri;
 	final FacebookFetcher fetcher;
 
+	@Nullable
+	final Duration offlineFreshness;
+	@Nullable
+	final Provider<DateTime> nowProvider;
+
 	public TokenVerifierFacebookSignedRequest(
 			URLFetchService urlFetchService,
 			ObjectMapper jackson,
 			String appId,
 			String appSecret,
 			String redirectUri
+	) {
+		this(urlFetchService, jackson, appId, appSecret, redirectUri, NoopAuthMetrics.INSTANCE);
+	}
+
+	/**
+	 * @param metrics records latency of calls to /oauth/access_token.
+	 */
+	public TokenVerifierFacebookSignedRequest(
+			URLFetchService urlFetchService,
+			ObjectMapper jackson,
+			String appId,
+			String appSecret,
+			String redirectUri,
+			AuthMetrics metrics
 	) {
 		this.jackson = jackson;
 		this.redirectUri = redirectUri;
-		this.fetcher = new FacebookFetcher(appId, appSecret, jackson, urlFetchService);
+		this.fetcher = new FacebookFetcher(appId, appSecret, jackson, urlFetchService, metrics);
+		this.hmac = new HmacSha256(appSecret.getBytes(UTF_8));
+		this.offlineFreshness = null;
+		this.nowProvider = null;
+	}
 
-		try {
-			SecretKeySpec signingKey = new SecretKeySpec(appSecret.getBytes(UTF_8), "HmacSHA1");
-			hmac = Mac.getInstance("HmacSHA256");
-			hmac.init(signingKey);
-		} catch (NoSuchAlgorithmException | InvalidKeyException e) {
-			throw Throwables.propagate(e);
-		}
+	/**
+	 * Offline mode: doesn't exchange `code` for access token, but accepts signed_request with valid signature if
+	 * its `issued_at` is within `offlineFreshness` from now.
+	 */
+	public TokenVerifierFacebookSignedRequest(
+			ObjectMapper jackson,
+			String appSecret,
+			Duration offlineFreshness,
+			Provider<DateTime> nowProvider
+	) {
+		this.jackson = jackson;
+		this.redirectUri = null;
+		this.fetcher = null;
+		this.hmac = new HmacSha256(appSecret.getBytes(UTF_8));
+		this.offlineFreshness = checkNotNull(offlineFreshness);
+		this.nowProvider = checkNotNull(nowProvider);
+		checkArgument(offlineFreshness.getMillis() > 0, "offlineFreshness must be positive");
+	}
+
+	public boolean isOffline() {
+		return offlineFreshness != null;
 	}
 
 	@Override
 	public FacebookUserPrincipal verify(String signedRequestToken) throws IOException, InvalidKeyException {
-		logger.trace("Requesting endpoint to validate token");
-
-		List<String> parts = Splitter.on('.').splitToList(signedRequestToken);
-
-		checkArgument(parts.size() == 2, "Signed request must have two parts separated by period.");
+		// Check signature over the still-encoded payload first, so that forged or garbage tokens are rejected
+		// before we spend anything on decoding and parsing JSON.
+		// Base64url is ASCII, so byte offsets are the same as char offsets.
+		int period = signedRequestToken.indexOf('.');
+		if (period < 0 || signedRequestToken.indexOf('.', period + 1) >= 0) {
+			throw new InvalidKeyException("Signed request must have two parts separated by period.");
+		}
+		byte[] token = signedRequestToken.getBytes(US_ASCII);
+		int payloadOffset = period + 1;
+		int payloadLength = token.length - payloadOffset;
 
-		byte[] providedSignature = Base64Variants.MODIFIED_FOR_URL.decode(parts.get(0));
-		String signedRequestJsonEncoded = parts.get(1);
-		byte[] signedRequestJson = Base64Variants.MODIFIED_FOR_URL.decode(signedRequestJsonEncoded);
+		byte[] providedSignature = decodeBase64Url(token, 0, period);
+		if (providedSignature.length != HmacSha256.LENGTH
+				|| !hmac.verify(token, payloadOffset, payloadLength, providedSignature)) {
+			throw new InvalidKeyException("Signature invalid");
+		}
 
+		byte[] signedRequestJson = decodeBase64Url(token, payloadOffset, payloadLength);
 		SignedRequest signedRequest = jackson.readValue(signedRequestJson, SignedRequest.class);
 
 		if (!"HMAC-SHA256".equals(signedRequest.algorithm)) {
 			throw new InvalidKeyException("Unsupported signing method: " + signedRequest.algorithm);
 		}
 
-		byte[] expectedSignature = hmac.doFinal(signedRequestJsonEncoded.getBytes(UTF_8));
-		if (!Arrays.equals(providedSignature, expectedSignature)) {
-			throw new InvalidKeyException("Signature invalid");
+		if (isOffline()) {
+			return verifyOffline(signedRequest);
 		}
 
 		// We still need to verify expiration somehow. The only way is to ask Facebook.
 
 		// Exchange `code` for long-lived access token.
 		// This serves as verification for `code` expiration too.
-
+		logger.trace("Requesting endpoint to validate token");
 		AccessTokenResponse response = fetcher.fetchUserAccessToken(signedRequest.code, redirectUri);
 
 		// Not fetching email, because maybe we won't need to, if ID is enough.
@@ -112,8 +171,57 @@ public class TokenVerifierFacebookSignedRequest extends BasicTokenVerifier {
 		return new FacebookUserPrincipal(signedRequest.userId, null, response, null);
 	}
 
+	/**
+	 * Overrides deadline and retries of calls to given Graph API endpoint.
+	 *
+	 * @param endpoint {@link FetchPolicy#ACCESS_TOKEN}.
+	 * @throws IllegalStateException if {@link #isOffline()}.
+	 */
+	public void setFetchPolicy(@Nonnull String endpoint, @Nonnull FetchPolicy policy) {
+		checkState(fetcher != null, "Offline verifier makes no calls");
+		fetcher.setPolicy(endpoint, policy);
+	}
+
 	@Override
 	public String getAuthenticationScheme() {
 		return AUTH_SCHEME;
 	}
+
+	private FacebookUserPrincipal verifyOffline(SignedRequest signedRequest) throws InvalidKeyException {
+		assert offlineFreshness != null && nowProvider != null;
+
+		DateTime now = nowProvider.get();
+		DateTime issuedAt = new DateTime(signedRequest.issuedAt * 1000L, UTC);
+
+		if (issuedAt.isAfter(now.plus(ALLOWED_CLOCK_SKEW))) {
+			throw new InvalidKeyException("Signed request issued in the future: " + issuedAt);
+		}
+
+		DateTime expiresAt = issuedAt.plus(offlineFreshness);
+		if (!expiresAt.isAfter(now)) {
+			throw new ExpiredTokenException("Signed request too old, issued at " + issuedAt);
+		}
+
+		return new FacebookUserPrincipal(signedRequest.userId, null, null, null, expiresAt);
+	}
+
+	/**
+	 * Decodes unpadded base64url directly from token bytes, without intermediate String.
+	 */
+	private static byte[] decodeBase64Url(byte[] src, int offset, int length) throws InvalidKeyException {
+		ByteBuffer decoded;
+		try {
+			decoded = Base64.getUrlDecoder().decode(ByteBuffer.wrap(src, offset, length));
+		} catch (IllegalArgumentException e) {
+			throw new InvalidKeyException("Signed request is not valid base64url: " + e.getMessage());
+		}
+
+		// Decoder allocates exactly as much as needed for valid input, so normally no copy here.
+		byte[] array = decoded.array();
+		if (decoded.arrayOffset() == 0 && decoded.position() == 0 && decoded.remaining() == array.length) {
+			return array;
+		}
+		return Arrays.copyOfRange(array, decoded.arrayOffset() + decoded.position(),
+				decoded.arrayOffset() + decoded.limit());
+	}
 }
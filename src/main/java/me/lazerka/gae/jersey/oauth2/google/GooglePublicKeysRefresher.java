@@ -0,0 +1,353 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2.google;
+
+import com.google.api.client.googleapis.auth.oauth2.GooglePublicKeysManager;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.util.Clock;
+import com.google.api.client.util.SecurityUtils;
+import com.google.common.collect.ImmutableMap;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.joda.time.DateTimeZone.UTC;
+
+/**
+ * Keeps Google public keys in memory, and refreshes them in background before they expire.
+ *
+ * {@link GooglePublicKeysManager} refreshes keys under a lock on the thread that happened to need them after
+ * expiration, so that request waits for URLFetch, and all concurrent requests wait for the lock. Here, keys are
+ * refreshed once they are within `refreshAhead` of expiration (as set by Cache-Control max-age of certs response),
+ * by a task submitted to the given executor, while request threads keep using the keys they have. If keys live
+ * shorter than twice `refreshAhead`, they are refreshed at half of their lifetime instead, so that fresh keys don't
+ * look due for refresh right away.
+ *
+ * Request threads block only if there are no valid keys at all, e.g. on the first request.
+ *
+ * Keys are indexed by their ID (`kid`), so that a token is checked against exactly one key. That's why we fetch
+ * certificates ourselves -- {@link GooglePublicKeysManager} drops key IDs. When token refers to an unknown key
+ * (e.g. Google just rotated keys), keys are refreshed right away, but not more often than
+ * `unknownKeyRefreshInterval`, so that garbage tokens cannot make us hammer the endpoint. Such tokens don't wait for
+ * refreshes either: only one request per interval does.
+ *
+ * @author Dzmitry Lazerka
+ */
+public class GooglePublicKeysRefresher {
+	private static final Logger logger = LoggerFactory.getLogger(GooglePublicKeysRefresher.class);
+
+	public static final Duration DEFAULT_REFRESH_AHEAD = Duration.standardMinutes(30);
+	public static final Duration DEFAULT_UNKNOWN_KEY_REFRESH_INTERVAL = Duration.standardMinutes(1);
+
+	private static final Pattern MAX_AGE_PATTERN = Pattern.compile("\\s*max-age\\s*=\\s*(\\d+)\\s*");
+
+	private final HttpTransport transport;
+	private final JsonFactory jsonFactory;
+	private final String publicCertsEncodedUrl;
+	private final Clock clock;
+	private final Executor executor;
+	private final Duration refreshAhead;
+	private final Duration unknownKeyRefreshInterval;
+
+	private final Object refreshLock = new Object();
+	private final AtomicBoolean backgroundRefreshScheduled = new AtomicBoolean();
+
+	/** Earliest time of next refresh because of unknown key ID. */
+	private final AtomicLong nextUnknownKeyRefreshMillis = new AtomicLong();
+
+	private volatile KeySet keySet;
+
+	/**
+	 * @param publicKeysManager Provides transport, certificates URL and clock.
+	 * @param executor Runs background refreshes.
+	 * @param refreshAhead How long before expiration to start refreshing.
+	 */
+	public GooglePublicKeysRefresher(
+			@Nonnull GooglePublicKeysManager publicKeysManager,
+			@Nonnull Executor executor,
+			@Nonnull Duration refreshAhead
+	) {
+		this(publicKeysManager, executor, refreshAhead, DEFAULT_UNKNOWN_KEY_REFRESH_INTERVAL);
+	}
+
+	/**
+	 * @param publicKeysManager Provides transport, certificates URL and clock.
+	 * @param executor Runs background refreshes.
+	 * @param refreshAhead How long before expiration to start refreshing.
+	 * @param unknownKeyRefreshInterval How often at most to refresh keys because of unknown key ID.
+	 */
+	public GooglePublicKeysRefresher(
+			@Nonnull GooglePublicKeysManager publicKeysManager,
+			@Nonnull Executor executor,
+			@Nonnull Duration refreshAhead,
+			@Nonnull Duration unknownKeyRefreshInterval
+	) {
+		this.transport = publicKeysManager.getTransport();
+		this.jsonFactory = publicKeysManager.getJsonFactory();
+		this.publicCertsEncodedUrl = publicKeysManager.getPublicCertsEncodedUrl();
+		this.clock = publicKeysManager.getClock();
+		this.executor = checkNotNull(executor);
+		this.refreshAhead = checkNotNull(refreshAhead);
+		this.unknownKeyRefreshInterval = checkNotNull(unknownKeyRefreshInterval);
+	}
+
+	/**
+	 * Never blocks, unless there are no valid keys in memory.
+	 */
+	public List<PublicKey> getPublicKeys() throws GeneralSecurityException, IOException {
+		return getValidKeySet().getPublicKeys();
+	}
+
+	/**
+	 * Never blocks, unless there are no valid keys in memory, or key is unknown.
+	 *
+	 * @return null if there's no such key even after refresh.
+	 */
+	@Nullable
+	public PublicKey getPublicKey(@Nonnull String keyId) throws GeneralSecurityException, IOException {
+		KeySet current = getValidKeySet();
+
+		PublicKey result = current.publicKeysById.get(keyId);
+		if (result != null) {
+			return result;
+		}
+
+		return refreshForUnknownKey(keyId);
+	}
+
+	private KeySet getValidKeySet() throws GeneralSecurityException, IOException {
+		KeySet current = keySet;
+		long now = clock.currentTimeMillis();
+
+		if (current == null || now >= current.expiresAtMillis) {
+			return refreshIfExpired();
+		}
+
+		if (now >= getRefreshAtMillis(current)) {
+			scheduleRefresh();
+		}
+
+		return current;
+	}
+
+	/**
+	 * Refresh-ahead, but no more than half of key lifetime.
+	 */
+	private long getRefreshAtMillis(KeySet current) {
+		long lifetime = current.expiresAtMillis - current.fetchedAtMillis;
+		return current.expiresAtMillis - Math.min(refreshAhead.getMillis(), lifetime / 2);
+	}
+
+	/**
+	 * Rate limit is checked without taking {@link #refreshLock}, so that garbage key IDs never wait for a refresh.
+	 */
+	@Nullable
+	private PublicKey refreshForUnknownKey(String keyId) throws GeneralSecurityException, IOException {
+		long now = clock.currentTimeMillis();
+		long allowedAt = nextUnknownKeyRefreshMillis.get();
+		long fetchedAt = keySet.fetchedAtMillis;
+
+		if (now < Math.max(allowedAt, fetchedAt + unknownKeyRefreshInterval.getMillis())
+				|| !nextUnknownKeyRefreshMillis.compareAndSet(allowedAt, now + unknownKeyRefreshInterval.getMillis())) {
+			logger.debug("Unknown key ID {}, but keys were refreshed recently", keyId);
+			return null;
+		}
+
+		logger.info("Unknown key ID {}, refreshing keys", keyId);
+		return refresh().publicKeysById.get(keyId);
+	}
+
+	private KeySet refreshIfExpired() throws GeneralSecurityException, IOException {
+		synchronized (refreshLock) {
+			// Somebody else could have refreshed while we were waiting for the lock.
+			KeySet current = keySet;
+			if (current != null && clock.currentTimeMillis() < current.expiresAtMillis) {
+				return current;
+			}
+
+			logger.info("No valid Google public keys, fetching synchronously");
+			return refresh();
+		}
+	}
+
+	/**
+	 * Fetches keys right away, regardless of whether current ones are still valid.
+	 */
+	public KeySet refresh() throws GeneralSecurityException, IOException {
+		synchronized (refreshLock) {
+			KeySet result = fetch();
+			keySet = result;
+
+			logger.debug("Fetched Google public keys {}, valid until {}", result.getKeyIds(), result.getExpiresAt());
+			return result;
+		}
+	}
+
+	private KeySet fetch() throws GeneralSecurityException, IOException {
+		long fetchedAt = clock.currentTimeMillis();
+
+		HttpResponse response = transport.createRequestFactory()
+				.buildGetRequest(new GenericUrl(publicCertsEncodedUrl))
+				.execute();
+
+		GenericJson certs;
+		try {
+			certs = jsonFactory.createJsonParser(response.getContent()).parseAndClose(GenericJson.class);
+		} finally {
+			response.disconnect();
+		}
+
+		CertificateFactory certificateFactory = SecurityUtils.getX509CertificateFactory();
+		ImmutableMap.Builder<String, PublicKey> publicKeysById = ImmutableMap.builder();
+		for (Entry<String, Object> entry : certs.entrySet()) {
+			if (!(entry.getValue() instanceof String)) {
+				throw new GeneralSecurityException("Certificate is not a string: " + entry.getKey());
+			}
+			byte[] pem = ((String) entry.getValue()).getBytes(UTF_8);
+			Certificate certificate = certificateFactory.generateCertificate(new ByteArrayInputStream(pem));
+			publicKeysById.put(entry.getKey(), certificate.getPublicKey());
+		}
+
+		long expiresAt = fetchedAt + getCacheTimeSeconds(response.getHeaders()) * 1000;
+		return new KeySet(publicKeysById.build(), fetchedAt, expiresAt);
+	}
+
+	/**
+	 * Same as GooglePublicKeysManager does: Cache-Control max-age minus Age.
+	 */
+	static long getCacheTimeSeconds(HttpHeaders headers) {
+		long cacheTimeSeconds = 0;
+		if (headers.getCacheControl() != null) {
+			for (String directive : headers.getCacheControl().split(",")) {
+				Matcher matcher = MAX_AGE_PATTERN.matcher(directive);
+				if (matcher.matches()) {
+					cacheTimeSeconds = Long.parseLong(matcher.group(1));
+					break;
+				}
+			}
+		}
+		if (headers.getAge() != null) {
+			cacheTimeSeconds -= headers.getAge();
+		}
+		return Math.max(0, cacheTimeSeconds);
+	}
+
+	private void scheduleRefresh() {
+		if (!backgroundRefreshScheduled.compareAndSet(false, true)) {
+			return;
+		}
+
+		Runnable task = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					refresh();
+				} catch (GeneralSecurityException | IOException | RuntimeException e) {
+					// Will retry on next request, current keys are still valid.
+					logger.warn("Cannot refresh Google public keys", e);
+				} finally {
+					backgroundRefreshScheduled.set(false);
+				}
+			}
+		};
+
+		try {
+			executor.execute(task);
+		} catch (RuntimeException e) {
+			backgroundRefreshScheduled.set(false);
+			logger.warn("Cannot schedule refresh of Google public keys", e);
+		}
+	}
+
+	/**
+	 * @return Keys currently in memory, or null if never fetched.
+	 */
+	@Nullable
+	public KeySet getKeySet() {
+		return keySet;
+	}
+
+	public Duration getRefreshAhead() {
+		return refreshAhead;
+	}
+
+	/**
+	 * @return when given keys are due for background refresh: {@link #getRefreshAhead()} before they expire,
+	 * but not before half of their lifetime.
+	 */
+	public DateTime getRefreshAt(@Nonnull KeySet keySet) {
+		return new DateTime(getRefreshAtMillis(keySet), UTC);
+	}
+
+	/**
+	 * Immutable set of keys with their lifetime.
+	 */
+	public static class KeySet {
+		final ImmutableMap<String, PublicKey> publicKeysById;
+		final List<PublicKey> publicKeys;
+		final long fetchedAtMillis;
+		final long expiresAtMillis;
+
+		KeySet(ImmutableMap<String, PublicKey> publicKeysById, long fetchedAtMillis, long expiresAtMillis) {
+			this.publicKeysById = publicKeysById;
+			this.publicKeys = publicKeysById.values().asList();
+			this.fetchedAtMillis = fetchedAtMillis;
+			this.expiresAtMillis = expiresAtMillis;
+		}
+
+		public List<PublicKey> getPublicKeys() {
+			return publicKeys;
+		}
+
+		public Set<String> getKeyIds() {
+			return publicKeysById.keySet();
+		}
+
+		public DateTime getFetchedAt() {
+			return new DateTime(fetchedAtMillis, UTC);
+		}
+
+		public DateTime getExpiresAt() {
+			return new DateTime(expiresAtMillis, UTC);
+		}
+	}
+}
@@ -16,30 +16,53 @@
 
 package me.lazerka.gae.jersey.oauth2.google;
 
+import com.google.api.client.googleapis.auth.oauth2.GoogleIdToken.Payload;
 import me.lazerka.gae.jersey.oauth2.UserPrincipal;
+import org.joda.time.DateTime;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static org.joda.time.DateTimeZone.UTC;
 
 /**
  * @author Dzmitry Lazerka
  */
 public class GoogleUserPrincipal extends UserPrincipal {
 	private final String email;
+	private final DateTime expiresAt;
 
 	public GoogleUserPrincipal(@Nonnull String id, @Nullable String email) {
+		this(id, email, null);
+	}
+
+	public GoogleUserPrincipal(@Nonnull String id, @Nullable String email, @Nullable DateTime expiresAt) {
 		super(id);
 		this.email = checkNotNull(email);
 		checkArgument(email.contains("@"), "Email must contain @.");
+		this.expiresAt = expiresAt;
+	}
+
+	static GoogleUserPrincipal fromPayload(Payload payload) {
+		Long expirationTimeSeconds = payload.getExpirationTimeSeconds();
+		DateTime expiresAt = expirationTimeSeconds == null
+				? null
+				: new DateTime(expirationTimeSeconds * 1000, UTC);
+		return new GoogleUserPrincipal(payload.getSubject(), payload.getEmail(), expiresAt);
 	}
 
 	public String getEmail() {
 		return email;
 	}
 
+	@Nullable
+	@Override
+	public DateTime getExpiresAt() {
+		return expiresAt;
+	}
+
 	@Override
 	public String toString() {
 		return super.toString() + ' ' + '<' + email + '>';
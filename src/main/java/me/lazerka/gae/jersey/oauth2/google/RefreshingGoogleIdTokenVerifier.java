@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2.google;
+
+import com.google.api.client.auth.openidconnect.IdToken;
+import com.google.api.client.googleapis.auth.oauth2.GoogleIdToken;
+import com.google.api.client.googleapis.auth.oauth2.GoogleIdTokenVerifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Same as {@link GoogleIdTokenVerifier}, but takes public keys from {@link GooglePublicKeysRefresher}, so that
+ * verification doesn't block on their refresh.
+ *
+ * Also, instead of trying every Google's key until one fits, looks up the key by its ID from JWS header (`kid`),
+ * so that there's exactly one RSA verification per token.
+ *
+ * @author Dzmitry Lazerka
+ */
+public class RefreshingGoogleIdTokenVerifier extends GoogleIdTokenVerifier {
+	private static final Logger logger = LoggerFactory.getLogger(RefreshingGoogleIdTokenVerifier.class);
+
+	private final GooglePublicKeysRefresher refresher;
+
+	public RefreshingGoogleIdTokenVerifier(@Nonnull Builder builder, @Nonnull GooglePublicKeysRefresher refresher) {
+		super(builder);
+		this.refresher = checkNotNull(refresher);
+	}
+
+	@Override
+	public boolean verify(GoogleIdToken googleIdToken) throws GeneralSecurityException, IOException {
+		// Verify issuer, audience and time, as IdTokenVerifier does.
+		if (!super.verify((IdToken) googleIdToken)) {
+			return false;
+		}
+
+		String keyId = googleIdToken.getHeader().getKeyId();
+		if (keyId == null) {
+			// Google always sets it, but let's not be too strict.
+			logger.debug("No key ID in token header, trying all keys");
+			for (PublicKey publicKey : refresher.getPublicKeys()) {
+				if (googleIdToken.verifySignature(publicKey)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		PublicKey publicKey = refresher.getPublicKey(keyId);
+		if (publicKey == null) {
+			logger.debug("Unknown key ID {}", keyId);
+			return false;
+		}
+
+		return googleIdToken.verifySignature(publicKey);
+	}
+
+	public GooglePublicKeysRefresher getRefresher() {
+		return refresher;
+	}
+}
@@ -23,7 +23,15 @@ import com.google.appengine.api.urlfetch.HTTPRequest;
 import com.google.appengine.api.urlfetch.HTTPResponse;
 import com.google.appengine.api.urlfetch.URLFetchService;
 import com.google.common.base.Stopwatch;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import me.lazerka.gae.jersey.oauth2.AsyncTokenVerifier;
+import me.lazerka.gae.jersey.oauth2.UserPrincipal;
 import me.lazerka.gae.jersey.oauth2.facebook.BasicTokenVerifier;
+import me.lazerka.gae.jersey.oauth2.metrics.AuthMetrics;
+import me.lazerka.gae.jersey.oauth2.metrics.NoopAuthMetrics;
+import me.lazerka.gae.jersey.oauth2.metrics.RemoteCallFuture;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -35,10 +43,14 @@ import java.net.URL;
 import java.security.InvalidKeyException;
 import java.util.Collections;
 import java.util.Set;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 
 import static com.google.appengine.api.urlfetch.FetchOptions.Builder.validateCertificate;
 import static com.google.appengine.api.urlfetch.HTTPMethod.GET;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.util.concurrent.Futures.immediateFailedFuture;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 /**
@@ -51,38 +63,90 @@ import static java.nio.charset.StandardCharsets.UTF_8;
  * @author Dzmitry Lazerka
  */
 @Singleton
-public class TokenVerifierGoogleRemote extends BasicTokenVerifier {
+public class TokenVerifierGoogleRemote extends BasicTokenVerifier implements AsyncTokenVerifier {
 	private static final Logger logger = LoggerFactory.getLogger(TokenVerifierGoogleRemote.class);
 
 	public static final String AUTH_SCHEME = "GoogleSignIn/Remote";
 
 	private static final URI TOKEN_INFO = URI.create("https://www.googleapis.com/oauth2/v3/tokeninfo");
 
+	/** Endpoint name for {@link AuthMetrics#recordRemoteCall}. */
+	static final String TOKEN_INFO_ENDPOINT = "google/tokeninfo";
+
 	final URLFetchService urlFetchService;
 	final JsonFactory jsonFactory;
 	final String oauthClientId;
+	final AuthMetrics metrics;
 
 	public TokenVerifierGoogleRemote(URLFetchService urlFetchService, JsonFactory jsonFactory, String oauthClientId) {
+		this(urlFetchService, jsonFactory, oauthClientId, NoopAuthMetrics.INSTANCE);
+	}
+
+	/**
+	 * @param metrics records latency of calls to /tokeninfo.
+	 */
+	public TokenVerifierGoogleRemote(
+			URLFetchService urlFetchService,
+			JsonFactory jsonFactory,
+			String oauthClientId,
+			AuthMetrics metrics
+	) {
 		this.urlFetchService = urlFetchService;
 		this.jsonFactory = jsonFactory;
 		this.oauthClientId = oauthClientId;
+		this.metrics = checkNotNull(metrics);
 	}
 
 	@Override
 	public GoogleUserPrincipal verify(String authToken) throws IOException, InvalidKeyException {
 		logger.trace("Requesting endpoint to validate token");
 
-		URL url = UriBuilder.fromUri(TOKEN_INFO)
-				.queryParam("id_token", authToken)
-				.build()
-				.toURL();
-
-		HTTPRequest httpRequest = new HTTPRequest(url, GET, validateCertificate());
+		HTTPRequest httpRequest = new HTTPRequest(getTokenInfoUrl(authToken), GET, validateCertificate());
 
 		Stopwatch stopwatch = Stopwatch.createStarted();
-		HTTPResponse response = urlFetchService.fetch(httpRequest);
+		HTTPResponse response;
+		try {
+			response = urlFetchService.fetch(httpRequest);
+		} finally {
+			metrics.recordRemoteCall(TOKEN_INFO_ENDPOINT, stopwatch.elapsed(TimeUnit.NANOSECONDS));
+		}
 		logger.debug("Remote call took {}ms", stopwatch.elapsed(TimeUnit.MILLISECONDS));
 
+		return toPrincipal(response);
+	}
+
+	@Override
+	public ListenableFuture<UserPrincipal> verifyAsync(String authToken, Executor executor) {
+		logger.trace("Requesting endpoint to validate token asynchronously");
+
+		HTTPRequest httpRequest;
+		try {
+			httpRequest = new HTTPRequest(getTokenInfoUrl(authToken), GET, validateCertificate());
+		} catch (IOException e) {
+			return immediateFailedFuture(e);
+		}
+
+		// Timed by the URLFetch future itself, so latency doesn't include waiting for the executor.
+		long start = System.nanoTime();
+		ListenableFuture<HTTPResponse> response =
+				RemoteCallFuture.listen(urlFetchService.fetchAsync(httpRequest), metrics, TOKEN_INFO_ENDPOINT, start, executor);
+
+		return Futures.transformAsync(response, new AsyncFunction<HTTPResponse, UserPrincipal>() {
+			@Override
+			public ListenableFuture<UserPrincipal> apply(HTTPResponse response) throws IOException, InvalidKeyException {
+				return Futures.<UserPrincipal>immediateFuture(toPrincipal(response));
+			}
+		}, directExecutor());
+	}
+
+	private URL getTokenInfoUrl(String authToken) throws IOException {
+		return UriBuilder.fromUri(TOKEN_INFO)
+				.queryParam("id_token", authToken)
+				.build()
+				.toURL();
+	}
+
+	private GoogleUserPrincipal toPrincipal(HTTPResponse response) throws IOException, InvalidKeyException {
 		int responseCode = response.getResponseCode();
 		String content = new String(response.getContent(), UTF_8);
 
@@ -91,15 +155,18 @@ public class TokenVerifierGoogleRemote extends BasicTokenVerifier {
 
 			String msg = "Endpoint response code " + responseCode;
 
+			// Endpoint itself is failing, we don't know whether token is valid.
+			if (responseCode < 400 || responseCode >= 500) {
+				throw new IOException(msg);
+			}
+
 			// Something is wrong with our request.
 			// If signature is invalid, then response code is 403.
-			if (responseCode >= 400 && responseCode < 500) {
-				try {
-					TokenErrorResponse tokenErrorResponse = jsonFactory.fromString(content, TokenErrorResponse.class);
-					msg += ": " + tokenErrorResponse.getErrorDescription();
-				} catch (IOException e) {
-					logger.warn("Cannot parse response as " + TokenErrorResponse.class.getSimpleName());
-				}
+			try {
+				TokenErrorResponse tokenErrorResponse = jsonFactory.fromString(content, TokenErrorResponse.class);
+				msg += ": " + tokenErrorResponse.getErrorDescription();
+			} catch (IOException e) {
+				logger.warn("Cannot parse response as " + TokenErrorResponse.class.getSimpleName());
 			}
 
 			throw new InvalidKeyException(msg);
@@ -122,7 +189,7 @@ public class TokenVerifierGoogleRemote extends BasicTokenVerifier {
 			throw new InvalidKeyException("Email not verified");
 		}
 
-		return new GoogleUserPrincipal(payload.getSubject(), payload.getEmail());
+		return GoogleUserPrincipal.fromPayload(payload);
 	}
 
 	@Override
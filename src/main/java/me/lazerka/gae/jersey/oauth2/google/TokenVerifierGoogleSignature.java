@@ -19,6 +19,7 @@ package me.lazerka.gae.jersey.oauth2.google;
 import com.google.api.client.googleapis.auth.oauth2.GoogleIdToken;
 import com.google.api.client.googleapis.auth.oauth2.GoogleIdToken.Payload;
 import com.google.api.client.googleapis.auth.oauth2.GoogleIdTokenVerifier;
+import me.lazerka.gae.jersey.oauth2.ExpiredTokenException;
 import me.lazerka.gae.jersey.oauth2.facebook.BasicTokenVerifier;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
@@ -71,14 +72,14 @@ public class TokenVerifierGoogleSignature extends BasicTokenVerifier {
 			// Give meaningful message for the most common case.
 			DateTime now = nowProvider.get();
 			if (!idToken.verifyTime(now.getMillis(), verifier.getAcceptableTimeSkewSeconds())) {
-				throw new InvalidKeyException("Token expired for allegedly " + email);
+				throw new ExpiredTokenException("Token expired for allegedly " + email);
 			}
 
 			throw new InvalidKeyException("Invalid token for allegedly " + email);
 		}
 
 		Payload payload = idToken.getPayload();
-		return new GoogleUserPrincipal(payload.getSubject(), payload.getEmail());
+		return GoogleUserPrincipal.fromPayload(payload);
 	}
 
 	@Override
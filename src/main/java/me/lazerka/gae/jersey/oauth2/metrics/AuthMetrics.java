@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2.metrics;
+
+/**
+ * Receives measurements of authentication. Called on every request, so implementations must be cheap and
+ * thread-safe, and must never throw.
+ *
+ * @author Dzmitry Lazerka
+ * @see InMemoryAuthMetrics
+ * @see NoopAuthMetrics
+ */
+public interface AuthMetrics {
+	enum Outcome {
+		SUCCESS,
+		/** Token rejected, but not because of expiration. */
+		INVALID,
+		EXPIRED,
+		/** Couldn't verify token at all, e.g. remote endpoint unavailable. */
+		IO_ERROR,
+		/** Verifier failed unexpectedly (RuntimeException), e.g. unparseable response. */
+		ERROR,
+	}
+
+	/**
+	 * @param authenticationScheme of the verifier, see {@link me.lazerka.gae.jersey.oauth2.TokenVerifier}.
+	 */
+	void recordVerification(String authenticationScheme, Outcome outcome, long nanos);
+
+	/**
+	 * @param endpoint name of the remote endpoint, e.g. "google/tokeninfo".
+	 */
+	void recordRemoteCall(String endpoint, long nanos);
+
+	void recordCacheLookup(String authenticationScheme, boolean hit);
+
+	/**
+	 * @param status HTTP status the request was rejected with, i.e. 401 or 403.
+	 */
+	void recordRejection(int status);
+}
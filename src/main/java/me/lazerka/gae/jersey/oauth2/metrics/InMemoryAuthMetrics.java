@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2.metrics;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableSet;
+
+import javax.annotation.Nullable;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps all measurements in memory of this instance, using striped counters, so that concurrent requests don't
+ * contend on the same cache line. Read them with getters, e.g. to export to your monitoring system.
+ *
+ * @author Dzmitry Lazerka
+ */
+public class InMemoryAuthMetrics implements AuthMetrics {
+	private final ConcurrentMap<String, SchemeStats> schemes = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, LatencyHistogram> remoteCalls = new ConcurrentHashMap<>();
+	private final ConcurrentMap<Integer, LongAdder> rejections = new ConcurrentHashMap<>();
+
+	@Override
+	public void recordVerification(String authenticationScheme, Outcome outcome, long nanos) {
+		SchemeStats stats = getSchemeStats(authenticationScheme);
+		stats.outcomes[outcome.ordinal()].increment();
+		stats.latency.record(nanos);
+	}
+
+	@Override
+	public void recordRemoteCall(String endpoint, long nanos) {
+		LatencyHistogram histogram = remoteCalls.get(endpoint);
+		if (histogram == null) {
+			LatencyHistogram created = new LatencyHistogram();
+			histogram = remoteCalls.putIfAbsent(endpoint, created);
+			if (histogram == null) {
+				histogram = created;
+			}
+		}
+		histogram.record(nanos);
+	}
+
+	@Override
+	public void recordCacheLookup(String authenticationScheme, boolean hit) {
+		SchemeStats stats = getSchemeStats(authenticationScheme);
+		(hit ? stats.cacheHits : stats.cacheMisses).increment();
+	}
+
+	@Override
+	public void recordRejection(int status) {
+		LongAdder counter = rejections.get(status);
+		if (counter == null) {
+			LongAdder created = new LongAdder();
+			counter = rejections.putIfAbsent(status, created);
+			if (counter == null) {
+				counter = created;
+			}
+		}
+		counter.increment();
+	}
+
+	private SchemeStats getSchemeStats(String authenticationScheme) {
+		SchemeStats stats = schemes.get(authenticationScheme);
+		if (stats == null) {
+			SchemeStats created = new SchemeStats();
+			stats = schemes.putIfAbsent(authenticationScheme, created);
+			if (stats == null) {
+				stats = created;
+			}
+		}
+		return stats;
+	}
+
+	public Set<String> getAuthenticationSchemes() {
+		return ImmutableSet.copyOf(schemes.keySet());
+	}
+
+	@Nullable
+	public LatencyHistogram getVerificationLatency(String authenticationScheme) {
+		SchemeStats stats = schemes.get(authenticationScheme);
+		return stats == null ? null : stats.latency;
+	}
+
+	public long getVerificationCount(String authenticationScheme, Outcome outcome) {
+		SchemeStats stats = schemes.get(authenticationScheme);
+		return stats == null ? 0 : stats.outcomes[outcome.ordinal()].sum();
+	}
+
+	public long getCacheHits(String authenticationScheme) {
+		SchemeStats stats = schemes.get(authenticationScheme);
+		return stats == null ? 0 : stats.cacheHits.sum();
+	}
+
+	public long getCacheMisses(String authenticationScheme) {
+		SchemeStats stats = schemes.get(authenticationScheme);
+		return stats == null ? 0 : stats.cacheMisses.sum();
+	}
+
+	public Set<String> getRemoteEndpoints() {
+		return ImmutableSet.copyOf(remoteCalls.keySet());
+	}
+
+	@Nullable
+	public LatencyHistogram getRemoteCallLatency(String endpoint) {
+		return remoteCalls.get(endpoint);
+	}
+
+	public long getRejectionCount(int status) {
+		LongAdder counter = rejections.get(status);
+		return counter == null ? 0 : counter.sum();
+	}
+
+	@Override
+	public String toString() {
+		return MoreObjects.toStringHelper(this)
+				.add("schemes", schemes.keySet())
+				.add("remoteEndpoints", remoteCalls.keySet())
+				.add("401", getRejectionCount(401))
+				.add("403", getRejectionCount(403))
+				.toString();
+	}
+
+	private static class SchemeStats {
+		final LatencyHistogram latency = new LatencyHistogram();
+		final LongAdder[] outcomes = new LongAdder[Outcome.values().length];
+		final LongAdder cacheHits = new LongAdder();
+		final LongAdder cacheMisses = new LongAdder();
+
+		SchemeStats() {
+			for (int i = 0; i < outcomes.length; i++) {
+				outcomes[i] = new LongAdder();
+			}
+		}
+	}
+}
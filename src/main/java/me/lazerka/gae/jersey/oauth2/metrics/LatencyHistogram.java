@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2.metrics;
+
+import com.google.common.base.MoreObjects;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Lock-free histogram of latencies with power-of-two buckets of microseconds, so percentiles are accurate within 2x,
+ * which is enough to tell a cache hit from a signature check from a remote call.
+ *
+ * @author Dzmitry Lazerka
+ */
+public class LatencyHistogram {
+	/** Bucket `i` counts latencies in [2^(i-1), 2^i) microseconds, bucket 0 counts sub-microsecond ones. */
+	private static final int BUCKETS = 40;
+
+	private final LongAdder[] buckets = new LongAdder[BUCKETS];
+	private final LongAdder count = new LongAdder();
+	private final LongAdder totalNanos = new LongAdder();
+
+	public LatencyHistogram() {
+		for (int i = 0; i < BUCKETS; i++) {
+			buckets[i] = new LongAdder();
+		}
+	}
+
+	public void record(long nanos) {
+		long micros = Math.max(0, nanos / 1000);
+		int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+		buckets[bucket].increment();
+		count.increment();
+		totalNanos.add(nanos);
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	public long getMean(TimeUnit unit) {
+		long n = count.sum();
+		return n == 0 ? 0 : unit.convert(totalNanos.sum() / n, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @param percentile e.g. 99.9
+	 * @return upper bound of the bucket the percentile falls into, or 0 if nothing recorded.
+	 */
+	public long getPercentile(double percentile, TimeUnit unit) {
+		checkArgument(percentile > 0 && percentile <= 100, percentile);
+
+		long[] snapshot = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = buckets[i].sum();
+			total += snapshot[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+
+		long rank = (long) Math.ceil(percentile / 100 * total);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= rank) {
+				return unit.convert(1L << i, TimeUnit.MICROSECONDS);
+			}
+		}
+		return unit.convert(1L << (BUCKETS - 1), TimeUnit.MICROSECONDS);
+	}
+
+	@Override
+	public String toString() {
+		return MoreObjects.toStringHelper(this)
+				.add("count", getCount())
+				.add("meanUs", getMean(TimeUnit.MICROSECONDS))
+				.add("p50Us", getPercentile(50, TimeUnit.MICROSECONDS))
+				.add("p99Us", getPercentile(99, TimeUnit.MICROSECONDS))
+				.toString();
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2.metrics;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import me.lazerka.gae.jersey.oauth2.ExpiredTokenException;
+import me.lazerka.gae.jersey.oauth2.ForwardingTokenVerifier;
+import me.lazerka.gae.jersey.oauth2.TokenVerifier;
+import me.lazerka.gae.jersey.oauth2.UserPrincipal;
+import me.lazerka.gae.jersey.oauth2.metrics.AuthMetrics.Outcome;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.Executor;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+
+/**
+ * Records latency and outcome of every verification by delegate, under its authentication scheme.
+ *
+ * @author Dzmitry Lazerka
+ */
+public class MeteredTokenVerifier extends ForwardingTokenVerifier {
+	private final AuthMetrics metrics;
+
+	public MeteredTokenVerifier(TokenVerifier delegate, AuthMetrics metrics) {
+		super(delegate);
+		this.metrics = checkNotNull(metrics);
+	}
+
+	@Override
+	public UserPrincipal verify(String authToken) throws IOException, GeneralSecurityException {
+		long start = System.nanoTime();
+		try {
+			UserPrincipal result = getDelegate().verify(authToken);
+			record(Outcome.SUCCESS, start);
+			return result;
+		} catch (IOException | GeneralSecurityException | RuntimeException e) {
+			record(getOutcome(e), start);
+			throw e;
+		}
+	}
+
+	/**
+	 * Latency is until the result is known, e.g. for deferred verification, until someone waits for it.
+	 */
+	@Override
+	public ListenableFuture<UserPrincipal> verifyAsync(String authToken, Executor executor) {
+		final long start = System.nanoTime();
+		ListenableFuture<UserPrincipal> result = getAsyncDelegate().verifyAsync(authToken, executor);
+		Futures.addCallback(result, new FutureCallback<UserPrincipal>() {
+			@Override
+			public void onSuccess(UserPrincipal principal) {
+				record(Outcome.SUCCESS, start);
+			}
+
+			@Override
+			public void onFailure(@Nonnull Throwable t) {
+				record(getOutcome(t), start);
+			}
+		}, directExecutor());
+		return result;
+	}
+
+	private static Outcome getOutcome(Throwable e) {
+		if (e instanceof GeneralSecurityException) {
+			return isExpired((GeneralSecurityException) e) ? Outcome.EXPIRED : Outcome.INVALID;
+		} else if (e instanceof IOException) {
+			return Outcome.IO_ERROR;
+		}
+		return Outcome.ERROR;
+	}
+
+	/**
+	 * Decorators may wrap original exception, e.g. {@link me.lazerka.gae.jersey.oauth2.cache.NegativeCachingTokenVerifier}.
+	 */
+	private static boolean isExpired(GeneralSecurityException e) {
+		return e instanceof ExpiredTokenException || e.getCause() instanceof ExpiredTokenException;
+	}
+
+	private void record(Outcome outcome, long start) {
+		metrics.recordVerification(getAuthenticationScheme(), outcome, System.nanoTime() - start);
+	}
+}
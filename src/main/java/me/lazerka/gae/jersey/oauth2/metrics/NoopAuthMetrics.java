@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2.metrics;
+
+/**
+ * Default, records nothing.
+ *
+ * @author Dzmitry Lazerka
+ */
+public class NoopAuthMetrics implements AuthMetrics {
+	public static final NoopAuthMetrics INSTANCE = new NoopAuthMetrics();
+
+	@Override
+	public void recordVerification(String authenticationScheme, Outcome outcome, long nanos) {}
+
+	@Override
+	public void recordRemoteCall(String endpoint, long nanos) {}
+
+	@Override
+	public void recordCacheLookup(String authenticationScheme, boolean hit) {}
+
+	@Override
+	public void recordRejection(int status) {}
+}
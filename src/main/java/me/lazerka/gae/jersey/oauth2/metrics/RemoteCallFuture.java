@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2.metrics;
+
+import com.google.common.util.concurrent.ForwardingFuture.SimpleForwardingFuture;
+import com.google.common.util.concurrent.JdkFutureAdapters;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+
+/**
+ * Future of an asynchronous remote call, that records its latency with {@link AuthMetrics#recordRemoteCall} as soon
+ * as the call is seen finished, by whoever looks first ({@link #isDone} or {@link #get}).
+ *
+ * So latency doesn't include parsing the response or running continuations, nor time the response waited for an
+ * executor to pick it up, e.g. in {@link JdkFutureAdapters#listenInPoolThread}.
+ * Cancelled calls are not recorded.
+ *
+ * @author Dzmitry Lazerka
+ */
+public class RemoteCallFuture<V> extends SimpleForwardingFuture<V> {
+	private static final Logger logger = LoggerFactory.getLogger(RemoteCallFuture.class);
+
+	private final AuthMetrics metrics;
+	private final String endpoint;
+	private final long startNanos;
+	private final AtomicBoolean recorded = new AtomicBoolean();
+
+	/**
+	 * Adapts the call to ListenableFuture, timing it by its own completion.
+	 *
+	 * If the call is already listenable, it's timed by a direct listener. Otherwise (e.g. URLFetch) it's wrapped
+	 * into RemoteCallFuture, and waited for in {@code executor}.
+	 *
+	 * @param startNanos {@link System#nanoTime()} before the call was sent.
+	 */
+	public static <V> ListenableFuture<V> listen(
+			Future<V> call,
+			AuthMetrics metrics,
+			String endpoint,
+			long startNanos,
+			Executor executor
+	) {
+		final RemoteCallFuture<V> timed = new RemoteCallFuture<>(call, metrics, endpoint, startNanos);
+		if (call instanceof ListenableFuture) {
+			ListenableFuture<V> result = (ListenableFuture<V>) call;
+			result.addListener(new Runnable() {
+				@Override
+				public void run() {
+					timed.isDone();
+				}
+			}, directExecutor());
+			return result;
+		}
+		return JdkFutureAdapters.listenInPoolThread(timed, executor);
+	}
+
+	/**
+	 * @param startNanos {@link System#nanoTime()} before the call was sent.
+	 */
+	public RemoteCallFuture(@Nonnull Future<V> call, @Nonnull AuthMetrics metrics, @Nonnull String endpoint, long startNanos) {
+		super(call);
+		this.metrics = checkNotNull(metrics);
+		this.endpoint = checkNotNull(endpoint);
+		this.startNanos = startNanos;
+	}
+
+	@Override
+	public boolean isDone() {
+		boolean result = super.isDone();
+		if (result) {
+			record();
+		}
+		return result;
+	}
+
+	@Override
+	public V get() throws InterruptedException, ExecutionException {
+		try {
+			return super.get();
+		} finally {
+			if (super.isDone()) {
+				record();
+			}
+		}
+	}
+
+	@Override
+	public V get(long timeout, @Nonnull TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		try {
+			return super.get(timeout, unit);
+		} finally {
+			if (super.isDone()) {
+				record();
+			}
+		}
+	}
+
+	private void record() {
+		if (isCancelled() || !recorded.compareAndSet(false, true)) {
+			return;
+		}
+		long nanos = System.nanoTime() - startNanos;
+		metrics.recordRemoteCall(endpoint, nanos);
+		logger.debug("Remote call took {}ms", TimeUnit.NANOSECONDS.toMillis(nanos));
+	}
+}
@@ -0,0 +1,25 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Counters and latency histograms of authentication: verifications, remote calls, cache lookups and rejections.
+ *
+ * Nothing is recorded unless an {@link me.lazerka.gae.jersey.oauth2.metrics.AuthMetrics} implementation is given,
+ * see {@link me.lazerka.gae.jersey.oauth2.OauthModule#recordMetrics}.
+ *
+ * @author Dzmitry Lazerka
+ */
+package me.lazerka.gae.jersey.oauth2.metrics;
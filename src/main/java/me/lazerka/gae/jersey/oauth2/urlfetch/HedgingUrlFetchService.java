@@ -0,0 +1,420 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2.urlfetch;
+
+import com.google.appengine.api.urlfetch.FetchOptions;
+import com.google.appengine.api.urlfetch.HTTPHeader;
+import com.google.appengine.api.urlfetch.HTTPMethod;
+import com.google.appengine.api.urlfetch.HTTPRequest;
+import com.google.appengine.api.urlfetch.HTTPResponse;
+import com.google.appengine.api.urlfetch.URLFetchService;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableSet;
+import me.lazerka.gae.jersey.oauth2.diagnostics.Diagnosable;
+import org.joda.time.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Sends a second identical GET request if the first one hasn't answered within the usual latency of that endpoint
+ * (a percentile of recently observed latencies), and takes whichever successful response comes first. Server errors
+ * (5xx) don't count as successful, so a fast one doesn't win over the other request.
+ *
+ * Deadline of the request is the caller's budget: the hedge gets only what's left of it, and nothing is awaited
+ * beyond it.
+ *
+ * Only endpoints whose path ends with one of {@code hedgedPaths} are hedged, because a duplicate request must be
+ * harmless. E.g. Facebook's /oauth/access_token exchanges a code that can be used only once, so one of the two
+ * requests would fail. Latencies are recorded only for responses without server errors, so that fast failures don't
+ * lower the threshold.
+ *
+ * Number of hedges in flight is capped, so that when the endpoint is slow for everyone, hedging doesn't double the
+ * load. Only blocking {@link #fetch} is hedged, {@link #fetchAsync} is passed through.
+ *
+ * @author Dzmitry Lazerka
+ */
+public class HedgingUrlFetchService implements URLFetchService, Diagnosable {
+	private static final Logger logger = LoggerFactory.getLogger(HedgingUrlFetchService.class);
+
+	public static final double DEFAULT_PERCENTILE = 95;
+	public static final Duration DEFAULT_INITIAL_DELAY = Duration.millis(500);
+	public static final int DEFAULT_MAX_HEDGES_IN_FLIGHT = 10;
+
+	/** Read-only endpoints of remote verifiers: Facebook /debug_token and /me, Google /tokeninfo. */
+	public static final Set<String> DEFAULT_HEDGED_PATHS = ImmutableSet.of("/debug_token", "/me", "/tokeninfo");
+
+	/** Until there are that many recent latencies of an endpoint, {@link #initialDelay} is used. */
+	static final int MIN_SAMPLES = 20;
+
+	/** Latencies older than one to two windows are forgotten. */
+	static final Duration LATENCY_WINDOW = Duration.standardMinutes(5);
+
+	/** How often to check the other request while waiting for one of them, within the deadline. */
+	private static final long POLL_NANOS = MILLISECONDS.toNanos(2);
+
+	private final URLFetchService delegate;
+	private final double percentile;
+	private final Duration initialDelay;
+	private final Semaphore hedgesInFlight;
+	private final int maxHedgesInFlight;
+	private final Set<String> hedgedPaths;
+	private final Ticker ticker;
+
+	/** Endpoint (host and path) -> latencies of its recent successful responses. */
+	private final ConcurrentMap<String, RecentLatencies> latencies = new ConcurrentHashMap<>();
+
+	private final AtomicLong hedgesSent = new AtomicLong();
+	private final AtomicLong hedgesWon = new AtomicLong();
+	private final AtomicLong hedgesOverBudget = new AtomicLong();
+
+	public HedgingUrlFetchService(@Nonnull URLFetchService delegate) {
+		this(delegate, DEFAULT_PERCENTILE, DEFAULT_INITIAL_DELAY, DEFAULT_MAX_HEDGES_IN_FLIGHT);
+	}
+
+	public HedgingUrlFetchService(
+			@Nonnull URLFetchService delegate,
+			double percentile,
+			@Nonnull Duration initialDelay,
+			int maxHedgesInFlight
+	) {
+		this(delegate, percentile, initialDelay, maxHedgesInFlight, DEFAULT_HEDGED_PATHS, Ticker.systemTicker());
+	}
+
+	/**
+	 * @param percentile of endpoint latencies to wait before hedging.
+	 * @param initialDelay to wait before hedging, until enough latencies observed.
+	 * @param maxHedgesInFlight budget of concurrent hedges for this instance. Over it, requests just wait.
+	 * @param hedgedPaths suffixes of URL paths that are safe to request twice, others are passed through.
+	 */
+	public HedgingUrlFetchService(
+			@Nonnull URLFetchService delegate,
+			double percentile,
+			@Nonnull Duration initialDelay,
+			int maxHedgesInFlight,
+			@Nonnull Set<String> hedgedPaths
+	) {
+		this(delegate, percentile, initialDelay, maxHedgesInFlight, hedgedPaths, Ticker.systemTicker());
+	}
+
+	HedgingUrlFetchService(
+			URLFetchService delegate,
+			double percentile,
+			Duration initialDelay,
+			int maxHedgesInFlight,
+			Set<String> hedgedPaths,
+			Ticker ticker
+	) {
+		checkArgument(percentile > 0 && percentile < 100, percentile);
+		checkArgument(maxHedgesInFlight >= 0, maxHedgesInFlight);
+		this.delegate = checkNotNull(delegate);
+		this.percentile = percentile;
+		this.initialDelay = checkNotNull(initialDelay);
+		this.maxHedgesInFlight = maxHedgesInFlight;
+		this.hedgesInFlight = new Semaphore(maxHedgesInFlight);
+		this.hedgedPaths = ImmutableSet.copyOf(hedgedPaths);
+		this.ticker = checkNotNull(ticker);
+	}
+
+	@Override
+	public HTTPResponse fetch(URL url) throws IOException {
+		return fetch(new HTTPRequest(url));
+	}
+
+	@Override
+	public HTTPResponse fetch(HTTPRequest request) throws IOException {
+		// Hedging is only safe for idempotent requests.
+		if (request.getMethod() != HTTPMethod.GET || !isHedged(request.getURL())) {
+			return delegate.fetch(request);
+		}
+
+		String endpoint = request.getURL().getHost() + request.getURL().getPath();
+		RecentLatencies recent = getLatencies(endpoint);
+
+		long start = System.nanoTime();
+		long budgetNanos = getBudgetNanos(request);
+		Future<HTTPResponse> first = delegate.fetchAsync(request);
+		HTTPResponse response = get(first, Math.min(getDelayNanos(recent), budgetNanos));
+		if (response == null) {
+			long remainingNanos = getRemainingNanos(start, budgetNanos);
+			if (remainingNanos <= 0) {
+				// The first request times out by itself.
+				response = get(first);
+			} else if (hedgesInFlight.tryAcquire()) {
+				try {
+					logger.debug("No response from {} in {}ms, hedging", endpoint, NANOSECONDS.toMillis(System.nanoTime() - start));
+					hedgesSent.incrementAndGet();
+					Future<HTTPResponse> second = delegate.fetchAsync(withDeadline(request, remainingNanos));
+					response = getFirstOf(first, second, start, budgetNanos);
+				} finally {
+					hedgesInFlight.release();
+				}
+			} else {
+				hedgesOverBudget.incrementAndGet();
+				logger.debug("Hedging budget exhausted, waiting for {}", endpoint);
+				response = get(first);
+			}
+		}
+
+		// Failures are often fast, and would make hedging too eager.
+		if (response.getResponseCode() < 500) {
+			recent.record(System.nanoTime() - start);
+		}
+		return response;
+	}
+
+	private boolean isHedged(URL url) {
+		String path = url.getPath();
+		for (String hedgedPath : hedgedPaths) {
+			if (path.endsWith(hedgedPath)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return deadline of the request, or {@link Long#MAX_VALUE} if it has none.
+	 */
+	private static long getBudgetNanos(HTTPRequest request) {
+		Double deadline = request.getFetchOptions().getDeadline();
+		if (deadline == null) {
+			return Long.MAX_VALUE;
+		}
+		return (long) (deadline * SECONDS.toNanos(1));
+	}
+
+	private static long getRemainingNanos(long startNanos, long budgetNanos) {
+		if (budgetNanos == Long.MAX_VALUE) {
+			return Long.MAX_VALUE;
+		}
+		return budgetNanos - (System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * @return copy of the request, that has given deadline.
+	 */
+	private static HTTPRequest withDeadline(HTTPRequest request, long remainingNanos) {
+		if (remainingNanos == Long.MAX_VALUE) {
+			return request;
+		}
+
+		FetchOptions original = request.getFetchOptions();
+		FetchOptions options = FetchOptions.Builder.withDeadline(remainingNanos / (double) SECONDS.toNanos(1));
+		options = original.getAllowTruncate() ? options.allowTruncate() : options.disallowTruncate();
+		options = original.getFollowRedirects() ? options.followRedirects() : options.doNotFollowRedirects();
+		if (original.getValidateCertificate()) {
+			options = options.validateCertificate();
+		}
+
+		HTTPRequest result = new HTTPRequest(request.getURL(), request.getMethod(), options);
+		for (HTTPHeader header : request.getHeaders()) {
+			result.addHeader(header);
+		}
+		return result;
+	}
+
+	/**
+	 * @return first successful response, or outcome of the first request if both failed.
+	 * @throws SocketTimeoutException if neither is done within the budget.
+	 */
+	private HTTPResponse getFirstOf(
+			Future<HTTPResponse> first,
+			Future<HTTPResponse> second,
+			long startNanos,
+			long budgetNanos
+	) throws IOException {
+		try {
+			while (true) {
+				if (first.isDone() && !isFailed(first)) {
+					return get(first);
+				}
+				if (second.isDone() && !isFailed(second)) {
+					return won(get(second));
+				}
+				if (first.isDone() && second.isDone()) {
+					return get(first);
+				}
+
+				long remainingNanos = getRemainingNanos(startNanos, budgetNanos);
+				if (remainingNanos <= 0) {
+					throw new SocketTimeoutException("No response within request deadline");
+				}
+
+				// Wait for whichever is still running, but don't throw its failure, the other may still succeed.
+				awaitDone(first.isDone() ? second : first, Math.min(POLL_NANOS, remainingNanos));
+			}
+		} finally {
+			first.cancel(true);
+			second.cancel(true);
+		}
+	}
+
+	private static void awaitDone(Future<HTTPResponse> future, long timeoutNanos) throws IOException {
+		try {
+			future.get(timeoutNanos, NANOSECONDS);
+		} catch (TimeoutException | ExecutionException e) {
+			// Caller checks the outcome.
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted", e);
+		}
+	}
+
+	private HTTPResponse won(HTTPResponse response) {
+		hedgesWon.incrementAndGet();
+		return response;
+	}
+
+	/**
+	 * @return whether request is done, but with exception or server error.
+	 */
+	private static boolean isFailed(Future<HTTPResponse> future) {
+		if (!future.isDone()) {
+			return false;
+		}
+		try {
+			return future.get().getResponseCode() >= 500;
+		} catch (ExecutionException | InterruptedException | RuntimeException e) {
+			return true;
+		}
+	}
+
+	/**
+	 * @return null if timed out.
+	 */
+	private static HTTPResponse get(Future<HTTPResponse> future, long timeoutNanos) throws IOException {
+		try {
+			return future.get(timeoutNanos, NANOSECONDS);
+		} catch (TimeoutException e) {
+			return null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted", e);
+		} catch (ExecutionException e) {
+			throw toIOException(e);
+		}
+	}
+
+	private static HTTPResponse get(Future<HTTPResponse> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted", e);
+		} catch (ExecutionException e) {
+			throw toIOException(e);
+		}
+	}
+
+	private static IOException toIOException(ExecutionException e) {
+		Throwable cause = e.getCause();
+		if (cause instanceof IOException) {
+			return (IOException) cause;
+		} else if (cause instanceof RuntimeException) {
+			throw (RuntimeException) cause;
+		}
+		return new IOException(cause);
+	}
+
+	private RecentLatencies getLatencies(String endpoint) {
+		RecentLatencies result = latencies.get(endpoint);
+		if (result == null) {
+			RecentLatencies created = new RecentLatencies(MILLISECONDS.toNanos(LATENCY_WINDOW.getMillis()), ticker);
+			result = latencies.putIfAbsent(endpoint, created);
+			if (result == null) {
+				result = created;
+			}
+		}
+		return result;
+	}
+
+	long getDelayNanos(RecentLatencies recent) {
+		if (recent.getCount() < MIN_SAMPLES) {
+			return MILLISECONDS.toNanos(initialDelay.getMillis());
+		}
+		return recent.getPercentileNanos(percentile);
+	}
+
+	@Override
+	public Future<HTTPResponse> fetchAsync(URL url) {
+		return delegate.fetchAsync(url);
+	}
+
+	@Override
+	public Future<HTTPResponse> fetchAsync(HTTPRequest request) {
+		return delegate.fetchAsync(request);
+	}
+
+	public long getHedgesSent() {
+		return hedgesSent.get();
+	}
+
+	public long getHedgesWon() {
+		return hedgesWon.get();
+	}
+
+	public long getHedgesOverBudget() {
+		return hedgesOverBudget.get();
+	}
+
+	@Override
+	public Map<String, Object> getDiagnostics() {
+		Map<String, Object> result = new LinkedHashMap<>();
+		result.put("hedgesSent", getHedgesSent());
+		result.put("hedgesWon", getHedgesWon());
+		result.put("hedgesOverBudget", getHedgesOverBudget());
+		result.put("hedgesInFlight", maxHedgesInFlight - hedgesInFlight.availablePermits());
+
+		Map<String, Object> delays = new LinkedHashMap<>();
+		for (Map.Entry<String, RecentLatencies> entry : latencies.entrySet()) {
+			delays.put(entry.getKey(), NANOSECONDS.toMillis(getDelayNanos(entry.getValue())));
+		}
+		result.put("hedgeDelayMillis", delays);
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return MoreObjects.toStringHelper(this)
+				.add("percentile", percentile)
+				.add("maxHedgesInFlight", maxHedgesInFlight)
+				.add("hedgesSent", getHedgesSent())
+				.toString();
+	}
+}
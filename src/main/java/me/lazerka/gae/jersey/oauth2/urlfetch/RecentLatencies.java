@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2.urlfetch;
+
+import com.google.common.base.Ticker;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Latencies of the current and the previous time windows only, so that percentiles follow the endpoint when it gets
+ * faster or slower, instead of averaging over the whole life of the instance.
+ *
+ * Buckets are powers of two of microseconds, like in {@link me.lazerka.gae.jersey.oauth2.metrics.LatencyHistogram},
+ * but percentiles are interpolated within a bucket, so they are not rounded up to 2x.
+ *
+ * @author Dzmitry Lazerka
+ */
+class RecentLatencies {
+	/** Bucket `i` counts latencies in [2^(i-1), 2^i) microseconds, bucket 0 counts sub-microsecond ones. */
+	private static final int BUCKETS = 40;
+
+	private final long windowNanos;
+	private final Ticker ticker;
+
+	private volatile Window current;
+	private volatile Window previous;
+
+	RecentLatencies(long windowNanos, Ticker ticker) {
+		checkArgument(windowNanos > 0, windowNanos);
+		this.windowNanos = windowNanos;
+		this.ticker = checkNotNull(ticker);
+		this.current = new Window(ticker.read());
+		this.previous = new Window(current.startNanos - windowNanos);
+	}
+
+	void record(long nanos) {
+		long micros = Math.max(0, nanos / 1000);
+		int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+		getCurrent().buckets.incrementAndGet(bucket);
+	}
+
+	long getCount() {
+		long result = 0;
+		Window current = getCurrent();
+		Window previous = this.previous;
+		for (int i = 0; i < BUCKETS; i++) {
+			result += current.buckets.get(i) + previous.buckets.get(i);
+		}
+		return result;
+	}
+
+	/**
+	 * @param percentile e.g. 95
+	 * @return latency in nanoseconds, interpolated linearly within its bucket, or 0 if nothing recorded.
+	 */
+	long getPercentileNanos(double percentile) {
+		checkArgument(percentile > 0 && percentile <= 100, percentile);
+
+		Window current = getCurrent();
+		Window previous = this.previous;
+		long[] counts = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = current.buckets.get(i) + previous.buckets.get(i);
+			total += counts[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+
+		double rank = percentile / 100 * total;
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			if (counts[i] > 0 && seen + counts[i] >= rank) {
+				long lowerMicros = i == 0 ? 0 : 1L << (i - 1);
+				long upperMicros = 1L << i;
+				double fraction = (rank - seen) / counts[i];
+				return (long) ((lowerMicros + fraction * (upperMicros - lowerMicros)) * 1000);
+			}
+			seen += counts[i];
+		}
+		return (1L << (BUCKETS - 1)) * 1000;
+	}
+
+	private Window getCurrent() {
+		Window result = current;
+		long now = ticker.read();
+		if (now - result.startNanos < windowNanos) {
+			return result;
+		}
+
+		synchronized (this) {
+			result = current;
+			if (now - result.startNanos >= windowNanos) {
+				// If nothing was recorded for a whole window, previous is stale too.
+				previous = now - result.startNanos < 2 * windowNanos ? result : new Window(now - windowNanos);
+				result = new Window(now);
+				current = result;
+			}
+			return result;
+		}
+	}
+
+	private static class Window {
+		final long startNanos;
+		final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+		Window(long startNanos) {
+			this.startNanos = startNanos;
+		}
+	}
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2;
+
+import me.lazerka.gae.jersey.oauth2.google.GoogleUserPrincipal;
+import org.testng.annotations.Test;
+
+import java.security.InvalidKeyException;
+
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.fail;
+
+/**
+ * @author Dzmitry Lazerka
+ */
+public class AsyncTokenVerifiersTest {
+	@Test
+	public void adaptAsync() {
+		AsyncTokenVerifier async = mock(AsyncTokenVerifier.class);
+		assertThat(AsyncTokenVerifiers.adapt(async), sameInstance(async));
+	}
+
+	@Test
+	public void adaptSync() throws Exception {
+		TokenVerifier sync = mock(TokenVerifier.class);
+		UserPrincipal principal = new GoogleUserPrincipal("123", "test@example.com");
+		when(sync.verify("ok")).thenReturn(principal);
+		when(sync.verify("bad")).thenThrow(new InvalidKeyException("bad"));
+		when(sync.getAuthenticationScheme()).thenReturn("TestScheme");
+
+		AsyncTokenVerifier unit = AsyncTokenVerifiers.adapt(sync);
+
+		assertThat(unit.getAuthenticationScheme(), is("TestScheme"));
+		assertThat(AsyncTokenVerifiers.await(unit.verifyAsync("ok", directExecutor())), is(principal));
+		try {
+			AsyncTokenVerifiers.await(unit.verifyAsync("bad", directExecutor()));
+			fail();
+		} catch (InvalidKeyException e) {
+			assertThat(e.getMessage(), is("bad"));
+		}
+	}
+}
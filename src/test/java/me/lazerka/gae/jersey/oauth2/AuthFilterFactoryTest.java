@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2;
+
+import com.google.common.collect.ImmutableSet;
+import com.sun.jersey.api.model.AbstractMethod;
+import com.sun.jersey.api.model.AbstractResource;
+import com.sun.jersey.api.model.AbstractResourceMethod;
+import com.sun.jersey.api.model.PathValue;
+import com.sun.jersey.spi.container.ResourceFilter;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.annotation.security.PermitAll;
+import javax.annotation.security.RolesAllowed;
+import javax.inject.Provider;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.PUT;
+import javax.ws.rs.Path;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Set;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasEntry;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+/**
+ * @author Dzmitry Lazerka
+ */
+public class AuthFilterFactoryTest {
+	int created;
+	AuthFilterFactory unit;
+
+	@BeforeMethod
+	public void setUp() {
+		created = 0;
+		unit = new AuthFilterFactory(new Provider<AuthFilter>() {
+			@Override
+			public AuthFilter get() {
+				created++;
+				return new GaeOauthAuthFilter();
+			}
+		});
+	}
+
+	@Test
+	public void sharesFilterPerRoles() throws Exception {
+		ResourceFilter get1 = create(FirstResource.class, "get");
+		ResourceFilter get2 = create(SecondResource.class, "get");
+		ResourceFilter post = create(FirstResource.class, "post");
+
+		assertThat(get1, sameInstance(get2));
+		assertThat(post, not(sameInstance(get1)));
+		assertThat(created, is(2));
+		assertThat(unit.getFilters().size(), is(2));
+
+		Set<String> userRoles = ImmutableSet.of(Role.USER);
+		assertThat(unit.getFilters().get(userRoles), sameInstance((AuthFilter) get1));
+		assertThat(((GaeOauthAuthFilter) get1).rolesAllowed, is(userRoles));
+	}
+
+	@Test
+	public void registersMethods() throws Exception {
+		create(FirstResource.class, "get");
+		create(FirstResource.class, "post");
+		create(SecondResource.class, "put");
+
+		Set<String> adminRoles = ImmutableSet.of(Role.ADMIN);
+		assertThat(unit.getMethodRoles(), hasEntry(FirstResource.class.getMethod("post"), adminRoles));
+		assertThat(unit.getMethodRoles().containsKey(SecondResource.class.getMethod("put")), is(false));
+		assertThat(unit.getMethodRoles().size(), is(2));
+	}
+
+	@Test
+	public void permitAllHasNoFilter() throws Exception {
+		assertThat(create(SecondResource.class, "put"), nullValue());
+		assertThat(created, is(0));
+	}
+
+	private ResourceFilter create(Class<?> resourceClass, String methodName) throws Exception {
+		Method method = resourceClass.getMethod(methodName);
+		AbstractResource resource = new AbstractResource(resourceClass, new PathValue("/"));
+		AbstractMethod abstractMethod = new AbstractResourceMethod(
+				resource,
+				method,
+				method.getReturnType(),
+				method.getGenericReturnType(),
+				"GET",
+				method.getAnnotations());
+
+		List<ResourceFilter> filters = unit.create(abstractMethod);
+		return filters == null ? null : filters.get(0);
+	}
+
+	@Path("/first")
+	@RolesAllowed(Role.USER)
+	public static class FirstResource {
+		@GET
+		public void get() {}
+
+		@POST
+		@RolesAllowed(Role.ADMIN)
+		public void post() {}
+	}
+
+	@Path("/second")
+	public static class SecondResource {
+		@GET
+		@RolesAllowed(Role.USER)
+		public void get() {}
+
+		@PUT
+		@PermitAll
+		public void put() {}
+	}
+}
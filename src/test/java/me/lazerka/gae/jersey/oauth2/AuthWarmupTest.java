@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.appengine.api.urlfetch.HTTPRequest;
+import com.google.appengine.api.urlfetch.HTTPResponse;
+import com.google.appengine.api.urlfetch.URLFetchService;
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Resources;
+import me.lazerka.gae.jersey.oauth2.facebook.TokenVerifierFacebookDebugToken;
+import me.lazerka.gae.jersey.oauth2.facebook.TokenVerifierFacebookSignedRequest;
+import me.lazerka.gae.jersey.oauth2.metrics.AuthMetrics.Outcome;
+import me.lazerka.gae.jersey.oauth2.metrics.InMemoryAuthMetrics;
+import me.lazerka.gae.jersey.oauth2.metrics.MeteredTokenVerifier;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.inject.Provider;
+import java.io.IOException;
+import java.security.InvalidKeyException;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.fail;
+
+/**
+ * @author Dzmitry Lazerka
+ */
+public class AuthWarmupTest {
+	static final String SCHEME = "TestScheme";
+
+	@Mock
+	TokenVerifier delegate;
+
+	InMemoryAuthMetrics metrics;
+	LazyTokenVerifier lazy;
+	AuthWarmup unit;
+
+	@BeforeMethod
+	public void setUp() throws Exception {
+		MockitoAnnotations.initMocks(this);
+		when(delegate.getAuthenticationScheme()).thenReturn(SCHEME);
+		when(delegate.verify(anyString())).thenThrow(new InvalidKeyException("test"));
+
+		metrics = new InMemoryAuthMetrics();
+		lazy = new LazyTokenVerifier(SCHEME, new Supplier<TokenVerifier>() {
+			@Override
+			public TokenVerifier get() {
+				return delegate;
+			}
+		});
+
+		unit = new AuthWarmup();
+		unit.tokenVerifiers = ImmutableSet.<TokenVerifier>of(new MeteredTokenVerifier(lazy, metrics));
+	}
+
+	@Test
+	public void warmUp() throws Exception {
+		Map<String, Duration> result = unit.warmUp();
+
+		assertThat(result.keySet(), contains(SCHEME));
+		assertThat(lazy.isInitialized(), is(true));
+		verify(delegate).verify(anyString());
+
+		// Bypasses decorators.
+		assertThat(metrics.getVerificationCount(SCHEME, Outcome.INVALID), is(0L));
+	}
+
+	@Test
+	public void warmUpNeverThrows() throws Exception {
+		doThrow(new IOException("test")).when(delegate).verify(anyString());
+
+		Map<String, Duration> result = unit.warmUp();
+
+		assertThat(result.keySet(), contains(SCHEME));
+	}
+
+	@Test
+	public void syntheticTokenRejectedByDebugToken() throws Exception {
+		URLFetchService urlFetchService = mock(URLFetchService.class);
+		HTTPResponse response = mock(HTTPResponse.class);
+		when(response.getResponseCode()).thenReturn(403);
+		when(response.getContent()).thenReturn(Resources.toByteArray(
+				TokenVerifierFacebookDebugToken.class.getResource("debug_token.response.invalid.json")));
+		doReturn(response).when(urlFetchService).fetch(any(HTTPRequest.class));
+
+		TokenVerifierFacebookDebugToken verifier = new TokenVerifierFacebookDebugToken(
+				urlFetchService,
+				new ObjectMapper(),
+				"138483919580948",
+				"secret",
+				new Provider<DateTime>() {
+					@Override
+					public DateTime get() {
+						return DateTime.now();
+					}
+				});
+
+		try {
+			verifier.verify(unit.syntheticToken(verifier));
+			fail();
+		} catch (InvalidKeyException e) {
+			verify(urlFetchService).fetch(any(HTTPRequest.class));
+		}
+	}
+
+	@Test
+	public void syntheticTokenRejectedBySignedRequest() throws Exception {
+		final DateTime now = DateTime.now();
+		TokenVerifierFacebookSignedRequest verifier = new TokenVerifierFacebookSignedRequest(
+				new ObjectMapper(),
+				"secret",
+				Duration.standardDays(1),
+				new Provider<DateTime>() {
+					@Override
+					public DateTime get() {
+						return now;
+					}
+				});
+
+		try {
+			verifier.verify(unit.syntheticToken(verifier));
+			fail();
+		} catch (InvalidKeyException e) {
+			assertThat(e.getMessage(), is("Signature invalid"));
+		}
+	}
+}
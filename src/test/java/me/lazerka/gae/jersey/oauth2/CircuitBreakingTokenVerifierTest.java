@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2;
+
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.appengine.api.urlfetch.HTTPRequest;
+import com.google.appengine.api.urlfetch.HTTPResponse;
+import com.google.appengine.api.urlfetch.URLFetchService;
+import me.lazerka.gae.jersey.oauth2.CircuitBreakingTokenVerifier.State;
+import me.lazerka.gae.jersey.oauth2.google.GoogleUserPrincipal;
+import me.lazerka.gae.jersey.oauth2.google.TokenVerifierGoogleRemote;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.inject.Provider;
+import java.io.IOException;
+import java.security.InvalidKeyException;
+import java.util.concurrent.CountDownLatch;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.fail;
+
+/**
+ * @author Dzmitry Lazerka
+ */
+public class CircuitBreakingTokenVerifierTest {
+	static final int WINDOW_SIZE = 4;
+
+	@Mock
+	TokenVerifier remote;
+	@Mock
+	TokenVerifier fallback;
+
+	UserPrincipal remotePrincipal = new GoogleUserPrincipal("remote", "remote@example.com");
+	UserPrincipal fallbackPrincipal = new GoogleUserPrincipal("fallback", "fallback@example.com");
+
+	DateTime now;
+	CircuitBreakingTokenVerifier unit;
+
+	@BeforeMethod
+	public void setUp() throws Exception {
+		MockitoAnnotations.initMocks(this);
+		when(remote.getAuthenticationScheme()).thenReturn("Remote");
+		when(fallback.getAuthenticationScheme()).thenReturn("Fallback");
+		when(fallback.verify("token")).thenReturn(fallbackPrincipal);
+
+		now = DateTime.parse("2016-01-01T00:00:00Z");
+		unit = new CircuitBreakingTokenVerifier(
+				remote,
+				fallback,
+				WINDOW_SIZE,
+				0.5,
+				Duration.standardSeconds(10),
+				Duration.standardSeconds(30),
+				new Provider<DateTime>() {
+					@Override
+					public DateTime get() {
+						return now;
+					}
+				});
+	}
+
+	@Test
+	public void closedUsesRemote() throws Exception {
+		when(remote.verify("token")).thenReturn(remotePrincipal);
+
+		assertThat(unit.verify("token"), sameInstance(remotePrincipal));
+
+		verify(fallback, never()).verify("token");
+		assertThat(unit.getState(), is(State.CLOSED));
+		assertThat(unit.getAuthenticationScheme(), is("Remote"));
+	}
+
+	@Test
+	public void failedCallFallsBack() throws Exception {
+		doThrow(new IOException("timeout")).when(remote).verify("token");
+
+		assertThat(unit.verify("token"), sameInstance(fallbackPrincipal));
+		assertThat(unit.getState(), is(State.CLOSED));
+	}
+
+	@Test
+	public void invalidTokenNotFailure() throws Exception {
+		doThrow(new InvalidKeyException("invalid")).when(remote).verify("token");
+
+		for (int i = 0; i < WINDOW_SIZE; i++) {
+			try {
+				unit.verify("token");
+				fail();
+			} catch (InvalidKeyException e) {
+				// expected
+			}
+		}
+
+		verify(fallback, never()).verify("token");
+		assertThat(unit.getState(), is(State.CLOSED));
+	}
+
+	@Test
+	public void opensAndRecovers() throws Exception {
+		doThrow(new IOException("timeout")).when(remote).verify("token");
+		for (int i = 0; i < WINDOW_SIZE; i++) {
+			unit.verify("token");
+		}
+		assertThat(unit.getState(), is(State.OPEN));
+
+		// Remote is not called while open.
+		reset(remote);
+		assertThat(unit.verify("token"), sameInstance(fallbackPrincipal));
+		verify(remote, never()).verify("token");
+
+		// Probe fails, still open.
+		now = now.plusSeconds(31);
+		doThrow(new IOException("timeout")).when(remote).verify("token");
+		assertThat(unit.verify("token"), sameInstance(fallbackPrincipal));
+		assertThat(unit.getState(), is(State.OPEN));
+
+		// Probe succeeds, closed.
+		now = now.plusSeconds(31);
+		doReturn(remotePrincipal).when(remote).verify("token");
+		assertThat(unit.verify("token"), sameInstance(remotePrincipal));
+		assertThat(unit.getState(), is(State.CLOSED));
+		assertThat(unit.getDiagnostics().get("opened"), is((Object) 2L));
+	}
+
+	@Test
+	public void opensOnServerErrors() throws Exception {
+		URLFetchService urlFetchService = mock(URLFetchService.class);
+		HTTPResponse unavailable = mock(HTTPResponse.class);
+		when(unavailable.getResponseCode()).thenReturn(503);
+		when(unavailable.getContent()).thenReturn("Service Unavailable".getBytes(UTF_8));
+		when(urlFetchService.fetch(any(HTTPRequest.class))).thenReturn(unavailable);
+
+		unit = new CircuitBreakingTokenVerifier(
+				new TokenVerifierGoogleRemote(
+						urlFetchService,
+						JacksonFactory.getDefaultInstance(),
+						"web-client-id.apps.googleusercontent.com"),
+				fallback,
+				WINDOW_SIZE,
+				0.5,
+				Duration.standardSeconds(10),
+				Duration.standardSeconds(30),
+				new Provider<DateTime>() {
+					@Override
+					public DateTime get() {
+						return now;
+					}
+				});
+
+		for (int i = 0; i < WINDOW_SIZE; i++) {
+			assertThat(unit.verify("token"), sameInstance(fallbackPrincipal));
+		}
+		assertThat(unit.getState(), is(State.OPEN));
+
+		assertThat(unit.verify("token"), sameInstance(fallbackPrincipal));
+		verify(urlFetchService, times(WINDOW_SIZE)).fetch(any(HTTPRequest.class));
+	}
+
+	@Test
+	public void staysClosedBelowThreshold() throws Exception {
+		when(remote.verify("token"))
+				.thenThrow(new IOException("timeout"))
+				.thenReturn(remotePrincipal);
+
+		for (int i = 0; i < WINDOW_SIZE * 2; i++) {
+			unit.verify("token");
+		}
+
+		assertThat(unit.getState(), is(State.CLOSED));
+	}
+
+	@Test(timeOut = 10000)
+	public void lateFailureDoesNotExtendOpen() throws Exception {
+		final CountDownLatch slowCallSent = new CountDownLatch(1);
+		final CountDownLatch releaseSlowCall = new CountDownLatch(1);
+		doAnswer(new Answer<UserPrincipal>() {
+			@Override
+			public UserPrincipal answer(InvocationOnMock invocation) throws Exception {
+				slowCallSent.countDown();
+				releaseSlowCall.await();
+				throw new IOException("late timeout");
+			}
+		}).when(remote).verify("slow");
+		when(fallback.verify("slow")).thenReturn(fallbackPrincipal);
+		doThrow(new IOException("timeout")).when(remote).verify("token");
+
+		Thread slowCall = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					unit.verify("slow");
+				} catch (Exception e) {
+					throw new AssertionError(e);
+				}
+			}
+		});
+		slowCall.start();
+		slowCallSent.await();
+
+		for (int i = 0; i < WINDOW_SIZE; i++) {
+			unit.verify("token");
+		}
+		assertThat(unit.getState(), is(State.OPEN));
+		DateTime openedAt = now;
+
+		now = openedAt.plusSeconds(20);
+		releaseSlowCall.countDown();
+		slowCall.join();
+		assertThat(unit.getState(), is(State.OPEN));
+
+		// Probe is still due 30 seconds after opening, not after the late failure.
+		now = openedAt.plusSeconds(30);
+		reset(remote);
+		when(remote.verify("token")).thenReturn(remotePrincipal);
+		assertThat(unit.verify("token"), sameInstance(remotePrincipal));
+		assertThat(unit.getState(), is(State.CLOSED));
+	}
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.appengine.api.urlfetch.HTTPRequest;
+import com.google.appengine.api.urlfetch.HTTPResponse;
+import com.google.appengine.api.urlfetch.URLFetchService;
+import com.google.common.base.Functions;
+import com.google.common.base.Suppliers;
+import com.google.common.io.Resources;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import me.lazerka.gae.jersey.oauth2.DeferredAuthSecurityContext.TaskQueue;
+import me.lazerka.gae.jersey.oauth2.cache.CachingTokenVerifier;
+import me.lazerka.gae.jersey.oauth2.cache.NegativeCachingTokenVerifier;
+import me.lazerka.gae.jersey.oauth2.facebook.TokenVerifierFacebookDebugToken;
+import me.lazerka.gae.jersey.oauth2.metrics.AuthMetrics;
+import me.lazerka.gae.jersey.oauth2.metrics.MeteredTokenVerifier;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.annotations.Test;
+
+import javax.inject.Provider;
+import java.security.InvalidKeyException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author Dzmitry Lazerka
+ */
+public class DeferredAuthSecurityContextTest {
+	final UserPrincipal userPrincipal = mock(UserPrincipal.class);
+
+	@Test(timeOut = 10000)
+	public void resolvesWhenCompletedByOtherThread() {
+		final SettableFuture<UserPrincipal> remote = SettableFuture.create();
+		ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+		try {
+			// Queue is empty by the time it's resolved, but the remote call is not done yet.
+			executor.schedule(new Runnable() {
+				@Override
+				public void run() {
+					remote.set(userPrincipal);
+				}
+			}, 50, TimeUnit.MILLISECONDS);
+
+			DeferredAuthSecurityContext unit = DeferredAuthSecurityContext.start(
+					verifier(remote), "token", true, RoleRegistry.INSTANCE.getBit(Role.USER));
+
+			assertThat(unit.isResolved(), is(false));
+			assertThat(unit.getUserPrincipal(), sameInstance(userPrincipal));
+			assertThat(unit.isUserInRole(Role.USER), is(true));
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test(timeOut = 10000)
+	public void runsQueuedTasks() {
+		TaskQueue taskQueue = new TaskQueue();
+		final SettableFuture<UserPrincipal> future = SettableFuture.create();
+		taskQueue.execute(new Runnable() {
+			@Override
+			public void run() {
+				future.set(null);
+			}
+		});
+
+		taskQueue.runUntilDone(future);
+
+		assertThat(future.isDone(), is(true));
+	}
+
+	@Test(timeOut = 10000)
+	public void invalidTokenIsUnauthenticated() {
+		SettableFuture<UserPrincipal> remote = SettableFuture.create();
+		remote.setException(new InvalidKeyException("test"));
+
+		DeferredAuthSecurityContext unit = DeferredAuthSecurityContext.start(
+				verifier(remote), "token", true, RoleRegistry.INSTANCE.getBit(Role.USER));
+
+		assertThat(unit.getUserPrincipal(), nullValue());
+		assertThat(unit.isUserInRole(Role.USER), is(false));
+		assertThat(unit.isUserInRole(Role.OPTIONAL), is(true));
+	}
+
+	@Test(timeOut = 10000)
+	public void decoratedVerifierSendsCallAtStart() throws Exception {
+		URLFetchService urlFetchService = mock(URLFetchService.class);
+		SettableFuture<HTTPResponse> fetched = SettableFuture.create();
+		doReturn(fetched).when(urlFetchService).fetchAsync(any(HTTPRequest.class));
+
+		Provider<DateTime> nowProvider = new Provider<DateTime>() {
+			@Override
+			public DateTime get() {
+				return DateTime.parse("2016-05-31T21:00:00Z");
+			}
+		};
+		AuthMetrics metrics = mock(AuthMetrics.class);
+		final TokenVerifier facebook = new MeteredTokenVerifier(
+				new CachingTokenVerifier(
+						new NegativeCachingTokenVerifier(
+								new TokenVerifierFacebookDebugToken(
+										urlFetchService, new ObjectMapper(), "138483919580948", "secret", nowProvider),
+								100,
+								Duration.standardMinutes(1)),
+						100,
+						Duration.standardMinutes(10),
+						nowProvider),
+				metrics);
+		AsyncTokenVerifier unit = AsyncTokenVerifiers.adapt(
+				new LazyTokenVerifier(TokenVerifierFacebookDebugToken.AUTH_SCHEME, Suppliers.ofInstance(facebook)));
+
+		DeferredAuthSecurityContext context = DeferredAuthSecurityContext.start(
+				unit, "token", true, RoleRegistry.INSTANCE.getBit(Role.USER));
+
+		// Sent before anyone asks.
+		verify(urlFetchService).fetchAsync(any(HTTPRequest.class));
+		assertThat(context.isResolved(), is(false));
+
+		HTTPResponse response = mock(HTTPResponse.class);
+		when(response.getResponseCode()).thenReturn(200);
+		when(response.getContent()).thenReturn(Resources.toByteArray(
+				TokenVerifierFacebookDebugToken.class.getResource("debug_token.response.ok.json")));
+		fetched.set(response);
+
+		assertThat(context.getUserPrincipal().getId(), is("987654321"));
+		verify(metrics).recordVerification(eq(TokenVerifierFacebookDebugToken.AUTH_SCHEME), eq(AuthMetrics.Outcome.SUCCESS), anyLong());
+
+		// Cached now.
+		DeferredAuthSecurityContext.start(unit, "token", true, RoleRegistry.INSTANCE.getBit(Role.USER));
+		verify(urlFetchService, times(1)).fetchAsync(any(HTTPRequest.class));
+	}
+
+	/**
+	 * Like real verifiers, has a continuation on the given executor, that can only be queued once result is done.
+	 */
+	private static AsyncTokenVerifier verifier(final ListenableFuture<UserPrincipal> result) {
+		AsyncTokenVerifier verifier = mock(AsyncTokenVerifier.class);
+		when(verifier.verifyAsync(eq("token"), any(Executor.class))).thenAnswer(
+				new Answer<ListenableFuture<UserPrincipal>>() {
+					@Override
+					public ListenableFuture<UserPrincipal> answer(InvocationOnMock invocation) {
+						Executor executor = (Executor) invocation.getArguments()[1];
+						return Futures.transform(result, Functions.<UserPrincipal>identity(), executor);
+					}
+				});
+		when(verifier.getAuthenticationScheme()).thenReturn("Test");
+		return verifier;
+	}
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2;
+
+import com.google.common.collect.ImmutableList;
+import me.lazerka.gae.jersey.oauth2.FirstSuccessVerification.Result;
+import me.lazerka.gae.jersey.oauth2.google.GoogleUserPrincipal;
+import org.joda.time.Duration;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.security.InvalidKeyException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.testng.Assert.fail;
+
+/**
+ * @author Dzmitry Lazerka
+ */
+public class FirstSuccessVerificationTest {
+	ExecutorService executor;
+	CountDownLatch interrupted;
+
+	@BeforeMethod
+	public void setUp() {
+		executor = Executors.newCachedThreadPool();
+		interrupted = new CountDownLatch(1);
+	}
+
+	@AfterMethod
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void firstSuccessCancelsRest() throws Exception {
+		TokenVerifier slow = new StubVerifier("Slow", null);
+		TokenVerifier rejecting = new StubVerifier("Rejecting", new InvalidKeyException("test"));
+		TokenVerifier accepting = new StubVerifier("Accepting", null) {
+			@Override
+			public UserPrincipal verify(String authToken) {
+				return new GoogleUserPrincipal("123", "test@example.com");
+			}
+		};
+		FirstSuccessVerification unit = create(Duration.standardSeconds(10), slow, rejecting, accepting);
+
+		Result result = unit.verify("token");
+
+		assertThat(result.getTokenVerifier(), sameInstance(accepting));
+		assertThat(result.getUserPrincipal().getId(), is("123"));
+		assertThat(interrupted.await(5, SECONDS), is(true));
+	}
+
+	@Test
+	public void allRejected() throws Exception {
+		FirstSuccessVerification unit = create(
+				Duration.standardSeconds(10),
+				new StubVerifier("First", new InvalidKeyException("first")),
+				new StubVerifier("Second", new InvalidKeyException("second")));
+
+		try {
+			unit.verify("token");
+			fail();
+		} catch (InvalidKeyException e) {
+			// Expected.
+		}
+	}
+
+	@Test
+	public void errorWinsOverRejection() throws Exception {
+		FirstSuccessVerification unit = create(
+				Duration.standardSeconds(10),
+				new StubVerifier("First", new InvalidKeyException("first")),
+				new StubVerifier("Second", new IOException("second")));
+
+		try {
+			unit.verify("token");
+			fail();
+		} catch (IOException e) {
+			assertThat(e.getMessage(), is("second"));
+		}
+	}
+
+	@Test
+	public void deadline() throws Exception {
+		FirstSuccessVerification unit = create(Duration.millis(50), new StubVerifier("Slow", null));
+
+		try {
+			unit.verify("token");
+			fail();
+		} catch (IOException e) {
+			assertThat(interrupted.await(5, SECONDS), is(true));
+		}
+	}
+
+	private FirstSuccessVerification create(Duration deadline, TokenVerifier... candidates) {
+		return new FirstSuccessVerification(ImmutableList.copyOf(candidates), executor, deadline);
+	}
+
+	/**
+	 * Throws given exception, or, if none, blocks until interrupted.
+	 */
+	class StubVerifier extends TokenVerifierDispatcherTest.SchemeVerifier {
+		final Exception exception;
+
+		StubVerifier(String scheme, Exception exception) {
+			super(scheme);
+			this.exception = exception;
+		}
+
+		@Override
+		public UserPrincipal verify(String authToken) throws IOException, InvalidKeyException {
+			if (exception instanceof IOException) {
+				throw (IOException) exception;
+			} else if (exception instanceof InvalidKeyException) {
+				throw (InvalidKeyException) exception;
+			}
+
+			try {
+				Thread.sleep(SECONDS.toMillis(30));
+			} catch (InterruptedException e) {
+				interrupted.countDown();
+			}
+			throw new IOException("Interrupted");
+		}
+	}
+}
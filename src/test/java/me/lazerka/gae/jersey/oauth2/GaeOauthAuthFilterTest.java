@@ -20,10 +20,14 @@ import com.google.appengine.api.users.User;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.utils.SystemProperty;
 import com.google.appengine.api.utils.SystemProperty.Environment.Value;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.sun.jersey.spi.container.ContainerRequest;
 import me.lazerka.gae.jersey.oauth2.facebook.AccessTokenResponse;
 import me.lazerka.gae.jersey.oauth2.google.GoogleUserPrincipal;
+import me.lazerka.gae.jersey.oauth2.metrics.InMemoryAuthMetrics;
+import org.joda.time.Duration;
 import org.mockito.ArgumentCaptor;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
@@ -59,17 +63,17 @@ public class GaeOauthAuthFilterTest {
 	GaeOauthAuthFilter unit;
 	private TokenVerifier verifierMock;
 	private AccessTokenResponse accessTokenResponse;
+	private UserService userService;
+	private InMemoryAuthMetrics metrics;
 
 	@BeforeMethod
 	public void setUp() throws URISyntaxException, IOException {
 		request = mock(ContainerRequest.class);
 
-		unit = new GaeOauthAuthFilter();
 		verifierMock = mock(TokenVerifier.class);
-		unit.tokenVerifiers = ImmutableSet.of(verifierMock);
-
-		unit.setRolesAllowed(ImmutableSet.of(Role.USER));
-		unit.userService = mock(UserService.class);
+		userService = mock(UserService.class);
+		metrics = new InMemoryAuthMetrics();
+		unit = createUnit(Role.USER);
 
 		when(request.getRequestUri())
 				.thenReturn(URI.create("https://example.com"));
@@ -77,6 +81,20 @@ public class GaeOauthAuthFilterTest {
 		SystemProperty.environment.set(Value.Production);
 	}
 
+	private GaeOauthAuthFilter createUnit(String... rolesAllowed) {
+		GaeOauthAuthFilter result = new GaeOauthAuthFilter();
+		result.tokenVerifiers = ImmutableSet.of(verifierMock);
+		result.setRolesAllowed(ImmutableSet.copyOf(rolesAllowed));
+		result.userService = userService;
+		result.metrics = metrics;
+		return result;
+	}
+
+	@Test(expectedExceptions = IllegalStateException.class)
+	public void testRolesAllowedSetOnce() {
+		unit.setRolesAllowed(ImmutableSet.of(Role.ADMIN));
+	}
+
 	@Test
 	public void testFilterOk() throws GeneralSecurityException, IOException {
 		when(request.isSecure()).thenReturn(true);
@@ -103,10 +121,35 @@ public class GaeOauthAuthFilterTest {
 		assertThat(securityContext.isUserInRole(Role.ADMIN), is(false));
 	}
 
+	@Test
+	public void testFilterFirstSuccess() throws GeneralSecurityException, IOException {
+		when(request.isSecure()).thenReturn(true);
+		when(request.getHeaderValue("Authorization")).thenReturn("Bearer " + token);
+
+		unit.defaultTokenVerifier = verifierMock;
+		TokenVerifier otherVerifier = mock(TokenVerifier.class);
+		UserPrincipal userPrincipal = mock(UserPrincipal.class);
+		when(verifierMock.verify(token)).thenThrow(new InvalidKeyException("Test msg"));
+		when(otherVerifier.verify(token)).thenReturn(userPrincipal);
+		when(otherVerifier.getAuthenticationScheme()).thenReturn("OtherScheme");
+		unit.firstSuccessVerification = new FirstSuccessVerification(
+				ImmutableList.of(verifierMock, otherVerifier),
+				MoreExecutors.directExecutor(),
+				Duration.standardSeconds(1));
+
+		unit.filter(request);
+
+		ArgumentCaptor<SecurityContext> captor = ArgumentCaptor.forClass(SecurityContext.class);
+		verify(request).setSecurityContext(captor.capture());
+
+		SecurityContext securityContext = captor.getValue();
+		assertThat((UserPrincipal) securityContext.getUserPrincipal(), is(userPrincipal));
+		assertThat(securityContext.getAuthenticationScheme(), is("OtherScheme"));
+	}
 
 	@Test
 	public void testFilterAdminOk() {
-		unit.setRolesAllowed(ImmutableSet.of(Role.ADMIN));
+		unit = createUnit(Role.ADMIN);
 		when(request.isSecure()).thenReturn(true);
 		when(request.getHeaderValue("Authorization")).thenReturn(null);
 
@@ -149,6 +192,7 @@ public class GaeOauthAuthFilterTest {
 			assertThat(e.getCause(), instanceOf(InvalidKeyException.class));
 			assertThat(e.getResponse().getStatus(), is(401));
 			verify(request, never()).setSecurityContext(any(AuthSecurityContext.class));
+			assertThat(metrics.getRejectionCount(401), is(1L));
 		}
 	}
 
@@ -168,7 +212,7 @@ public class GaeOauthAuthFilterTest {
 
 	@Test
 	public void testRoleOptional() {
-		unit.setRolesAllowed(ImmutableSet.of(Role.OPTIONAL));
+		unit = createUnit(Role.OPTIONAL);
 		when(request.isSecure()).thenReturn(true);
 		when(request.getHeaderValue("Authorization")).thenReturn(null);
 
@@ -186,4 +230,75 @@ public class GaeOauthAuthFilterTest {
 		assertThat(securityContext.getAuthenticationScheme(), is(GaeOauthAuthFilter.UNAUTHENTICATED_AUTH_SCHEME));
 		assertThat(securityContext.isSecure(), is(true));
 	}
+
+	@Test
+	public void testRoleOptionalNotDeferredByDefault() throws GeneralSecurityException, IOException {
+		unit = createUnit(Role.OPTIONAL);
+		when(request.isSecure()).thenReturn(true);
+		when(request.getHeaderValue("Authorization")).thenReturn("Bearer " + token);
+
+		unit.defaultTokenVerifier = verifierMock;
+		UserPrincipal userPrincipal = mock(UserPrincipal.class);
+		when(verifierMock.verify(token)).thenReturn(userPrincipal);
+		when(verifierMock.getAuthenticationScheme()).thenReturn("TestScheme");
+
+		unit.filter(request);
+
+		verify(verifierMock, times(1)).verify(token);
+		ArgumentCaptor<SecurityContext> captor = ArgumentCaptor.forClass(SecurityContext.class);
+		verify(request).setSecurityContext(captor.capture());
+		assertThat(captor.getValue() instanceof DeferredAuthSecurityContext, is(false));
+		assertThat((UserPrincipal) captor.getValue().getUserPrincipal(), is(userPrincipal));
+	}
+
+	@Test
+	public void testRoleOptionalDeferred() throws GeneralSecurityException, IOException {
+		unit = createUnit(Role.OPTIONAL);
+		unit.deferOptionalAuthentication = true;
+		when(request.isSecure()).thenReturn(true);
+		when(request.getHeaderValue("Authorization")).thenReturn("Bearer " + token);
+
+		unit.defaultTokenVerifier = verifierMock;
+		UserPrincipal userPrincipal = mock(UserPrincipal.class);
+		when(verifierMock.verify(token)).thenReturn(userPrincipal);
+		when(verifierMock.getAuthenticationScheme()).thenReturn("TestScheme");
+
+		unit.filter(request);
+
+		ArgumentCaptor<SecurityContext> captor = ArgumentCaptor.forClass(SecurityContext.class);
+		verify(request).setSecurityContext(captor.capture());
+		verify(verifierMock, never()).verify(anyString());
+
+		SecurityContext securityContext = captor.getValue();
+		assertThat(securityContext.isSecure(), is(true));
+		assertThat((UserPrincipal) securityContext.getUserPrincipal(), is(userPrincipal));
+		assertThat(securityContext.getAuthenticationScheme(), is("TestScheme"));
+		assertThat(securityContext.isUserInRole(Role.USER), is(true));
+
+		securityContext.getUserPrincipal();
+		verify(verifierMock, times(1)).verify(token);
+	}
+
+	@Test
+	public void testRoleOptionalDeferredInvalid() throws GeneralSecurityException, IOException {
+		unit = createUnit(Role.OPTIONAL);
+		unit.deferOptionalAuthentication = true;
+		when(request.isSecure()).thenReturn(true);
+		when(request.getHeaderValue("Authorization")).thenReturn("Bearer " + token);
+
+		unit.defaultTokenVerifier = verifierMock;
+		when(verifierMock.verify(token)).thenThrow(new InvalidKeyException("Test msg"));
+		when(verifierMock.getAuthenticationScheme()).thenReturn("TestScheme");
+
+		unit.filter(request);
+
+		ArgumentCaptor<SecurityContext> captor = ArgumentCaptor.forClass(SecurityContext.class);
+		verify(request).setSecurityContext(captor.capture());
+
+		SecurityContext securityContext = captor.getValue();
+		assertThat(securityContext.getUserPrincipal(), nullValue());
+		assertThat(securityContext.getAuthenticationScheme(), is(GaeOauthAuthFilter.UNAUTHENTICATED_AUTH_SCHEME));
+		assertThat(securityContext.isUserInRole(Role.OPTIONAL), is(true));
+		assertThat(securityContext.isUserInRole(Role.USER), is(false));
+	}
 }
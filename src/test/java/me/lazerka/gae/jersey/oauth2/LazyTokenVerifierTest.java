@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2;
+
+import com.google.common.base.Supplier;
+import me.lazerka.gae.jersey.oauth2.google.GoogleUserPrincipal;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author Dzmitry Lazerka
+ */
+public class LazyTokenVerifierTest {
+	static final String SCHEME = "TestScheme";
+
+	@Mock
+	TokenVerifier delegate;
+
+	AtomicInteger created;
+	LazyTokenVerifier unit;
+
+	@BeforeMethod
+	public void setUp() {
+		MockitoAnnotations.initMocks(this);
+
+		created = new AtomicInteger();
+		unit = new LazyTokenVerifier(SCHEME, new Supplier<TokenVerifier>() {
+			@Override
+			public TokenVerifier get() {
+				created.incrementAndGet();
+				return delegate;
+			}
+		});
+	}
+
+	@Test
+	public void notCreatedUntilVerify() throws Exception {
+		UserPrincipal principal = new GoogleUserPrincipal("123", "test@example.com");
+		when(delegate.verify("token")).thenReturn(principal);
+
+		assertThat(unit.getAuthenticationScheme(), is(SCHEME));
+		assertThat(unit.isInitialized(), is(false));
+		assertThat(created.get(), is(0));
+
+		assertThat(unit.verify("token"), is(principal));
+		assertThat(unit.isInitialized(), is(true));
+		assertThat(unit.verify("token"), is(principal));
+		assertThat(created.get(), is(1));
+	}
+
+	@Test
+	public void createdOnceConcurrently() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<TokenVerifier>> futures = new ArrayList<>();
+			for (int i = 0; i < 32; i++) {
+				futures.add(executor.submit(new Callable<TokenVerifier>() {
+					@Override
+					public TokenVerifier call() {
+						return unit.getDelegate();
+					}
+				}));
+			}
+			for (Future<TokenVerifier> future : futures) {
+				assertThat(future.get(), is(delegate));
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		assertThat(created.get(), is(1));
+	}
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2;
+
+import com.google.common.collect.ImmutableSet;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.testng.Assert.fail;
+
+/**
+ * @author Dzmitry Lazerka
+ */
+public class RoleRegistryTest {
+	RoleRegistry unit;
+
+	@BeforeMethod
+	public void setUp() {
+		unit = new RoleRegistry();
+	}
+
+	@Test
+	public void register() {
+		long user = unit.getBit(Role.USER);
+		assertThat(user, not(0L));
+		assertThat(unit.register(Role.USER), is(user));
+
+		assertThat(unit.getBit("EDITOR"), is(0L));
+		long editor = unit.register("EDITOR");
+		assertThat(Long.bitCount(editor), is(1));
+		assertThat(editor & user, is(0L));
+		assertThat(unit.getBit("EDITOR"), is(editor));
+
+		long mask = unit.register(ImmutableSet.of(Role.USER, "EDITOR"));
+		assertThat(mask, is(user | editor));
+		assertThat(unit.getRoles(mask), containsInAnyOrder(Role.USER, "EDITOR"));
+	}
+
+	@Test
+	public void tooManyRoles() {
+		for (int i = 3; i < RoleRegistry.MAX_ROLES; i++) {
+			unit.register("ROLE" + i);
+		}
+		assertThat(unit.getBit("ROLE63"), is(Long.MIN_VALUE));
+
+		try {
+			unit.register("ONE_MORE");
+			fail();
+		} catch (IllegalStateException e) {
+			assertThat(unit.getBit("ONE_MORE"), is(0L));
+		}
+
+		assertThat(unit.tryRegister("ONE_MORE"), is(0L));
+		assertThat(unit.tryRegister("ROLE63"), is(Long.MIN_VALUE));
+	}
+
+	@Test
+	public void securityContext() {
+		AuthSecurityContext context = new AuthSecurityContext(
+				null, true, ImmutableSet.of(Role.USER, "VIEWER"), "test");
+
+		assertThat(context.isUserInRole(Role.USER), is(true));
+		assertThat(context.isUserInRole("VIEWER"), is(true));
+		assertThat(context.isUserInRole(Role.ADMIN), is(false));
+		assertThat(context.isUserInRole("UNKNOWN"), is(false));
+		assertThat(context.isUserInAnyRole(RoleRegistry.INSTANCE.getBit(Role.ADMIN)), is(false));
+		assertThat(context.isUserInAnyRole(RoleRegistry.INSTANCE.register(ImmutableSet.of(Role.ADMIN, "VIEWER"))),
+				is(true));
+	}
+
+	@Test
+	public void securityContextDoesNotRegister() {
+		AuthSecurityContext context = new AuthSecurityContext(
+				null, true, ImmutableSet.of(Role.USER, "FROM_REQUEST"), "test");
+
+		assertThat(RoleRegistry.INSTANCE.getBit("FROM_REQUEST"), is(0L));
+		assertThat(context.isUserInRole("FROM_REQUEST"), is(true));
+		assertThat(context.isUserInRole(Role.USER), is(true));
+		assertThat(context.getRoleMask(), is(RoleRegistry.INSTANCE.getBit(Role.USER)));
+	}
+
+	@Test
+	public void getMask() {
+		long user = unit.getBit(Role.USER);
+		assertThat(unit.getMask(ImmutableSet.of(Role.USER, "EDITOR")), is(user));
+		assertThat(unit.getBit("EDITOR"), is(0L));
+	}
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2;
+
+import com.google.common.collect.ImmutableList;
+import com.sun.jersey.spi.container.ContainerRequest;
+import me.lazerka.gae.jersey.oauth2.facebook.BasicTokenVerifier;
+import me.lazerka.gae.jersey.oauth2.facebook.TokenVerifierFacebookDebugToken;
+import me.lazerka.gae.jersey.oauth2.google.TokenVerifierGoogleRemote;
+import me.lazerka.gae.jersey.oauth2.google.TokenVerifierGoogleSignature;
+import me.lazerka.gae.jersey.oauth2.metrics.MeteredTokenVerifier;
+import me.lazerka.gae.jersey.oauth2.metrics.NoopAuthMetrics;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author Dzmitry Lazerka
+ */
+public class TokenVerifierDispatcherTest {
+	TokenVerifier first = new SchemeVerifier("First");
+	TokenVerifier second = new MeteredTokenVerifier(new SchemeVerifier("Second"), NoopAuthMetrics.INSTANCE);
+	TokenVerifier custom = new SchemeVerifier("Custom") {
+		@Override
+		public boolean canHandle(@Nonnull ContainerRequest request) {
+			return request.getHeaderValue("X-Custom") != null;
+		}
+	};
+	TokenVerifier defaultVerifier = new SchemeVerifier("Default");
+
+	TokenVerifierDispatcher unit;
+
+	@BeforeMethod
+	public void setUp() {
+		unit = new TokenVerifierDispatcher(ImmutableList.of(custom, first, second), defaultVerifier);
+	}
+
+	@Test
+	public void buildsTable() {
+		assertThat(unit.getByScheme().keySet(), containsInAnyOrder("First", "Second"));
+		assertThat(unit.getFallback(), contains(custom));
+	}
+
+	@Test
+	public void findsByScheme() {
+		assertThat(unit.find(request("First", null)), sameInstance(first));
+		assertThat(unit.find(request("Second", null)), sameInstance(second));
+	}
+
+	@Test
+	public void fallsBackToCanHandle() {
+		assertThat(unit.find(request(null, "yes")), sameInstance(custom));
+		assertThat(unit.find(request("Unknown", "yes")), sameInstance(custom));
+
+		// Scheme table comes first.
+		assertThat(unit.find(request("First", "yes")), sameInstance(first));
+	}
+
+	@Test
+	public void fallsBackToDefault() {
+		assertThat(unit.find(request(null, null)), sameInstance(defaultVerifier));
+		assertThat(unit.find(request("Unknown", null)), sameInstance(defaultVerifier));
+	}
+
+	@Test
+	public void findsByShape() {
+		TokenVerifier google = new SchemeVerifier(TokenVerifierGoogleSignature.AUTH_SCHEME);
+		TokenVerifier facebook = new SchemeVerifier(TokenVerifierFacebookDebugToken.AUTH_SCHEME);
+		unit = new TokenVerifierDispatcher(ImmutableList.of(google, facebook), google);
+
+		assertThat(unit.find(request(null, null), "EAACEdEose0cBAH"), sameInstance(facebook));
+		assertThat(unit.find(request(null, null), "eyJhbGciOiJSUzI1NiJ9.eyJzdWIiOiIxIn0.c2ln"), sameInstance(google));
+
+		// No signed_request verifier.
+		assertThat(unit.find(request(null, null), "c2ln.eyJzdWIiOiIxIn0"), sameInstance(google));
+		assertThat(unit.find(request(null, null), "not a token"), sameInstance(google));
+
+		// Header wins.
+		assertThat(unit.find(request(TokenVerifierGoogleSignature.AUTH_SCHEME, null), "EAACEdEose0cBAH"),
+				sameInstance(google));
+	}
+
+	@Test
+	public void prefersDefaultForShape() {
+		TokenVerifier signature = new SchemeVerifier(TokenVerifierGoogleSignature.AUTH_SCHEME);
+		TokenVerifier remote = new SchemeVerifier(TokenVerifierGoogleRemote.AUTH_SCHEME);
+		unit = new TokenVerifierDispatcher(ImmutableList.of(signature, remote), remote);
+
+		assertThat(unit.getByShape().get(TokenShape.JWS), sameInstance(remote));
+	}
+
+	@Test
+	public void handlesByScheme() {
+		assertThat(TokenVerifierDispatcher.handlesByScheme(first), is(true));
+		assertThat(TokenVerifierDispatcher.handlesByScheme(second), is(true));
+		assertThat(TokenVerifierDispatcher.handlesByScheme(custom), is(false));
+		assertThat(TokenVerifierDispatcher.handlesByScheme(mock(TokenVerifier.class)), is(false));
+	}
+
+	private ContainerRequest request(String scheme, String custom) {
+		ContainerRequest request = mock(ContainerRequest.class);
+		when(request.getHeaderValue(BasicTokenVerifier.AUTH_SCHEME_HEADER)).thenReturn(scheme);
+		when(request.getHeaderValue("X-Custom")).thenReturn(custom);
+		return request;
+	}
+
+	static class SchemeVerifier extends BasicTokenVerifier {
+		final String scheme;
+
+		SchemeVerifier(String scheme) {
+			this.scheme = scheme;
+		}
+
+		@Override
+		public UserPrincipal verify(String authToken) throws IOException, GeneralSecurityException {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public String getAuthenticationScheme() {
+			return scheme;
+		}
+	}
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2.cache;
+
+import me.lazerka.gae.jersey.oauth2.TokenVerifier;
+import me.lazerka.gae.jersey.oauth2.UserPrincipal;
+import me.lazerka.gae.jersey.oauth2.google.GoogleUserPrincipal;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.inject.Provider;
+import java.security.InvalidKeyException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Mockito.*;
+import static org.testng.Assert.fail;
+
+/**
+ * @author Dzmitry Lazerka
+ */
+public class CachingTokenVerifierTest {
+	static final DateTime NOW = DateTime.parse("2016-05-31T21:00:00Z");
+
+	String token = "test-token";
+
+	@Mock
+	TokenVerifier delegate;
+
+	@Mock
+	Provider<DateTime> nowProvider;
+
+	CachingTokenVerifier unit;
+
+	@BeforeMethod
+	public void setUp() {
+		MockitoAnnotations.initMocks(this);
+
+		when(nowProvider.get()).thenReturn(NOW);
+
+		unit = new CachingTokenVerifier(delegate, 100, Duration.standardMinutes(10), nowProvider);
+	}
+
+	@Test
+	public void testVerifyCached() throws Exception {
+		UserPrincipal principal = new GoogleUserPrincipal("123", "test@example.com", NOW.plusHours(1));
+		when(delegate.verify(token)).thenReturn(principal);
+
+		assertThat(unit.verify(token), is(principal));
+		assertThat(unit.verify(token), is(principal));
+
+		verify(delegate, times(1)).verify(token);
+		assertThat(unit.stats().hitCount(), is(1L));
+	}
+
+	@Test
+	public void testVerifyMaxTtl() throws Exception {
+		UserPrincipal principal = new GoogleUserPrincipal("123", "test@example.com", NOW.plusHours(1));
+		when(delegate.verify(token)).thenReturn(principal);
+
+		unit.verify(token);
+		when(nowProvider.get()).thenReturn(NOW.plusMinutes(11));
+		unit.verify(token);
+
+		verify(delegate, times(2)).verify(token);
+	}
+
+	@Test
+	public void testVerifyTokenExpiresBeforeMaxTtl() throws Exception {
+		UserPrincipal principal = new GoogleUserPrincipal("123", "test@example.com", NOW.plusMinutes(1));
+		when(delegate.verify(token)).thenReturn(principal);
+
+		unit.verify(token);
+		when(nowProvider.get()).thenReturn(NOW.plusMinutes(2));
+		when(delegate.verify(token)).thenThrow(new InvalidKeyException("Token expired"));
+
+		try {
+			unit.verify(token);
+		} catch (InvalidKeyException e) {
+			assertThat(unit.size(), is(0L));
+			return;
+		}
+		fail();
+	}
+
+	@Test
+	public void testVerifyAlreadyExpiredNotCached() throws Exception {
+		UserPrincipal principal = new GoogleUserPrincipal("123", "test@example.com", NOW.minusMinutes(1));
+		when(delegate.verify(token)).thenReturn(principal);
+
+		unit.verify(token);
+
+		assertThat(unit.size(), is(0L));
+	}
+
+	@Test
+	public void testVerifyFailureNotCached() throws Exception {
+		when(delegate.verify(token)).thenThrow(new InvalidKeyException("Test msg"));
+
+		for (int i = 0; i < 2; i++) {
+			try {
+				unit.verify(token);
+				fail();
+			} catch (InvalidKeyException e) {
+				assertThat(e.getMessage(), is("Test msg"));
+			}
+		}
+
+		verify(delegate, times(2)).verify(token);
+	}
+
+	@Test
+	public void testVerifyDifferentTokens() throws Exception {
+		UserPrincipal principal1 = new GoogleUserPrincipal("1", "one@example.com", NOW.plusHours(1));
+		UserPrincipal principal2 = new GoogleUserPrincipal("2", "two@example.com", NOW.plusHours(1));
+		when(delegate.verify("token1")).thenReturn(principal1);
+		when(delegate.verify("token2")).thenReturn(principal2);
+
+		assertThat(unit.verify("token1"), is(principal1));
+		assertThat(unit.verify("token2"), is(principal2));
+		assertThat(unit.verify("token1"), is(principal1));
+
+		assertThat(unit.size(), is(2L));
+	}
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2.cache;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceException;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import me.lazerka.gae.jersey.oauth2.TokenVerifier;
+import me.lazerka.gae.jersey.oauth2.UserPrincipal;
+import me.lazerka.gae.jersey.oauth2.facebook.AccessTokenResponse;
+import me.lazerka.gae.jersey.oauth2.facebook.DebugTokenResponse;
+import me.lazerka.gae.jersey.oauth2.facebook.FacebookUser;
+import me.lazerka.gae.jersey.oauth2.facebook.FacebookUserPrincipal;
+import me.lazerka.gae.jersey.oauth2.google.GoogleUserPrincipal;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.inject.Provider;
+import java.net.URL;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Mockito.*;
+
+/**
+ * Uses local Memcache stand-in from App Engine SDK.
+ *
+ * @author Dzmitry Lazerka
+ */
+public class MemcachePrincipalCacheTest {
+	static final String RESOURCES = "/me/lazerka/gae/jersey/oauth2/facebook/";
+
+	final ObjectMapper jackson = new ObjectMapper();
+
+	final LocalServiceTestHelper helper = new LocalServiceTestHelper(new LocalMemcacheServiceTestConfig());
+
+	DateTime now = DateTime.now();
+
+	MemcachePrincipalCache unit;
+
+	@BeforeMethod
+	public void setUp() {
+		helper.setUp();
+
+		unit = new MemcachePrincipalCache(
+				MemcacheServiceFactory.getMemcacheService(MemcachePrincipalCache.NAMESPACE),
+				new PrincipalCodec());
+	}
+
+	@AfterMethod
+	public void tearDown() {
+		helper.tearDown();
+	}
+
+	@Test
+	public void testGoogleRoundTrip() {
+		HashCode key = TokenDigests.digest("token");
+		DateTime expiresAt = now.plusHours(1);
+		unit.put(key, new GoogleUserPrincipal("123", "test@example.com", expiresAt), expiresAt);
+
+		GoogleUserPrincipal result = (GoogleUserPrincipal) unit.get(key);
+
+		assertThat(result.getId(), is("123"));
+		assertThat(result.getEmail(), is("test@example.com"));
+		assertThat(result.getExpiresAt().getMillis(), is(expiresAt.getMillis()));
+	}
+
+	@Test
+	public void testFacebookRoundTrip() throws Exception {
+		URL debugTokenUrl = getClass().getResource(RESOURCES + "debug_token.response.ok.json");
+		DebugTokenResponse debugTokenResponse = jackson.readValue(debugTokenUrl, DebugTokenResponse.class);
+		URL userUrl = getClass().getResource(RESOURCES + "user.response.ok.json");
+		FacebookUser facebookUser = jackson.readValue(userUrl, FacebookUser.class);
+
+		HashCode key = TokenDigests.digest("token");
+		unit.put(key, new FacebookUserPrincipal("987654321", facebookUser, null, debugTokenResponse), now.plusHours(1));
+
+		FacebookUserPrincipal result = (FacebookUserPrincipal) unit.get(key);
+
+		assertThat(result.getId(), is("987654321"));
+		assertThat(result.getDebugTokenResponse().get(), is(debugTokenResponse));
+		assertThat(result.getFacebookUser().get().getEmail(), is("email@example.com"));
+		assertThat(result.getAccessTokenResponse().isPresent(), is(false));
+	}
+
+	@Test
+	public void testAccessTokenNotStored() {
+		AccessTokenResponse accessTokenResponse = new AccessTokenResponse("secret-access-token", "bearer", 3600L);
+		HashCode key = TokenDigests.digest("code");
+		unit.put(key, new FacebookUserPrincipal("987654321", null, accessTokenResponse, null), now.plusHours(1));
+
+		FacebookUserPrincipal result = (FacebookUserPrincipal) unit.get(key);
+
+		assertThat(result.getAccessTokenResponse().get().getAccessToken(), nullValue());
+		assertThat(result.getAccessTokenResponse().get().getTokenType(), is("bearer"));
+		assertThat(result.getAccessTokenResponse().get().getExpiresIn(), is(3600L));
+	}
+
+	@Test
+	public void testScopesIsolated() {
+		HashCode key = TokenDigests.digest("token");
+		MemcachePrincipalCache audience1 = unit.forScope("audience1");
+		MemcachePrincipalCache audience2 = unit.forScope("audience2");
+		audience1.put(key, new GoogleUserPrincipal("123", "test@example.com"), now.plusHours(1));
+
+		assertThat(audience1.get(key).getId(), is("123"));
+		assertThat(audience2.get(key), nullValue());
+		assertThat(unit.get(key), nullValue());
+	}
+
+	@Test
+	public void testOtherSchemeNotShared() throws Exception {
+		String token = "token";
+		UserPrincipal principal = new GoogleUserPrincipal("123", "test@example.com", now.plusHours(1));
+		TokenVerifier strong = mock(TokenVerifier.class);
+		TokenVerifier weak = mock(TokenVerifier.class);
+		when(strong.getAuthenticationScheme()).thenReturn("Strong");
+		when(weak.getAuthenticationScheme()).thenReturn("Weak");
+		when(weak.verify(token)).thenReturn(principal);
+		when(strong.verify(token)).thenReturn(principal);
+
+		Provider<DateTime> nowProvider = new Provider<DateTime>() {
+			@Override
+			public DateTime get() {
+				return now;
+			}
+		};
+		new CachingTokenVerifier(weak, 100, Duration.standardMinutes(10), nowProvider, unit).verify(token);
+		new CachingTokenVerifier(strong, 100, Duration.standardMinutes(10), nowProvider, unit).verify(token);
+
+		verify(strong).verify(token);
+	}
+
+	@Test
+	public void testBatch() {
+		HashCode key1 = TokenDigests.digest("token1");
+		HashCode key2 = TokenDigests.digest("token2");
+		HashCode key3 = TokenDigests.digest("token3");
+		unit.putAll(
+				ImmutableMap.<HashCode, UserPrincipal>of(
+						key1, new GoogleUserPrincipal("1", "one@example.com"),
+						key2, new GoogleUserPrincipal("2", "two@example.com")),
+				now.plusHours(1));
+
+		Map<HashCode, UserPrincipal> result = unit.getAll(ImmutableList.of(key1, key2, key3));
+
+		assertThat(result.keySet(), containsInAnyOrder(key1, key2));
+		assertThat(result.get(key2).getId(), is("2"));
+	}
+
+	@Test
+	public void testUnknownPrincipalNotShared() {
+		HashCode key = TokenDigests.digest("token");
+		unit.put(key, new UserPrincipal("123") {}, now.plusHours(1));
+
+		assertThat(unit.get(key), nullValue());
+	}
+
+	@Test
+	public void testGoogleWithoutEmailNotDecoded() {
+		byte[] value = "{\"t\":\"g\",\"id\":\"123\"}".getBytes(UTF_8);
+
+		assertThat(new PrincipalCodec().decode(value), nullValue());
+	}
+
+	@Test
+	public void testMemcacheUnavailable() {
+		MemcacheService memcache = mock(MemcacheService.class);
+		when(memcache.getAll(anyCollectionOf(String.class)))
+				.thenThrow(new MemcacheServiceException("Test msg"));
+		doThrow(new MemcacheServiceException("Test msg"))
+				.when(memcache).putAll(any(Map.class), any(Expiration.class));
+		unit = new MemcachePrincipalCache(memcache, new PrincipalCodec());
+
+		HashCode key = TokenDigests.digest("token");
+		unit.put(key, new GoogleUserPrincipal("123", "test@example.com"), now.plusHours(1));
+
+		assertThat(unit.get(key), nullValue());
+	}
+
+	@Test
+	public void testSecondTier() throws Exception {
+		String token = "token";
+		UserPrincipal principal = new GoogleUserPrincipal("123", "test@example.com", now.plusHours(1));
+		TokenVerifier delegate1 = mock(TokenVerifier.class);
+		TokenVerifier delegate2 = mock(TokenVerifier.class);
+		when(delegate1.verify(token)).thenReturn(principal);
+		when(delegate1.getAuthenticationScheme()).thenReturn("Test");
+		when(delegate2.getAuthenticationScheme()).thenReturn("Test");
+
+		// Two instances of the app.
+		Provider<DateTime> nowProvider = new Provider<DateTime>() {
+			@Override
+			public DateTime get() {
+				return now;
+			}
+		};
+		CachingTokenVerifier instance1 =
+				new CachingTokenVerifier(delegate1, 100, Duration.standardMinutes(10), nowProvider, unit);
+		CachingTokenVerifier instance2 =
+				new CachingTokenVerifier(delegate2, 100, Duration.standardMinutes(10), nowProvider, unit);
+
+		assertThat(instance1.verify(token), is(principal));
+		assertThat(instance2.verify(token), is(principal));
+
+		verify(delegate2, never()).verify(token);
+	}
+}
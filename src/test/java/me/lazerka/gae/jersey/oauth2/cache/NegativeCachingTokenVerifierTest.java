@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2.cache;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.appengine.api.urlfetch.HTTPRequest;
+import com.google.appengine.api.urlfetch.HTTPResponse;
+import com.google.appengine.api.urlfetch.URLFetchService;
+import me.lazerka.gae.jersey.oauth2.TokenVerifier;
+import me.lazerka.gae.jersey.oauth2.UserPrincipal;
+import me.lazerka.gae.jersey.oauth2.facebook.FetchPolicy;
+import me.lazerka.gae.jersey.oauth2.facebook.TokenVerifierFacebookDebugToken;
+import me.lazerka.gae.jersey.oauth2.google.GoogleUserPrincipal;
+import me.lazerka.gae.jersey.oauth2.google.TokenVerifierGoogleRemote;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.inject.Provider;
+import java.io.IOException;
+import java.security.InvalidKeyException;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+import static org.testng.Assert.fail;
+
+/**
+ * @author Dzmitry Lazerka
+ */
+public class NegativeCachingTokenVerifierTest {
+	String token = "test-token";
+
+	@Mock
+	TokenVerifier delegate;
+
+	@Mock
+	Provider<DateTime> nowProvider;
+
+	NegativeCachingTokenVerifier unit;
+
+	@BeforeMethod
+	public void setUp() {
+		MockitoAnnotations.initMocks(this);
+
+		unit = new NegativeCachingTokenVerifier(delegate, 100, Duration.standardSeconds(30));
+	}
+
+	@Test
+	public void testInvalidRemembered() throws Exception {
+		when(delegate.verify(token)).thenThrow(new InvalidKeyException("Token invalid: test msg"));
+
+		for (int i = 0; i < 3; i++) {
+			try {
+				unit.verify(token);
+				fail();
+			} catch (InvalidKeyException e) {
+				assertThat(e.getMessage(), is("Token invalid: test msg"));
+			}
+		}
+
+		verify(delegate, times(1)).verify(token);
+	}
+
+	@Test
+	public void testIOExceptionNotRemembered() throws Exception {
+		UserPrincipal principal = new GoogleUserPrincipal("123", "test@example.com");
+		when(delegate.verify(token))
+				.thenThrow(new IOException("Deadline exceeded"))
+				.thenReturn(principal);
+
+		try {
+			unit.verify(token);
+			fail();
+		} catch (IOException e) {
+			// expected
+		}
+
+		assertThat(unit.verify(token), is(principal));
+		assertThat(unit.size(), is(0L));
+	}
+
+	@Test
+	public void testProviderOutageNotRemembered() throws Exception {
+		URLFetchService urlFetchService = mock(URLFetchService.class);
+		HTTPResponse unavailable = mock(HTTPResponse.class);
+		when(unavailable.getResponseCode()).thenReturn(503);
+		when(unavailable.getContent()).thenReturn("Service Unavailable".getBytes(UTF_8));
+		when(urlFetchService.fetch(any(HTTPRequest.class))).thenReturn(unavailable);
+
+		TokenVerifierFacebookDebugToken facebook = new TokenVerifierFacebookDebugToken(
+				urlFetchService, new ObjectMapper(), "appId", "secret", nowProvider);
+		facebook.setFetchPolicy(
+				FetchPolicy.DEBUG_TOKEN,
+				new FetchPolicy(Duration.standardSeconds(1), 0, Duration.ZERO, Duration.ZERO));
+		TokenVerifierGoogleRemote google = new TokenVerifierGoogleRemote(
+				urlFetchService, JacksonFactory.getDefaultInstance(), "web-client-id.apps.googleusercontent.com");
+
+		for (TokenVerifier remote : new TokenVerifier[] {facebook, google}) {
+			unit = new NegativeCachingTokenVerifier(remote, 100, Duration.standardSeconds(30));
+			for (int i = 0; i < 2; i++) {
+				try {
+					unit.verify(token);
+					fail();
+				} catch (IOException e) {
+					// expected
+				}
+			}
+			assertThat(unit.size(), is(0L));
+		}
+
+		verify(urlFetchService, times(4)).fetch(any(HTTPRequest.class));
+	}
+
+	@Test
+	public void testValidNotRemembered() throws Exception {
+		UserPrincipal principal = new GoogleUserPrincipal("123", "test@example.com");
+		when(delegate.verify(token)).thenReturn(principal);
+
+		assertThat(unit.verify(token), is(principal));
+		assertThat(unit.verify(token), is(principal));
+
+		verify(delegate, times(2)).verify(token);
+	}
+}
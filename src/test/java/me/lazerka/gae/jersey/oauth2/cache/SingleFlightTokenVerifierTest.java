@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2.cache;
+
+import me.lazerka.gae.jersey.oauth2.TokenVerifier;
+import me.lazerka.gae.jersey.oauth2.UserPrincipal;
+import me.lazerka.gae.jersey.oauth2.google.GoogleUserPrincipal;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.security.InvalidKeyException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Mockito.*;
+import static org.testng.Assert.fail;
+
+/**
+ * @author Dzmitry Lazerka
+ */
+public class SingleFlightTokenVerifierTest {
+	static final int THREADS = 10;
+
+	String token = "test-token";
+
+	TokenVerifier delegate;
+	CountDownLatch release;
+	ExecutorService executor;
+
+	SingleFlightTokenVerifier unit;
+
+	@BeforeMethod
+	public void setUp() {
+		delegate = mock(TokenVerifier.class);
+		release = new CountDownLatch(1);
+		executor = Executors.newFixedThreadPool(THREADS);
+
+		unit = new SingleFlightTokenVerifier(delegate);
+	}
+
+	@AfterMethod
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Calls verify() from all threads, and lets the delegate finish once all of them are waiting.
+	 */
+	private List<Future<UserPrincipal>> verifyConcurrently() throws InterruptedException {
+		List<Future<UserPrincipal>> results = new ArrayList<>();
+		for (int i = 0; i < THREADS; i++) {
+			results.add(executor.submit(new Callable<UserPrincipal>() {
+				@Override
+				public UserPrincipal call() throws Exception {
+					return unit.verify(token);
+				}
+			}));
+		}
+
+		long deadline = System.currentTimeMillis() + 10000;
+		while (unit.getCoalescedCount() < THREADS - 1 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		release.countDown();
+
+		return results;
+	}
+
+	private Answer<Object> blocking(final Answer<Object> answer) {
+		return new Answer<Object>() {
+			@Override
+			public Object answer(InvocationOnMock invocation) throws Throwable {
+				release.await(10, TimeUnit.SECONDS);
+				return answer.answer(invocation);
+			}
+		};
+	}
+
+	@Test
+	public void testConcurrentSuccess() throws Exception {
+		final UserPrincipal principal = new GoogleUserPrincipal("123", "test@example.com");
+		when(delegate.verify(token)).thenAnswer(blocking(new Answer<Object>() {
+			@Override
+			public Object answer(InvocationOnMock invocation) {
+				return principal;
+			}
+		}));
+
+		for (Future<UserPrincipal> result : verifyConcurrently()) {
+			assertThat(result.get(10, TimeUnit.SECONDS), is(principal));
+		}
+
+		verify(delegate, times(1)).verify(token);
+		assertThat(unit.getInFlightCount(), is(0));
+	}
+
+	@Test
+	public void testConcurrentFailure() throws Exception {
+		when(delegate.verify(token)).thenAnswer(blocking(new Answer<Object>() {
+			@Override
+			public Object answer(InvocationOnMock invocation) throws Throwable {
+				throw new InvalidKeyException("Test msg");
+			}
+		}));
+
+		for (Future<UserPrincipal> result : verifyConcurrently()) {
+			try {
+				result.get(10, TimeUnit.SECONDS);
+				fail();
+			} catch (ExecutionException e) {
+				assertThat(e.getCause(), instanceOf(InvalidKeyException.class));
+			}
+		}
+
+		verify(delegate, times(1)).verify(token);
+	}
+
+	@Test
+	public void testSequentialNotCoalesced() throws Exception {
+		UserPrincipal principal = new GoogleUserPrincipal("123", "test@example.com");
+		when(delegate.verify(token)).thenReturn(principal);
+
+		unit.verify(token);
+		unit.verify(token);
+
+		verify(delegate, times(2)).verify(token);
+		assertThat(unit.getCoalescedCount(), is(0L));
+	}
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2.diagnostics;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.api.client.googleapis.auth.oauth2.GooglePublicKeysManager;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.appengine.api.urlfetch.URLFetchService;
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.inject.util.Providers;
+import me.lazerka.gae.jersey.oauth2.LazyTokenVerifier;
+import me.lazerka.gae.jersey.oauth2.TokenVerifier;
+import me.lazerka.gae.jersey.oauth2.cache.CachingTokenVerifier;
+import me.lazerka.gae.jersey.oauth2.google.GooglePublicKeysRefresher;
+import me.lazerka.gae.jersey.oauth2.google.GoogleUserPrincipal;
+import me.lazerka.gae.jersey.oauth2.google.TokenVerifierGoogleSignature;
+import me.lazerka.gae.jersey.oauth2.metrics.InMemoryAuthMetrics;
+import me.lazerka.gae.jersey.oauth2.metrics.MeteredTokenVerifier;
+import me.lazerka.gae.jersey.oauth2.urlfetch.HedgingUrlFetchService;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.inject.Provider;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.joda.time.DateTimeZone.UTC;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author Dzmitry Lazerka
+ */
+public class AuthDiagnosticsTest {
+	static final String SCHEME = "TestScheme";
+
+	final DateTime now = new DateTime(2016, 6, 1, 0, 0, UTC);
+
+	@Mock
+	TokenVerifier delegate;
+
+	@Mock
+	Provider<DateTime> nowProvider;
+
+	InMemoryAuthMetrics metrics;
+	TokenVerifier verifier;
+
+	@BeforeMethod
+	public void setUp() throws Exception {
+		MockitoAnnotations.initMocks(this);
+		when(nowProvider.get()).thenReturn(now);
+		when(delegate.getAuthenticationScheme()).thenReturn(SCHEME);
+		when(delegate.verify("token")).thenReturn(new GoogleUserPrincipal("123", "test@example.com"));
+
+		metrics = new InMemoryAuthMetrics();
+		CachingTokenVerifier caching = new CachingTokenVerifier(
+				delegate, 100, Duration.standardMinutes(1), nowProvider, null, metrics);
+		verifier = new MeteredTokenVerifier(caching, metrics);
+	}
+
+	@Test
+	public void testSnapshot() throws Exception {
+		verifier.verify("token");
+		verifier.verify("token");
+		verifier.verify("token");
+
+		GooglePublicKeysRefresher refresher = new GooglePublicKeysRefresher(
+				new GooglePublicKeysManager(new MockHttpTransport(), JacksonFactory.getDefaultInstance()),
+				MoreExecutors.directExecutor(),
+				GooglePublicKeysRefresher.DEFAULT_REFRESH_AHEAD);
+
+		AuthDiagnostics unit = new AuthDiagnostics(
+				ImmutableSet.of(verifier), ImmutableSet.<Diagnosable>of(), metrics, Providers.of(refresher));
+
+		// Must be serializable.
+		ObjectMapper jackson = new ObjectMapper();
+		JsonNode json = jackson.readTree(jackson.writeValueAsString(unit.snapshot(now)));
+
+		JsonNode verifierJson = json.get("verifiers").get(0);
+		assertThat(verifierJson.get("scheme").asText(), is(SCHEME));
+
+		JsonNode chain = verifierJson.get("chain");
+		assertThat(chain.size(), is(3));
+		assertThat(chain.get(0).get("type").asText(), is("MeteredTokenVerifier"));
+		assertThat(chain.get(1).get("type").asText(), is("CachingTokenVerifier"));
+		assertThat(chain.get(1).get("size").asLong(), is(1L));
+		assertThat(chain.get(2).get("type").asText(), is(delegate.getClass().getSimpleName()));
+
+		JsonNode metricsJson = verifierJson.get("metrics");
+		assertThat(metricsJson.get("outcomes").get("SUCCESS").asLong(), is(3L));
+		assertThat(metricsJson.get("latency").get("count").asLong(), is(3L));
+		assertThat(metricsJson.get("cache").get("hits").asLong(), is(2L));
+		assertThat(metricsJson.get("cache").get("misses").asLong(), is(1L));
+
+		assertThat(json.get("rejections").get("401").asLong(), is(0L));
+		assertThat(json.get("googlePublicKeys").get("fetched").asBoolean(), is(false));
+	}
+
+	@Test
+	public void testSnapshotWithoutMetrics() throws Exception {
+		AuthDiagnostics unit = new AuthDiagnostics(ImmutableSet.of(verifier), ImmutableSet.<Diagnosable>of(), null, null);
+
+		ObjectMapper jackson = new ObjectMapper();
+		JsonNode json = jackson.readTree(jackson.writeValueAsString(unit.snapshot(now)));
+
+		assertThat(json.get("verifiers").get(0).has("metrics"), is(false));
+		assertThat(json.has("googlePublicKeys"), is(false));
+	}
+
+	@Test
+	public void testComponents() throws Exception {
+		HedgingUrlFetchService hedging = new HedgingUrlFetchService(mock(URLFetchService.class));
+		AuthDiagnostics unit = new AuthDiagnostics(
+				ImmutableSet.of(verifier), ImmutableSet.<Diagnosable>of(hedging), null, null);
+
+		ObjectMapper jackson = new ObjectMapper();
+		JsonNode json = jackson.readTree(jackson.writeValueAsString(unit.snapshot(now)));
+
+		JsonNode component = json.get("components").get(0);
+		assertThat(component.get("type").asText(), is("HedgingUrlFetchService"));
+		assertThat(component.get("hedgesSent").asLong(), is(0L));
+	}
+
+	@Test
+	public void testLazyGoogleVerifierNotCreated() throws Exception {
+		Supplier<TokenVerifier> google = new Supplier<TokenVerifier>() {
+			@Override
+			public TokenVerifier get() {
+				throw new AssertionError("Must not be created");
+			}
+		};
+		@SuppressWarnings("unchecked")
+		Provider<GooglePublicKeysRefresher> refresher = mock(Provider.class);
+		AuthDiagnostics unit = new AuthDiagnostics(
+				ImmutableSet.<TokenVerifier>of(new LazyTokenVerifier(TokenVerifierGoogleSignature.AUTH_SCHEME, google)),
+				ImmutableSet.<Diagnosable>of(),
+				null,
+				refresher);
+
+		ObjectMapper jackson = new ObjectMapper();
+		JsonNode json = jackson.readTree(jackson.writeValueAsString(unit.snapshot(now)));
+
+		assertThat(json.get("googlePublicKeys").get("initialized").asBoolean(), is(false));
+		verify(refresher, never()).get();
+	}
+}
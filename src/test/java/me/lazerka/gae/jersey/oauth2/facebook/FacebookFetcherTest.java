@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2.facebook;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.appengine.api.urlfetch.HTTPRequest;
+import com.google.appengine.api.urlfetch.HTTPResponse;
+import com.google.appengine.api.urlfetch.URLFetchService;
+import org.joda.time.Duration;
+import org.mockito.ArgumentCaptor;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.inject.Provider;
+import java.io.IOException;
+import java.net.URL;
+import java.security.InvalidKeyException;
+import java.util.Random;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.fail;
+
+/**
+ * @author Dzmitry Lazerka
+ */
+public class FacebookFetcherTest {
+	static final FetchPolicy POLICY = new FetchPolicy(Duration.standardSeconds(2), 2, Duration.millis(1), Duration.millis(5));
+
+	URL url;
+	URLFetchService urlFetchService;
+	HTTPResponse ok = response(200, "{}");
+	HTTPResponse unavailable = response(503, "Service Unavailable");
+
+	FacebookFetcher unit;
+
+	@BeforeMethod
+	public void setUp() throws Exception {
+		url = new URL("https://graph.facebook.com/v2.6/debug_token");
+		urlFetchService = mock(URLFetchService.class);
+		unit = new FacebookFetcher("appId", "secret", new ObjectMapper(), urlFetchService);
+		unit.setPolicy(FetchPolicy.DEBUG_TOKEN, POLICY);
+	}
+
+	@Test
+	public void setsDeadline() throws Exception {
+		when(urlFetchService.fetch(any(HTTPRequest.class))).thenReturn(ok);
+
+		unit.fetch(FetchPolicy.DEBUG_TOKEN, url);
+
+		ArgumentCaptor<HTTPRequest> captor = ArgumentCaptor.forClass(HTTPRequest.class);
+		verify(urlFetchService).fetch(captor.capture());
+		assertThat(captor.getValue().getFetchOptions().getDeadline(), is(2.0));
+		assertThat(captor.getValue().getFetchOptions().getValidateCertificate(), is(true));
+	}
+
+	@Test
+	public void deadlineLimitedByRequestDeadline() throws Exception {
+		when(urlFetchService.fetch(any(HTTPRequest.class))).thenReturn(ok);
+		unit.remainingTime = remaining(Duration.millis(1500));
+
+		unit.fetch(FetchPolicy.DEBUG_TOKEN, url);
+
+		ArgumentCaptor<HTTPRequest> captor = ArgumentCaptor.forClass(HTTPRequest.class);
+		verify(urlFetchService).fetch(captor.capture());
+		assertThat(captor.getValue().getFetchOptions().getDeadline(), is(1.0));
+	}
+
+	@Test
+	public void noTimeLeft() throws Exception {
+		unit.remainingTime = remaining(Duration.millis(300));
+
+		try {
+			unit.fetch(FetchPolicy.DEBUG_TOKEN, url);
+			fail();
+		} catch (IOException e) {
+			verify(urlFetchService, times(0)).fetch(any(HTTPRequest.class));
+		}
+	}
+
+	@Test
+	public void retries5xx() throws Exception {
+		when(urlFetchService.fetch(any(HTTPRequest.class)))
+				.thenReturn(unavailable)
+				.thenReturn(ok);
+
+		assertThat(unit.fetch(FetchPolicy.DEBUG_TOKEN, url), is("{}"));
+
+		verify(urlFetchService, times(2)).fetch(any(HTTPRequest.class));
+	}
+
+	@Test
+	public void retriesIOException() throws Exception {
+		when(urlFetchService.fetch(any(HTTPRequest.class)))
+				.thenThrow(new IOException("timeout"))
+				.thenThrow(new IOException("timeout"))
+				.thenReturn(ok);
+
+		assertThat(unit.fetch(FetchPolicy.DEBUG_TOKEN, url), is("{}"));
+
+		verify(urlFetchService, times(3)).fetch(any(HTTPRequest.class));
+	}
+
+	@Test
+	public void retriesBounded() throws Exception {
+		when(urlFetchService.fetch(any(HTTPRequest.class))).thenReturn(unavailable);
+
+		try {
+			unit.fetch(FetchPolicy.DEBUG_TOKEN, url);
+			fail();
+		} catch (IOException e) {
+			// Facebook outage, not an invalid token.
+			assertThat(e.getMessage(), is("Endpoint response code 503"));
+		}
+
+		verify(urlFetchService, times(3)).fetch(any(HTTPRequest.class));
+	}
+
+	@Test
+	public void clientErrorNotRetried() throws Exception {
+		HTTPResponse badRequest = response(400, "{}");
+		when(urlFetchService.fetch(any(HTTPRequest.class))).thenReturn(badRequest);
+
+		try {
+			unit.fetch(FetchPolicy.DEBUG_TOKEN, url);
+			fail();
+		} catch (InvalidKeyException e) {
+			verify(urlFetchService, times(1)).fetch(any(HTTPRequest.class));
+		}
+	}
+
+	@Test
+	public void accessTokenNotRetriedByDefault() throws Exception {
+		when(urlFetchService.fetch(any(HTTPRequest.class))).thenThrow(new IOException("timeout"));
+
+		try {
+			unit.fetch(FetchPolicy.ACCESS_TOKEN, url);
+			fail();
+		} catch (IOException e) {
+			verify(urlFetchService, times(1)).fetch(any(HTTPRequest.class));
+		}
+	}
+
+	@Test
+	public void backoffJitteredAndCapped() {
+		FetchPolicy policy = new FetchPolicy(Duration.standardSeconds(1), 5, Duration.millis(100), Duration.millis(300));
+		Random random = new Random(42);
+		for (int retry = 0; retry < 5; retry++) {
+			for (int i = 0; i < 100; i++) {
+				assertThat(policy.getBackoffMillis(retry, random), lessThan(Math.min(100L << retry, 300L)));
+			}
+		}
+	}
+
+	private static Provider<Duration> remaining(final Duration duration) {
+		return new Provider<Duration>() {
+			@Override
+			public Duration get() {
+				return duration;
+			}
+		};
+	}
+
+	private static HTTPResponse response(int code, String content) {
+		HTTPResponse response = mock(HTTPResponse.class);
+		when(response.getResponseCode()).thenReturn(code);
+		when(response.getContent()).thenReturn(content.getBytes(UTF_8));
+		return response;
+	}
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2.facebook;
+
+import org.testng.annotations.Test;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * @author Dzmitry Lazerka
+ */
+public class HmacSha256Test {
+	static final int THREADS = 32;
+	static final int ITERATIONS = 2000;
+	static final int MESSAGES = 64;
+
+	final byte[] key = "secret".getBytes(UTF_8);
+
+	@Test
+	public void testSign() throws Exception {
+		HmacSha256 unit = new HmacSha256(key);
+		byte[] data = "payload".getBytes(UTF_8);
+
+		assertThat(Arrays.equals(unit.sign(data), reference(data)), is(true));
+	}
+
+	@Test
+	public void testVerify() {
+		HmacSha256 unit = new HmacSha256(key);
+		byte[] data = "xxpayloadxx".getBytes(UTF_8);
+		byte[] signature = unit.sign("payload".getBytes(UTF_8));
+
+		assertThat(unit.verify(data, 2, 7, signature), is(true));
+		assertThat(unit.verify(data, 0, 7, signature), is(false));
+
+		signature[31] ^= 1;
+		assertThat(unit.verify(data, 2, 7, signature), is(false));
+		assertThat(unit.verify(data, 2, 7, Arrays.copyOf(signature, 16)), is(false));
+	}
+
+	/**
+	 * All threads sign and verify different messages at the same time, using the same instance.
+	 */
+	@Test
+	public void testConcurrent() throws Exception {
+		final HmacSha256 unit = new HmacSha256(key);
+
+		Random random = new Random(42);
+		final byte[][] messages = new byte[MESSAGES][];
+		final byte[][] expected = new byte[MESSAGES][];
+		for (int i = 0; i < MESSAGES; i++) {
+			messages[i] = new byte[1 + random.nextInt(512)];
+			random.nextBytes(messages[i]);
+			expected[i] = reference(messages[i]);
+		}
+
+		final CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try {
+			List<Future<Integer>> results = new ArrayList<>();
+			for (int t = 0; t < THREADS; t++) {
+				final int offset = t;
+				results.add(executor.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() throws Exception {
+						start.await();
+						int errors = 0;
+						for (int i = 0; i < ITERATIONS; i++) {
+							int m = (i + offset) % MESSAGES;
+							if (!Arrays.equals(unit.sign(messages[m]), expected[m])) {
+								errors++;
+							}
+							if (!unit.verify(messages[m], 0, messages[m].length, expected[m])) {
+								errors++;
+							}
+						}
+						return errors;
+					}
+				}));
+			}
+
+			start.countDown();
+
+			for (Future<Integer> result : results) {
+				assertThat(result.get(60, TimeUnit.SECONDS), is(0));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private byte[] reference(byte[] data) throws Exception {
+		Mac mac = Mac.getInstance("HmacSHA256");
+		mac.init(new SecretKeySpec(key, "HmacSHA256"));
+		return mac.doFinal(data);
+	}
+}
@@ -21,7 +21,12 @@ import com.google.appengine.api.urlfetch.HTTPRequest;
 import com.google.appengine.api.urlfetch.HTTPResponse;
 import com.google.appengine.api.urlfetch.URLFetchService;
 import com.google.common.io.Resources;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import com.sun.jersey.spi.container.ContainerRequest;
+import me.lazerka.gae.jersey.oauth2.AsyncTokenVerifiers;
+import me.lazerka.gae.jersey.oauth2.UserPrincipal;
 import org.mockito.ArgumentMatcher;
 import org.mockito.MockitoAnnotations;
 import org.testng.annotations.BeforeMethod;
@@ -33,6 +38,7 @@ import java.net.URISyntaxException;
 import java.net.URL;
 import java.security.InvalidKeyException;
 
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
 import static org.mockito.Matchers.argThat;
@@ -96,6 +102,55 @@ public class TokenVerifierFacebookCodeTest {
 		assertThat(principal.getAccessTokenResponse().get(), is(new AccessTokenResponse("01234|testToken", "bearer", 1234L)));
 	}
 
+	@Test
+	public void testVerifyAsyncPipelines() throws Exception {
+		SettableFuture<HTTPResponse> accessTokenResponse = SettableFuture.create();
+		doReturn(accessTokenResponse)
+				.when(unit.fetcher.urlFetchService)
+				.fetchAsync(argThat(new MyRequestMatcher("/oauth/access_token")));
+
+		HTTPResponse userResponse = mock(HTTPResponse.class);
+		when(userResponse.getResponseCode()).thenReturn(200);
+		when(userResponse.getContent()).thenReturn(Resources.toByteArray(getClass().getResource("user.response.ok.json")));
+		doReturn(Futures.immediateFuture(userResponse))
+				.when(unit.fetcher.urlFetchService)
+				.fetchAsync(argThat(new MyRequestMatcher("/me")));
+
+		ListenableFuture<UserPrincipal> future = unit.verifyAsync(code, directExecutor());
+
+		// Second call waits for the first one, without blocking.
+		assertThat(future.isDone(), is(false));
+		verify(unit.fetcher.urlFetchService, never()).fetchAsync(argThat(new MyRequestMatcher("/me")));
+
+		HTTPResponse response = mock(HTTPResponse.class);
+		when(response.getResponseCode()).thenReturn(200);
+		when(response.getContent()).thenReturn(
+				Resources.toByteArray(getClass().getResource("access_token.response.ok.json")));
+		accessTokenResponse.set(response);
+
+		FacebookUserPrincipal principal = (FacebookUserPrincipal) AsyncTokenVerifiers.await(future);
+		assertThat(principal.getId(), is("1234567890"));
+		assertThat(principal.getFacebookUser().get().getEmail(), is("email@example.com"));
+	}
+
+	@Test
+	public void testVerifyAsync403() throws Exception {
+		HTTPResponse response = mock(HTTPResponse.class);
+		when(response.getResponseCode()).thenReturn(403);
+		when(response.getContent()).thenReturn(
+				Resources.toByteArray(getClass().getResource("access_token.response.invalid.json")));
+		doReturn(Futures.immediateFuture(response))
+				.when(unit.fetcher.urlFetchService)
+				.fetchAsync(argThat(new MyRequestMatcher("/oauth/access_token")));
+
+		try {
+			AsyncTokenVerifiers.await(unit.verifyAsync(code, directExecutor()));
+			fail();
+		} catch (InvalidKeyException e) {
+			// Expected.
+		}
+	}
+
 	@Test
 	public void testVerify403() throws Exception {
 		{
@@ -23,6 +23,7 @@ import com.google.appengine.api.urlfetch.URLFetchService;
 import com.google.common.io.Resources;
 import com.sun.jersey.spi.container.ContainerRequest;
 import org.joda.time.DateTime;
+import org.joda.time.Duration;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.testng.annotations.BeforeMethod;
@@ -33,12 +34,17 @@ import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.security.InvalidKeyException;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
+import static org.joda.time.DateTimeZone.UTC;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.testng.Assert.fail;
 
 /**
  * @author Dzmitry Lazerka
@@ -93,4 +99,68 @@ public class TokenVerifierFacebookSignedRequestTest {
 		assertThat(principal.getId(), is("10153390127171076"));
 		assertThat(principal.getAccessTokenResponse().get().getAccessToken(), is("01234|testToken"));
 	}
+
+	@Test
+	public void testVerifyForgedNotParsed() throws Exception {
+		// Payload isn't even JSON, so if it was parsed before signature check, we would get JsonParseException.
+		String forged = accessToken.substring(0, accessToken.indexOf('.')) + ".bm90IGpzb24";
+		try {
+			unit.verify(forged);
+			fail();
+		} catch (InvalidKeyException e) {
+			assertThat(e.getMessage(), is("Signature invalid"));
+		}
+
+		verify(unit.fetcher.urlFetchService, never()).fetch(any(HTTPRequest.class));
+	}
+
+	@Test(expectedExceptions = InvalidKeyException.class)
+	public void testVerifyMalformed() throws Exception {
+		unit.verify("no-period-here");
+	}
+
+	@Test(expectedExceptions = InvalidKeyException.class)
+	public void testVerifyNotBase64() throws Exception {
+		unit.verify("!!!." + accessToken.substring(accessToken.indexOf('.') + 1));
+	}
+
+	@Test
+	public void testVerifyOffline() throws Exception {
+		DateTime issuedAt = new DateTime(1463344737000L, UTC);
+		when(nowProvider.get()).thenReturn(issuedAt.plusMinutes(1));
+		TokenVerifierFacebookSignedRequest offline =
+				new TokenVerifierFacebookSignedRequest(jackson, "secret", Duration.standardMinutes(5), nowProvider);
+
+		FacebookUserPrincipal principal = offline.verify(accessToken);
+
+		assertThat(principal.getId(), is("10153390127171076"));
+		assertThat(principal.getAccessTokenResponse().isPresent(), is(false));
+		assertThat(principal.getExpiresAt(), is(issuedAt.plusMinutes(5)));
+	}
+
+	@Test(expectedExceptions = InvalidKeyException.class)
+	public void testVerifyOfflineTooOld() throws Exception {
+		when(nowProvider.get()).thenReturn(new DateTime(1463344737000L, UTC).plusMinutes(5));
+		TokenVerifierFacebookSignedRequest offline =
+				new TokenVerifierFacebookSignedRequest(jackson, "secret", Duration.standardMinutes(5), nowProvider);
+
+		offline.verify(accessToken);
+	}
+
+	@Test(expectedExceptions = InvalidKeyException.class)
+	public void testVerifyOfflineFromFuture() throws Exception {
+		when(nowProvider.get()).thenReturn(new DateTime(1463344737000L, UTC).minusMinutes(2));
+		TokenVerifierFacebookSignedRequest offline =
+				new TokenVerifierFacebookSignedRequest(jackson, "secret", Duration.standardMinutes(5), nowProvider);
+
+		offline.verify(accessToken);
+	}
+
+	@Test(expectedExceptions = IllegalStateException.class)
+	public void testSetFetchPolicyOffline() {
+		TokenVerifierFacebookSignedRequest offline =
+				new TokenVerifierFacebookSignedRequest(jackson, "secret", Duration.standardMinutes(5), nowProvider);
+
+		offline.setFetchPolicy(FetchPolicy.ACCESS_TOKEN, FetchPolicy.DEFAULT_ACCESS_TOKEN);
+	}
 }
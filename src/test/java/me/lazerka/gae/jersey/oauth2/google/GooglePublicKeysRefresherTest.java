@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2.google;
+
+import com.google.api.client.googleapis.auth.oauth2.GooglePublicKeysManager;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.testing.http.FixedClock;
+import org.joda.time.Duration;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+/**
+ * @author Dzmitry Lazerka
+ */
+public class GooglePublicKeysRefresherTest {
+	FixedClock clock;
+	MockCertsTransport transport;
+	List<Runnable> scheduled;
+
+	GooglePublicKeysRefresher unit;
+
+	@BeforeMethod
+	public void setUp() throws IOException {
+		clock = new FixedClock(1000000000000L);
+		scheduled = new ArrayList<>();
+		transport = new MockCertsTransport();
+		transport.setCerts("test-cert-1.pem");
+
+		GooglePublicKeysManager manager = new GooglePublicKeysManager.Builder(
+				transport,
+				JacksonFactory.getDefaultInstance()
+		)
+				.setClock(clock)
+				.build();
+
+		Executor executor = new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				scheduled.add(command);
+			}
+		};
+
+		unit = new GooglePublicKeysRefresher(
+				manager,
+				executor,
+				Duration.standardMinutes(30),
+				Duration.standardMinutes(1));
+	}
+
+	@Test
+	public void testFirstFetchSynchronous() throws Exception {
+		List<PublicKey> keys = unit.getPublicKeys();
+
+		assertThat(keys, hasSize(1));
+		assertThat(transport.getFetches(), is(1));
+		assertThat(scheduled, empty());
+		assertThat(
+				unit.getKeySet().getExpiresAt().getMillis(),
+				is(clock.currentTimeMillis() + MockCertsTransport.MAX_AGE_SECONDS * 1000));
+	}
+
+	@Test
+	public void testValidKeysNotRefreshed() throws Exception {
+		unit.getPublicKeys();
+		clock.setTime(clock.currentTimeMillis() + 3600 * 1000);
+		unit.getPublicKeys();
+
+		assertThat(transport.getFetches(), is(1));
+		assertThat(scheduled, empty());
+	}
+
+	@Test
+	public void testRefreshAhead() throws Exception {
+		List<PublicKey> oldKeys = unit.getPublicKeys();
+		long expiresAt = unit.getKeySet().getExpiresAt().getMillis();
+
+		// Google rotated keys, and our keys are about to expire.
+		transport.setCerts("test-cert-1.pem", "test-cert-2.pem");
+		clock.setTime(expiresAt - 60 * 1000);
+
+		// Request threads get current keys without waiting, and only one refresh is scheduled.
+		assertThat(unit.getPublicKeys(), is(oldKeys));
+		assertThat(unit.getPublicKeys(), is(oldKeys));
+		assertThat(transport.getFetches(), is(1));
+		assertThat(scheduled, hasSize(1));
+
+		scheduled.get(0).run();
+
+		assertThat(transport.getFetches(), is(2));
+		assertThat(unit.getPublicKeys(), hasSize(2));
+		assertThat(unit.getKeySet().getExpiresAt().getMillis(), greaterThan(expiresAt));
+	}
+
+	@Test
+	public void testShortLivedKeysRefreshedAtHalfLife() throws Exception {
+		// Keys live shorter than refresh-ahead.
+		transport.setMaxAgeSeconds(20 * 60);
+		unit.getPublicKeys();
+		long fetchedAt = clock.currentTimeMillis();
+		assertThat(unit.getRefreshAt(unit.getKeySet()).getMillis(), is(fetchedAt + 10 * 60 * 1000));
+
+		clock.setTime(fetchedAt + 60 * 1000);
+		unit.getPublicKeys();
+		assertThat(scheduled, empty());
+
+		clock.setTime(fetchedAt + 11 * 60 * 1000);
+		unit.getPublicKeys();
+		assertThat(scheduled, hasSize(1));
+
+		// Fresh keys are not due for refresh again.
+		scheduled.remove(0).run();
+		unit.getPublicKeys();
+		assertThat(scheduled, empty());
+		assertThat(transport.getFetches(), is(2));
+	}
+
+	@Test
+	public void testExpiredRefreshedSynchronously() throws Exception {
+		unit.getPublicKeys();
+		long expiresAt = unit.getKeySet().getExpiresAt().getMillis();
+
+		transport.setCerts("test-cert-2.pem");
+		clock.setTime(expiresAt + 1);
+
+		List<PublicKey> keys = unit.getPublicKeys();
+
+		assertThat(transport.getFetches(), is(2));
+		assertThat(keys, hasSize(1));
+		assertThat(scheduled, empty());
+	}
+
+	@Test
+	public void testGetPublicKeyById() throws Exception {
+		transport.setCerts("test-cert-1.pem", "test-cert-2.pem");
+
+		PublicKey key1 = unit.getPublicKey("test-cert-1.pem");
+		PublicKey key2 = unit.getPublicKey("test-cert-2.pem");
+
+		assertThat(key1, notNullValue());
+		assertThat(key2, notNullValue());
+		assertThat(key1, not(key2));
+		assertThat(transport.getFetches(), is(1));
+	}
+
+	@Test
+	public void testUnknownKeyRefreshRateLimited() throws Exception {
+		unit.getPublicKeys();
+		clock.setTime(clock.currentTimeMillis() + 2 * 60 * 1000);
+
+		// Google rotated keys before our ones expired.
+		transport.setCerts("test-cert-1.pem", "test-cert-2.pem");
+		assertThat(unit.getPublicKey("test-cert-2.pem"), notNullValue());
+		assertThat(transport.getFetches(), is(2));
+
+		// Garbage key IDs don't make us fetch again.
+		assertThat(unit.getPublicKey("unknown"), nullValue());
+		assertThat(unit.getPublicKey("unknown"), nullValue());
+		assertThat(transport.getFetches(), is(2));
+
+		clock.setTime(clock.currentTimeMillis() + 2 * 60 * 1000);
+		assertThat(unit.getPublicKey("unknown"), nullValue());
+		assertThat(transport.getFetches(), is(3));
+	}
+
+	@Test(timeOut = 10000)
+	public void testUnknownKeyDoesNotWaitForRefresh() throws Exception {
+		unit.getPublicKeys();
+
+		// Refresh is in flight, and the endpoint is slow.
+		CountDownLatch gate = new CountDownLatch(1);
+		transport.setGate(gate);
+		Thread refresher = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					unit.refresh();
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			}
+		});
+		refresher.start();
+		while (transport.getFetches() < 2) {
+			Thread.sleep(1);
+		}
+
+		assertThat(unit.getPublicKey("unknown"), nullValue());
+
+		gate.countDown();
+		refresher.join();
+	}
+
+	@Test
+	public void testGetCacheTimeSeconds() {
+		HttpHeaders headers = new HttpHeaders()
+				.setCacheControl("public, max-age=22000, must-revalidate, no-transform")
+				.setAge(1000L);
+
+		assertThat(GooglePublicKeysRefresher.getCacheTimeSeconds(headers), is(21000L));
+	}
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2.google;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Resources;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Serves Google certificates endpoint with test certificates from resources, using resource names as key IDs.
+ *
+ * @author Dzmitry Lazerka
+ */
+class MockCertsTransport extends MockHttpTransport {
+	static final long MAX_AGE_SECONDS = 6 * 3600;
+
+	private final AtomicInteger fetches = new AtomicInteger();
+	private volatile String certsJson = "{}";
+	private volatile long maxAgeSeconds = MAX_AGE_SECONDS;
+
+	/** If set, fetches wait for it, to simulate slow endpoint. */
+	private volatile CountDownLatch gate;
+
+	void setCerts(String... resources) throws IOException {
+		ImmutableMap.Builder<String, String> certs = ImmutableMap.builder();
+		for (String resource : resources) {
+			certs.put(resource, Resources.toString(getClass().getResource(resource), UTF_8));
+		}
+		certsJson = new ObjectMapper().writeValueAsString(certs.build());
+	}
+
+	void setMaxAgeSeconds(long maxAgeSeconds) {
+		this.maxAgeSeconds = maxAgeSeconds;
+	}
+
+	void setGate(CountDownLatch gate) {
+		this.gate = gate;
+	}
+
+	int getFetches() {
+		return fetches.get();
+	}
+
+	@Override
+	public LowLevelHttpRequest buildRequest(String method, String url) {
+		fetches.incrementAndGet();
+		CountDownLatch gate = this.gate;
+		if (gate != null) {
+			Uninterruptibles.awaitUninterruptibly(gate);
+		}
+		MockLowLevelHttpResponse response = new MockLowLevelHttpResponse()
+				.setContentType("application/json")
+				.setContent(certsJson)
+				.addHeader("Cache-Control", "public, max-age=" + maxAgeSeconds);
+		return new MockLowLevelHttpRequest(url).setResponse(response);
+	}
+}
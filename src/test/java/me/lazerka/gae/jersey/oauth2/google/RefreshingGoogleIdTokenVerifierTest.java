@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2.google;
+
+import com.google.api.client.googleapis.auth.oauth2.GoogleIdToken;
+import com.google.api.client.googleapis.auth.oauth2.GoogleIdToken.Payload;
+import com.google.api.client.googleapis.auth.oauth2.GoogleIdTokenVerifier;
+import com.google.api.client.googleapis.auth.oauth2.GooglePublicKeysManager;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.json.webtoken.JsonWebSignature;
+import com.google.api.client.testing.http.FixedClock;
+import com.google.api.client.util.PemReader;
+import com.google.api.client.util.SecurityUtils;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.joda.time.Duration;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.spec.PKCS8EncodedKeySpec;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Uses real RSA keys from test resources.
+ *
+ * @author Dzmitry Lazerka
+ */
+public class RefreshingGoogleIdTokenVerifierTest {
+	static final String CLIENT_ID = "web-client-id.apps.googleusercontent.com";
+
+	final JsonFactory jsonFactory = JacksonFactory.getDefaultInstance();
+
+	FixedClock clock;
+	MockCertsTransport transport;
+
+	RefreshingGoogleIdTokenVerifier unit;
+
+	@BeforeMethod
+	public void setUp() throws IOException {
+		clock = new FixedClock(1000000000000L);
+		transport = new MockCertsTransport();
+		transport.setCerts("test-cert-1.pem");
+
+		GooglePublicKeysManager manager = new GooglePublicKeysManager.Builder(transport, jsonFactory)
+				.setClock(clock)
+				.build();
+		GooglePublicKeysRefresher refresher = new GooglePublicKeysRefresher(
+				manager,
+				MoreExecutors.directExecutor(),
+				Duration.standardMinutes(30),
+				Duration.standardMinutes(1));
+
+		GoogleIdTokenVerifier.Builder builder = new GoogleIdTokenVerifier.Builder(manager)
+				.setAudience(ImmutableList.of(CLIENT_ID))
+				.setIssuer("https://accounts.google.com")
+				.setClock(clock);
+		unit = new RefreshingGoogleIdTokenVerifier(builder, refresher);
+	}
+
+	private GoogleIdToken sign(String keyResource, String keyId) throws IOException, GeneralSecurityException {
+		PrivateKey privateKey;
+		try (Reader reader = new InputStreamReader(getClass().getResourceAsStream(keyResource), UTF_8)) {
+			byte[] bytes = PemReader.readFirstSectionAndClose(reader, "PRIVATE KEY").getBase64DecodedBytes();
+			privateKey = SecurityUtils.getRsaKeyFactory().generatePrivate(new PKCS8EncodedKeySpec(bytes));
+		}
+
+		JsonWebSignature.Header header = new JsonWebSignature.Header()
+				.setAlgorithm("RS256")
+				.setKeyId(keyId);
+		long now = clock.currentTimeMillis() / 1000;
+		Payload payload = new Payload()
+				.setIssuer("https://accounts.google.com")
+				.setAudience(CLIENT_ID)
+				.setSubject("1234")
+				.setEmail("test@example.com")
+				.setIssuedAtTimeSeconds(now)
+				.setExpirationTimeSeconds(now + 3600);
+
+		String token = JsonWebSignature.signUsingRsaSha256(privateKey, jsonFactory, header, payload);
+		return GoogleIdToken.parse(jsonFactory, token);
+	}
+
+	@Test
+	public void testVerifyOk() throws Exception {
+		transport.setCerts("test-cert-1.pem", "test-cert-2.pem");
+
+		assertThat(unit.verify(sign("test-key-2.pem", "test-cert-2.pem")), is(true));
+		assertThat(unit.verify(sign("test-key-1.pem", "test-cert-1.pem")), is(true));
+		assertThat(transport.getFetches(), is(1));
+	}
+
+	@Test
+	public void testVerifyWrongKeyId() throws Exception {
+		transport.setCerts("test-cert-1.pem", "test-cert-2.pem");
+
+		assertThat(unit.verify(sign("test-key-1.pem", "test-cert-2.pem")), is(false));
+	}
+
+	@Test
+	public void testVerifyRotatedKey() throws Exception {
+		assertThat(unit.verify(sign("test-key-1.pem", "test-cert-1.pem")), is(true));
+		clock.setTime(clock.currentTimeMillis() + 2 * 60 * 1000);
+
+		transport.setCerts("test-cert-1.pem", "test-cert-2.pem");
+		assertThat(unit.verify(sign("test-key-2.pem", "test-cert-2.pem")), is(true));
+		assertThat(transport.getFetches(), is(2));
+	}
+
+	@Test
+	public void testVerifyNoKeyId() throws Exception {
+		transport.setCerts("test-cert-1.pem", "test-cert-2.pem");
+
+		assertThat(unit.verify(sign("test-key-2.pem", null)), is(true));
+	}
+
+	@Test
+	public void testVerifyWrongAudience() throws Exception {
+		GoogleIdToken idToken = sign("test-key-1.pem", "test-cert-1.pem");
+		idToken.getPayload().setAudience("other.apps.googleusercontent.com");
+
+		assertThat(unit.verify(idToken), is(false));
+		assertThat(transport.getFetches(), is(0));
+	}
+}
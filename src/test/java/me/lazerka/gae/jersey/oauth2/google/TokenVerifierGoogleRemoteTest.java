@@ -21,7 +21,10 @@ import com.google.appengine.api.urlfetch.HTTPRequest;
 import com.google.appengine.api.urlfetch.HTTPResponse;
 import com.google.appengine.api.urlfetch.URLFetchService;
 import com.google.common.io.Resources;
+import com.google.common.util.concurrent.Futures;
 import com.sun.jersey.spi.container.ContainerRequest;
+import me.lazerka.gae.jersey.oauth2.AsyncTokenVerifiers;
+import me.lazerka.gae.jersey.oauth2.UserPrincipal;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
@@ -31,8 +34,11 @@ import java.net.URISyntaxException;
 import java.net.URL;
 import java.security.InvalidKeyException;
 
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -61,6 +67,8 @@ public class TokenVerifierGoogleRemoteTest {
 				.thenReturn(URI.create("https://example.com"));
 		when(unit.urlFetchService.fetch(any(HTTPRequest.class)))
 				.thenReturn(remoteResponse);
+		when(unit.urlFetchService.fetchAsync(any(HTTPRequest.class)))
+				.thenReturn(Futures.immediateFuture(remoteResponse));
 
 	}
 
@@ -90,4 +98,42 @@ public class TokenVerifierGoogleRemoteTest {
 		}
 		fail();
 	}
+
+	@Test
+	public void testVerifyServerError() throws Exception {
+		when(remoteResponse.getResponseCode()).thenReturn(503);
+		when(remoteResponse.getContent()).thenReturn("Service Unavailable".getBytes(UTF_8));
+
+		try {
+			unit.verify(token);
+			fail();
+		} catch (IOException e) {
+			assertThat(e.getMessage(), containsString("503"));
+		}
+	}
+
+	@Test
+	public void testVerifyAsync() throws Exception {
+		URL resource = getClass().getResource("remote-response.ok.json");
+		when(remoteResponse.getResponseCode()).thenReturn(200);
+		when(remoteResponse.getContent()).thenReturn(Resources.toByteArray(resource));
+
+		UserPrincipal principal = AsyncTokenVerifiers.await(unit.verifyAsync(token, directExecutor()));
+
+		assertThat(principal.getId(), is("123456"));
+	}
+
+	@Test
+	public void testVerifyAsyncInvalidValue() throws Exception {
+		URL resource = getClass().getResource("remote-response.invalid-value.json");
+		when(remoteResponse.getResponseCode()).thenReturn(403);
+		when(remoteResponse.getContent()).thenReturn(Resources.toByteArray(resource));
+
+		try {
+			AsyncTokenVerifiers.await(unit.verifyAsync(token, directExecutor()));
+			fail();
+		} catch (InvalidKeyException e) {
+			assertThat(e.getMessage(), containsString("Invalid Value"));
+		}
+	}
 }
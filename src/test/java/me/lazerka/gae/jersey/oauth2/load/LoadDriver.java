@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2.load;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Runs an operation concurrently from fixed number of threads, and measures latency of every call.
+ *
+ * @author Dzmitry Lazerka
+ */
+public class LoadDriver {
+	private static final Logger logger = LoggerFactory.getLogger(LoadDriver.class);
+
+	private final int threads;
+	private final int operationsPerThread;
+
+	public LoadDriver(int threads, int operationsPerThread) {
+		checkArgument(threads > 0 && operationsPerThread > 0);
+		this.threads = threads;
+		this.operationsPerThread = operationsPerThread;
+	}
+
+	/**
+	 * Operation that throws is counted as failed, but its latency is still measured.
+	 */
+	public interface Operation {
+		void run(int thread, int i) throws Exception;
+	}
+
+	public LoadReport run(final Operation operation) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		final CountDownLatch start = new CountDownLatch(1);
+		final AtomicLong failures = new AtomicLong();
+
+		try {
+			List<Future<long[]>> futures = new ArrayList<>(threads);
+			for (int t = 0; t < threads; t++) {
+				final int thread = t;
+				futures.add(executor.submit(new Callable<long[]>() {
+					@Override
+					public long[] call() throws InterruptedException {
+						long[] latencies = new long[operationsPerThread];
+						start.await();
+						for (int i = 0; i < operationsPerThread; i++) {
+							long startedAt = System.nanoTime();
+							try {
+								operation.run(thread, i);
+							} catch (Exception e) {
+								logger.trace("Operation failed", e);
+								failures.incrementAndGet();
+							}
+							latencies[i] = System.nanoTime() - startedAt;
+						}
+						return latencies;
+					}
+				}));
+			}
+
+			long startedAt = System.nanoTime();
+			start.countDown();
+
+			long[] all = new long[threads * operationsPerThread];
+			int pos = 0;
+			for (Future<long[]> future : futures) {
+				long[] latencies = future.get();
+				System.arraycopy(latencies, 0, all, pos, latencies.length);
+				pos += latencies.length;
+			}
+			long elapsed = System.nanoTime() - startedAt;
+
+			return new LoadReport(threads, elapsed, all, failures.get());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2.load;
+
+import com.google.common.base.MoreObjects;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Throughput and latency percentiles of a load run.
+ *
+ * @author Dzmitry Lazerka
+ */
+public class LoadReport {
+	private final int threads;
+	private final long elapsedNanos;
+	private final long[] sortedLatenciesNanos;
+	private final long failures;
+
+	LoadReport(int threads, long elapsedNanos, long[] latenciesNanos, long failures) {
+		this.threads = threads;
+		this.elapsedNanos = elapsedNanos;
+		this.sortedLatenciesNanos = latenciesNanos.clone();
+		this.failures = failures;
+		Arrays.sort(sortedLatenciesNanos);
+	}
+
+	public long getCount() {
+		return sortedLatenciesNanos.length;
+	}
+
+	public long getFailures() {
+		return failures;
+	}
+
+	/** Operations per second, failed ones included. */
+	public double getThroughput() {
+		return getCount() * 1e9 / elapsedNanos;
+	}
+
+	/**
+	 * Nearest-rank percentile.
+	 *
+	 * @param percentile e.g. 99.9
+	 */
+	public long getLatency(double percentile, TimeUnit unit) {
+		checkArgument(percentile > 0 && percentile <= 100, percentile);
+		checkArgument(sortedLatenciesNanos.length > 0, "No operations");
+		int rank = (int) Math.ceil(percentile / 100 * sortedLatenciesNanos.length);
+		return unit.convert(sortedLatenciesNanos[rank - 1], TimeUnit.NANOSECONDS);
+	}
+
+	private String formatMillis(double percentile) {
+		return String.format(Locale.ROOT, "%.2fms", getLatency(percentile, TimeUnit.MICROSECONDS) / 1000d);
+	}
+
+	@Override
+	public String toString() {
+		return MoreObjects.toStringHelper(this)
+				.add("threads", threads)
+				.add("count", getCount())
+				.add("failures", failures)
+				.add("throughput", String.format(Locale.ROOT, "%.1f/s", getThroughput()))
+				.add("p50", formatMillis(50))
+				.add("p99", formatMillis(99))
+				.add("p999", formatMillis(99.9))
+				.add("max", formatMillis(100))
+				.toString();
+	}
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2.load;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.appengine.api.urlfetch.URLFetchService;
+import com.google.appengine.api.users.User;
+import com.google.appengine.api.users.UserService;
+import com.google.common.collect.ImmutableSet;
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.multibindings.Multibinder;
+import com.google.inject.name.Names;
+import com.sun.jersey.core.header.InBoundHeaders;
+import com.sun.jersey.spi.container.ContainerRequest;
+import com.sun.jersey.spi.container.WebApplication;
+import com.sun.jersey.spi.container.WebApplicationFactory;
+import me.lazerka.gae.jersey.oauth2.AuthFilter;
+import me.lazerka.gae.jersey.oauth2.GaeOauthAuthFilter;
+import me.lazerka.gae.jersey.oauth2.Role;
+import me.lazerka.gae.jersey.oauth2.TokenVerifier;
+import me.lazerka.gae.jersey.oauth2.facebook.TokenVerifierFacebookDebugToken;
+import me.lazerka.gae.jersey.oauth2.google.TokenVerifierGoogleRemote;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.inject.Provider;
+import javax.ws.rs.core.SecurityContext;
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.security.Principal;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+/**
+ * Pushes requests through {@link GaeOauthAuthFilter} with remote verifiers talking to {@link StubProviderServer}.
+ *
+ * Short by default, to keep the build fast. For a real load run:
+ * `mvn test -Dtest=LoadTest -Dload.threads=64 -Dload.operations=10000`.
+ *
+ * @author Dzmitry Lazerka
+ */
+public class LoadTest {
+	private static final Logger logger = LoggerFactory.getLogger(LoadTest.class);
+
+	final int threads = Integer.getInteger("load.threads", 8);
+	final int operations = Integer.getInteger("load.operations", 50);
+
+	StubProviderServer server;
+	ExecutorService asyncExecutor;
+	WebApplication webApplication;
+	Injector injector;
+
+	@BeforeMethod
+	public void setUp() throws Exception {
+		server = new StubProviderServer();
+		server.start();
+		asyncExecutor = Executors.newCachedThreadPool();
+		webApplication = WebApplicationFactory.createWebApplication();
+
+		final URLFetchService urlFetchService = new LocalUrlFetchService(server.getPort(), asyncExecutor);
+		injector = Guice.createInjector(new AbstractModule() {
+			@Override
+			protected void configure() {
+				TokenVerifier google = new TokenVerifierGoogleRemote(
+						urlFetchService,
+						JacksonFactory.getDefaultInstance(),
+						StubProviderServer.GOOGLE_CLIENT_ID);
+				TokenVerifier facebook = new TokenVerifierFacebookDebugToken(
+						urlFetchService,
+						new ObjectMapper(),
+						StubProviderServer.FACEBOOK_APP_ID,
+						"secret",
+						new Provider<DateTime>() {
+							@Override
+							public DateTime get() {
+								return DateTime.now();
+							}
+						});
+
+				Multibinder<TokenVerifier> multibinder = Multibinder.newSetBinder(binder(), TokenVerifier.class);
+				multibinder.addBinding().toInstance(google);
+				multibinder.addBinding().toInstance(facebook);
+				bind(TokenVerifier.class).annotatedWith(Names.named("default")).toInstance(google);
+				bind(UserService.class).toInstance(new LoggedOutUserService());
+				bind(AuthFilter.class).to(GaeOauthAuthFilter.class);
+			}
+		});
+	}
+
+	@AfterMethod
+	public void tearDown() {
+		server.stop();
+		asyncExecutor.shutdownNow();
+	}
+
+	private AuthFilter createFilter() {
+		AuthFilter filter = injector.getInstance(AuthFilter.class);
+		filter.setRolesAllowed(ImmutableSet.of(Role.USER));
+		return filter;
+	}
+
+	private ContainerRequest createRequest(String token, String scheme) {
+		InBoundHeaders headers = new InBoundHeaders();
+		headers.putSingle("Authorization", "Bearer " + token);
+		headers.putSingle("X-Authorization-Scheme", scheme);
+		ContainerRequest request = new ContainerRequest(
+				webApplication,
+				"GET",
+				URI.create("https://example.com/"),
+				URI.create("https://example.com/resource"),
+				headers,
+				new ByteArrayInputStream(new byte[0]));
+		request.setSecurityContext(new HttpsSecurityContext());
+		return request;
+	}
+
+	@Test
+	public void testGoogleRemote() throws Exception {
+		server.setLatency(1, 1, TimeUnit.MILLISECONDS);
+		final AuthFilter filter = createFilter();
+
+		LoadReport report = new LoadDriver(threads, operations).run(new LoadDriver.Operation() {
+			@Override
+			public void run(int thread, int i) {
+				String token = "user-" + thread + "-" + i;
+				filter.filter(createRequest(token, TokenVerifierGoogleRemote.AUTH_SCHEME));
+			}
+		});
+		logger.info("Google remote: {}", report);
+
+		assertThat(report.getCount(), is((long) threads * operations));
+		assertThat(report.getFailures(), is(0L));
+		assertThat(server.getRequestCount(), is((long) threads * operations));
+		assertThat(report.getLatency(50, TimeUnit.MICROSECONDS), greaterThanOrEqualTo(1000L));
+	}
+
+	@Test
+	public void testFacebookWithFailures() throws Exception {
+		server.setLatency(1, 1, TimeUnit.MILLISECONDS);
+		server.setErrorRate(0.05);
+		final AuthFilter filter = createFilter();
+
+		LoadReport report = new LoadDriver(threads, operations).run(new LoadDriver.Operation() {
+			@Override
+			public void run(int thread, int i) {
+				// Every tenth token is rejected by provider.
+				String prefix = i % 10 == 0 ? StubProviderServer.INVALID_PREFIX : "user";
+				String token = prefix + "-" + thread + "-" + i;
+				filter.filter(createRequest(token, TokenVerifierFacebookDebugToken.AUTH_SCHEME));
+			}
+		});
+		logger.info("Facebook /debug_token with failures: {}", report);
+
+		int invalid = threads * ((operations + 9) / 10);
+		assertThat(report.getFailures(), greaterThanOrEqualTo((long) invalid));
+		assertThat(report.getFailures(), lessThan(report.getCount()));
+	}
+
+	/**
+	 * What servlet container provides for an HTTPS request before any authentication.
+	 */
+	static class HttpsSecurityContext implements SecurityContext {
+		@Override
+		public Principal getUserPrincipal() {
+			return null;
+		}
+
+		@Override
+		public boolean isUserInRole(String role) {
+			return false;
+		}
+
+		@Override
+		public boolean isSecure() {
+			return true;
+		}
+
+		@Override
+		public String getAuthenticationScheme() {
+			return null;
+		}
+	}
+
+	/**
+	 * Thread-safe and cheap, unlike a mock.
+	 */
+	static class LoggedOutUserService implements UserService {
+		@Override
+		public String createLoginURL(String destinationURL) {
+			return "https://example.com/login";
+		}
+
+		@Override
+		public String createLoginURL(String destinationURL, String authDomain) {
+			return createLoginURL(destinationURL);
+		}
+
+		@Override
+		public String createLoginURL(
+				String destinationURL,
+				String authDomain,
+				String federatedIdentity,
+				Set<String> attributesRequest
+		) {
+			return createLoginURL(destinationURL);
+		}
+
+		@Override
+		public String createLogoutURL(String destinationURL) {
+			return "https://example.com/logout";
+		}
+
+		@Override
+		public String createLogoutURL(String destinationURL, String authDomain) {
+			return createLogoutURL(destinationURL);
+		}
+
+		@Override
+		public boolean isUserLoggedIn() {
+			return false;
+		}
+
+		@Override
+		public boolean isUserAdmin() {
+			return false;
+		}
+
+		@Override
+		public User getCurrentUser() {
+			return null;
+		}
+	}
+}
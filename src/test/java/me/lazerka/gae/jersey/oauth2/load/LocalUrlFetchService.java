@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2.load;
+
+import com.google.appengine.api.urlfetch.HTTPHeader;
+import com.google.appengine.api.urlfetch.HTTPMethod;
+import com.google.appengine.api.urlfetch.HTTPRequest;
+import com.google.appengine.api.urlfetch.HTTPResponse;
+import com.google.appengine.api.urlfetch.URLFetchService;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * {@link URLFetchService} that sends every request to a local server instead, keeping path and query.
+ * Makes real HTTP calls, so that connection handling and response parsing are part of the load.
+ *
+ * @author Dzmitry Lazerka
+ */
+public class LocalUrlFetchService implements URLFetchService {
+	private final int port;
+	private final ExecutorService asyncExecutor;
+
+	/**
+	 * @param asyncExecutor runs {@link #fetchAsync} calls.
+	 */
+	public LocalUrlFetchService(int port, ExecutorService asyncExecutor) {
+		this.port = port;
+		this.asyncExecutor = checkNotNull(asyncExecutor);
+	}
+
+	URL toLocal(URL url) throws IOException {
+		String file = url.getFile(); // Path with query.
+		return new URL("http", "127.0.0.1", port, file);
+	}
+
+	@Override
+	public HTTPResponse fetch(URL url) throws IOException {
+		return fetch(new HTTPRequest(url));
+	}
+
+	@Override
+	public HTTPResponse fetch(HTTPRequest request) throws IOException {
+		URL url = toLocal(request.getURL());
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		try {
+			connection.setRequestMethod(request.getMethod().name());
+			for (HTTPHeader header : request.getHeaders()) {
+				connection.setRequestProperty(header.getName(), header.getValue());
+			}
+			if (request.getPayload() != null && request.getMethod() != HTTPMethod.GET) {
+				connection.setDoOutput(true);
+				connection.getOutputStream().write(request.getPayload());
+			}
+
+			int responseCode = connection.getResponseCode();
+			InputStream is = responseCode < 400 ? connection.getInputStream() : connection.getErrorStream();
+			byte[] content;
+			try (InputStream in = is) {
+				content = in == null ? new byte[0] : ByteStreams.toByteArray(in);
+			}
+
+			ImmutableList.Builder<HTTPHeader> headers = ImmutableList.builder();
+			for (Entry<String, List<String>> entry : connection.getHeaderFields().entrySet()) {
+				if (entry.getKey() != null) {
+					for (String value : entry.getValue()) {
+						headers.add(new HTTPHeader(entry.getKey(), value));
+					}
+				}
+			}
+
+			return new HTTPResponse(responseCode, content, request.getURL(), headers.build());
+		} catch (IOException e) {
+			connection.disconnect();
+			throw e;
+		}
+	}
+
+	@Override
+	public Future<HTTPResponse> fetchAsync(URL url) {
+		return fetchAsync(new HTTPRequest(url));
+	}
+
+	@Override
+	public Future<HTTPResponse> fetchAsync(final HTTPRequest request) {
+		return asyncExecutor.submit(new Callable<HTTPResponse>() {
+			@Override
+			public HTTPResponse call() throws IOException {
+				return fetch(request);
+			}
+		});
+	}
+}
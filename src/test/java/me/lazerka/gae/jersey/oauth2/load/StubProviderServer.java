@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2.load;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableMap;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Embedded HTTP server that emulates Google and Facebook endpoints used by token verifiers:
+ * Google /tokeninfo, and Facebook /debug_token, /oauth/access_token and /me.
+ *
+ * Any token is valid, and user ID is the token itself, except tokens starting with {@link #INVALID_PREFIX}, which
+ * get 400 like from real endpoints. On top of that, each response is delayed by a configurable latency, and can
+ * randomly fail with 500.
+ *
+ * @author Dzmitry Lazerka
+ */
+public class StubProviderServer {
+	private static final Logger logger = LoggerFactory.getLogger(StubProviderServer.class);
+
+	public static final String INVALID_PREFIX = "invalid";
+
+	public static final String GOOGLE_CLIENT_ID = "web-client-id.apps.googleusercontent.com";
+	public static final String FACEBOOK_APP_ID = "138483919580948";
+
+	private final ObjectMapper jackson = new ObjectMapper();
+	private final AtomicLong requests = new AtomicLong();
+
+	private HttpServer server;
+	private ExecutorService executor;
+
+	private volatile long minLatencyMicros;
+	private volatile long meanExtraLatencyMicros;
+	private volatile double errorRate;
+
+	/**
+	 * Each response takes `min` plus exponentially distributed extra time with mean `meanExtra`, which gives a long
+	 * tail like real remote calls have.
+	 */
+	public void setLatency(long min, long meanExtra, TimeUnit unit) {
+		checkArgument(min >= 0 && meanExtra >= 0);
+		this.minLatencyMicros = unit.toMicros(min);
+		this.meanExtraLatencyMicros = unit.toMicros(meanExtra);
+	}
+
+	/**
+	 * @param errorRate fraction of responses that are 500 Internal Server Error.
+	 */
+	public void setErrorRate(double errorRate) {
+		checkArgument(errorRate >= 0 && errorRate <= 1);
+		this.errorRate = errorRate;
+	}
+
+	public long getRequestCount() {
+		return requests.get();
+	}
+
+	public void start() throws IOException {
+		// Otherwise headers and body go in separate small packets, and Nagle's algorithm adds ~40ms to each response.
+		// Read once, when server classes are loaded.
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+
+		// Unbounded, so that latency of one response doesn't delay others.
+		executor = Executors.newCachedThreadPool();
+		server.setExecutor(executor);
+
+		server.createContext("/oauth2/v3/tokeninfo", new StubHandler("id_token") {
+			@Override
+			Object respond(String token) {
+				long now = System.currentTimeMillis() / 1000;
+				return ImmutableMap.builder()
+						.put("iss", "https://accounts.google.com")
+						.put("aud", GOOGLE_CLIENT_ID)
+						.put("sub", token)
+						.put("email", token + "@example.com")
+						.put("email_verified", true)
+						.put("iat", now)
+						.put("exp", now + 3600)
+						.build();
+			}
+		});
+		server.createContext("/v2.6/debug_token", new StubHandler("input_token") {
+			@Override
+			Object respond(String token) {
+				long now = System.currentTimeMillis() / 1000;
+				return ImmutableMap.of("data", ImmutableMap.builder()
+						.put("app_id", FACEBOOK_APP_ID)
+						.put("application", "Load test")
+						.put("expires_at", now + 3600)
+						.put("is_valid", true)
+						.put("user_id", token)
+						.build());
+			}
+		});
+		server.createContext("/v2.6/oauth/access_token", new StubHandler("code") {
+			@Override
+			Object respond(String code) {
+				return ImmutableMap.of(
+						"access_token", "access-" + code,
+						"token_type", "bearer",
+						"expires_in", 3600);
+			}
+		});
+		server.createContext("/v2.6/me", new StubHandler("access_token") {
+			@Override
+			Object respond(String token) {
+				return ImmutableMap.of(
+						"id", token,
+						"email", token + "@example.com",
+						"name", "Load Test");
+			}
+		});
+
+		server.start();
+		logger.info("Started on port {}", getPort());
+	}
+
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	public void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	private void sleepLatency() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		long micros = minLatencyMicros;
+		if (meanExtraLatencyMicros > 0) {
+			micros += (long) (-Math.log(1 - random.nextDouble()) * meanExtraLatencyMicros);
+		}
+		try {
+			TimeUnit.MICROSECONDS.sleep(micros);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private abstract class StubHandler implements HttpHandler {
+		private final String tokenParam;
+
+		StubHandler(String tokenParam) {
+			this.tokenParam = tokenParam;
+		}
+
+		abstract Object respond(String token);
+
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			requests.incrementAndGet();
+			sleepLatency();
+
+			String token = parseQuery(exchange.getRequestURI().getRawQuery()).get(tokenParam);
+
+			int status;
+			Object body;
+			if (ThreadLocalRandom.current().nextDouble() < errorRate) {
+				status = 500;
+				body = ImmutableMap.of("error", ImmutableMap.of("message", "Stub failure"));
+			} else if (token == null || token.startsWith(INVALID_PREFIX)) {
+				status = 400;
+				body = ImmutableMap.of(
+						"error", ImmutableMap.of("message", "Invalid " + tokenParam, "type", "OAuthException"),
+						"error_description", "Invalid Value");
+			} else {
+				status = 200;
+				body = respond(token);
+			}
+
+			byte[] content = jackson.writeValueAsBytes(body);
+			exchange.getResponseHeaders().set("Content-Type", "application/json");
+			exchange.sendResponseHeaders(status, content.length);
+			try (OutputStream os = exchange.getResponseBody()) {
+				os.write(content);
+			}
+		}
+
+		private Map<String, String> parseQuery(String query) throws IOException {
+			Map<String, String> result = new HashMap<>();
+			if (query == null) {
+				return result;
+			}
+			for (String pair : Splitter.on('&').split(query)) {
+				int eq = pair.indexOf('=');
+				if (eq > 0) {
+					result.put(pair.substring(0, eq), URLDecoder.decode(pair.substring(eq + 1), UTF_8.name()));
+				}
+			}
+			return result;
+		}
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2.metrics;
+
+import me.lazerka.gae.jersey.oauth2.ExpiredTokenException;
+import me.lazerka.gae.jersey.oauth2.TokenVerifier;
+import me.lazerka.gae.jersey.oauth2.UserPrincipal;
+import me.lazerka.gae.jersey.oauth2.cache.NegativeCachingTokenVerifier;
+import me.lazerka.gae.jersey.oauth2.google.GoogleUserPrincipal;
+import me.lazerka.gae.jersey.oauth2.metrics.AuthMetrics.Outcome;
+import org.joda.time.Duration;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.fail;
+
+/**
+ * @author Dzmitry Lazerka
+ */
+public class MeteredTokenVerifierTest {
+	static final String SCHEME = "TestScheme";
+
+	@Mock
+	TokenVerifier delegate;
+
+	InMemoryAuthMetrics metrics;
+	MeteredTokenVerifier unit;
+
+	@BeforeMethod
+	public void setUp() {
+		MockitoAnnotations.initMocks(this);
+		when(delegate.getAuthenticationScheme()).thenReturn(SCHEME);
+
+		metrics = new InMemoryAuthMetrics();
+		unit = new MeteredTokenVerifier(delegate, metrics);
+	}
+
+	private void verifyQuietly(TokenVerifier verifier, String token) {
+		try {
+			verifier.verify(token);
+		} catch (IOException | GeneralSecurityException e) {
+			// Expected.
+		}
+	}
+
+	@Test
+	public void testOutcomes() throws Exception {
+		UserPrincipal principal = new GoogleUserPrincipal("123", "test@example.com");
+		when(delegate.verify("ok")).thenReturn(principal);
+		when(delegate.verify("invalid")).thenThrow(new InvalidKeyException("Invalid"));
+		when(delegate.verify("expired")).thenThrow(new ExpiredTokenException("Expired"));
+		when(delegate.verify("io")).thenThrow(new IOException("Deadline exceeded"));
+
+		assertThat(unit.verify("ok"), is(principal));
+		verifyQuietly(unit, "ok");
+		verifyQuietly(unit, "invalid");
+		verifyQuietly(unit, "expired");
+		verifyQuietly(unit, "io");
+
+		assertThat(metrics.getVerificationCount(SCHEME, Outcome.SUCCESS), is(2L));
+		assertThat(metrics.getVerificationCount(SCHEME, Outcome.INVALID), is(1L));
+		assertThat(metrics.getVerificationCount(SCHEME, Outcome.EXPIRED), is(1L));
+		assertThat(metrics.getVerificationCount(SCHEME, Outcome.IO_ERROR), is(1L));
+		assertThat(metrics.getVerificationLatency(SCHEME).getCount(), is(5L));
+	}
+
+	@Test
+	public void testExpiredThroughNegativeCache() throws Exception {
+		when(delegate.verify("expired")).thenThrow(new ExpiredTokenException("Expired"));
+		TokenVerifier negativeCaching = new NegativeCachingTokenVerifier(delegate, 10, Duration.standardSeconds(30));
+		unit = new MeteredTokenVerifier(negativeCaching, metrics);
+
+		verifyQuietly(unit, "expired");
+		verifyQuietly(unit, "expired");
+
+		assertThat(metrics.getVerificationCount(SCHEME, Outcome.EXPIRED), is(2L));
+	}
+
+	@Test
+	public void testRuntimeExceptionRecorded() throws Exception {
+		when(delegate.verify("bug")).thenThrow(new IllegalStateException());
+
+		try {
+			unit.verify("bug");
+			fail();
+		} catch (IllegalStateException e) {
+			assertThat(metrics.getVerificationCount(SCHEME, Outcome.ERROR), is(1L));
+		}
+	}
+
+	@Test
+	public void testLatencyHistogram() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 0; i < 99; i++) {
+			histogram.record(TimeUnit.MICROSECONDS.toNanos(100));
+		}
+		histogram.record(TimeUnit.MILLISECONDS.toNanos(100));
+
+		assertThat(histogram.getCount(), is(100L));
+		// Bucket upper bounds: 128us and 131072us.
+		assertThat(histogram.getPercentile(50, TimeUnit.MICROSECONDS), is(128L));
+		assertThat(histogram.getPercentile(99, TimeUnit.MICROSECONDS), is(128L));
+		assertThat(histogram.getPercentile(100, TimeUnit.MICROSECONDS), is(131072L));
+		assertThat(histogram.getMean(TimeUnit.MICROSECONDS), greaterThan(100L));
+	}
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2.metrics;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.testng.Assert.fail;
+
+/**
+ * @author Dzmitry Lazerka
+ */
+public class RemoteCallFutureTest {
+	static final String ENDPOINT = "test";
+
+	InMemoryAuthMetrics metrics;
+	SettableFuture<String> call;
+	RemoteCallFuture<String> unit;
+
+	@BeforeMethod
+	public void setUp() {
+		metrics = new InMemoryAuthMetrics();
+		call = SettableFuture.create();
+		unit = new RemoteCallFuture<>(call, metrics, ENDPOINT, System.nanoTime());
+	}
+
+	@Test
+	public void recordedOnceWhenSeenDone() throws Exception {
+		assertThat(unit.isDone(), is(false));
+		assertThat(metrics.getRemoteCallLatency(ENDPOINT), nullValue());
+
+		call.set("response");
+		assertThat(unit.isDone(), is(true));
+		assertThat(unit.get(), is("response"));
+
+		assertThat(metrics.getRemoteCallLatency(ENDPOINT).getCount(), is(1L));
+	}
+
+	@Test
+	public void failureRecorded() throws Exception {
+		call.setException(new IOException("test"));
+		try {
+			unit.get();
+			fail();
+		} catch (ExecutionException e) {
+			assertThat(metrics.getRemoteCallLatency(ENDPOINT).getCount(), is(1L));
+		}
+	}
+
+	@Test
+	public void cancelledNotRecorded() {
+		unit.cancel(true);
+		assertThat(unit.isDone(), is(true));
+		assertThat(metrics.getRemoteCallLatency(ENDPOINT), nullValue());
+	}
+
+	@Test
+	public void listenableCallTimedByListener() throws Exception {
+		ListenableFuture<String> listened =
+				RemoteCallFuture.listen(call, metrics, ENDPOINT, System.nanoTime(), directExecutor());
+		assertThat(listened, sameInstance((ListenableFuture<String>) call));
+
+		call.set("response");
+		assertThat(metrics.getRemoteCallLatency(ENDPOINT).getCount(), is(1L));
+	}
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2.urlfetch;
+
+import com.google.appengine.api.urlfetch.FetchOptions;
+import com.google.appengine.api.urlfetch.HTTPMethod;
+import com.google.appengine.api.urlfetch.HTTPRequest;
+import com.google.appengine.api.urlfetch.HTTPResponse;
+import com.google.appengine.api.urlfetch.URLFetchService;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.SettableFuture;
+import org.joda.time.Duration;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.fail;
+
+/**
+ * @author Dzmitry Lazerka
+ */
+public class HedgingUrlFetchServiceTest {
+	URLFetchService delegate;
+	HTTPRequest request;
+	HTTPResponse response = mock(HTTPResponse.class);
+
+	HedgingUrlFetchService unit;
+
+	@BeforeMethod
+	public void setUp() throws Exception {
+		delegate = mock(URLFetchService.class);
+		request = new HTTPRequest(new URL("https://graph.facebook.com/debug_token"));
+		unit = new HedgingUrlFetchService(delegate, 95, Duration.millis(10), 1);
+	}
+
+	@Test
+	public void fastResponseNotHedged() throws Exception {
+		when(delegate.fetchAsync(any(HTTPRequest.class)))
+				.thenReturn(Futures.immediateFuture(response));
+
+		assertThat(unit.fetch(request), sameInstance(response));
+
+		verify(delegate, times(1)).fetchAsync(any(HTTPRequest.class));
+		assertThat(unit.getHedgesSent(), is(0L));
+	}
+
+	@Test
+	public void slowResponseHedged() throws Exception {
+		SettableFuture<HTTPResponse> slow = SettableFuture.create();
+		when(delegate.fetchAsync(any(HTTPRequest.class)))
+				.thenReturn(slow)
+				.thenReturn(Futures.immediateFuture(response));
+
+		assertThat(unit.fetch(request), sameInstance(response));
+
+		verify(delegate, times(2)).fetchAsync(any(HTTPRequest.class));
+		assertThat(unit.getHedgesSent(), is(1L));
+		assertThat(unit.getHedgesWon(), is(1L));
+		assertThat(slow.isCancelled(), is(true));
+	}
+
+	@Test
+	public void firstFailedHedgeWins() throws Exception {
+		SettableFuture<HTTPResponse> slow = SettableFuture.create();
+		when(delegate.fetchAsync(any(HTTPRequest.class)))
+				.thenReturn(slow)
+				.thenAnswer(failAndReturn(slow, Futures.immediateFuture(response)));
+
+		assertThat(unit.fetch(request), sameInstance(response));
+	}
+
+	@Test
+	public void bothFailed() throws Exception {
+		SettableFuture<HTTPResponse> first = SettableFuture.create();
+		when(delegate.fetchAsync(any(HTTPRequest.class)))
+				.thenReturn(first)
+				.thenAnswer(failAndReturn(
+						first, Futures.<HTTPResponse>immediateFailedFuture(new IOException("second"))));
+
+		try {
+			unit.fetch(request);
+			fail();
+		} catch (IOException e) {
+			assertThat(e.getMessage(), is("first"));
+		}
+	}
+
+	@Test
+	public void budgetExhausted() throws Exception {
+		unit = new HedgingUrlFetchService(delegate, 95, Duration.millis(10), 0);
+
+		final SettableFuture<HTTPResponse> slow = SettableFuture.create();
+		when(delegate.fetchAsync(any(HTTPRequest.class)))
+				.thenReturn(slow);
+		ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+		try {
+			executor.schedule(new Runnable() {
+				@Override
+				public void run() {
+					slow.set(response);
+				}
+			}, 30, TimeUnit.MILLISECONDS);
+
+			assertThat(unit.fetch(request), sameInstance(response));
+		} finally {
+			executor.shutdown();
+		}
+
+		verify(delegate, times(1)).fetchAsync(any(HTTPRequest.class));
+		assertThat(unit.getHedgesSent(), is(0L));
+		assertThat(unit.getHedgesOverBudget(), is(1L));
+	}
+
+	@Test
+	public void postNotHedged() throws Exception {
+		HTTPRequest post = new HTTPRequest(request.getURL(), HTTPMethod.POST);
+		when(delegate.fetch(post)).thenReturn(response);
+
+		assertThat(unit.fetch(post), sameInstance(response));
+
+		verify(delegate, never()).fetchAsync(any(HTTPRequest.class));
+	}
+
+	@Test
+	public void hedgeWinsAfterFirstFailed() throws Exception {
+		SettableFuture<HTTPResponse> first = SettableFuture.create();
+		final SettableFuture<HTTPResponse> second = SettableFuture.create();
+		when(delegate.fetchAsync(any(HTTPRequest.class)))
+				.thenReturn(first)
+				.thenAnswer(failAndReturn(first, second));
+		ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+		try {
+			executor.schedule(new Runnable() {
+				@Override
+				public void run() {
+					second.set(response);
+				}
+			}, 30, TimeUnit.MILLISECONDS);
+
+			assertThat(unit.fetch(request), sameInstance(response));
+		} finally {
+			executor.shutdown();
+		}
+		assertThat(unit.getHedgesWon(), is(1L));
+	}
+
+	@Test
+	public void fastServerErrorDoesNotWin() throws Exception {
+		HTTPResponse serverError = mock(HTTPResponse.class);
+		when(serverError.getResponseCode()).thenReturn(503);
+		final SettableFuture<HTTPResponse> slow = SettableFuture.create();
+		when(delegate.fetchAsync(any(HTTPRequest.class)))
+				.thenReturn(slow)
+				.thenReturn(Futures.immediateFuture(serverError));
+		ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+		try {
+			executor.schedule(new Runnable() {
+				@Override
+				public void run() {
+					slow.set(response);
+				}
+			}, 30, TimeUnit.MILLISECONDS);
+
+			assertThat(unit.fetch(request), sameInstance(response));
+		} finally {
+			executor.shutdown();
+		}
+		assertThat(unit.getHedgesSent(), is(1L));
+		assertThat(unit.getHedgesWon(), is(0L));
+	}
+
+	@Test(timeOut = 10000)
+	public void waitsWithinDeadline() throws Exception {
+		request = new HTTPRequest(request.getURL(), HTTPMethod.GET, FetchOptions.Builder.withDeadline(0.1));
+		SettableFuture<HTTPResponse> first = SettableFuture.create();
+		SettableFuture<HTTPResponse> second = SettableFuture.create();
+		when(delegate.fetchAsync(any(HTTPRequest.class)))
+				.thenReturn(first)
+				.thenReturn(second);
+
+		try {
+			unit.fetch(request);
+			fail();
+		} catch (SocketTimeoutException e) {
+			assertThat(first.isCancelled(), is(true));
+			assertThat(second.isCancelled(), is(true));
+		}
+
+		ArgumentCaptor<HTTPRequest> captor = ArgumentCaptor.forClass(HTTPRequest.class);
+		verify(delegate, times(2)).fetchAsync(captor.capture());
+		List<HTTPRequest> sent = captor.getAllValues();
+		assertThat(sent.get(0).getFetchOptions().getDeadline(), is(0.1));
+		assertThat(sent.get(1).getFetchOptions().getDeadline(), lessThan(0.1));
+		assertThat(sent.get(1).getFetchOptions().getDeadline(), greaterThan(0d));
+		assertThat(sent.get(1).getURL(), is(request.getURL()));
+	}
+
+	@Test
+	public void codeExchangeNotHedged() throws Exception {
+		HTTPRequest exchange = new HTTPRequest(
+				new URL("https://graph.facebook.com/v2.6/oauth/access_token?code=once"));
+		when(delegate.fetch(exchange)).thenReturn(response);
+
+		assertThat(unit.fetch(exchange), sameInstance(response));
+
+		verify(delegate, never()).fetchAsync(any(HTTPRequest.class));
+	}
+
+	/**
+	 * Fails the first request only once the hedge is sent, so that it doesn't depend on timing.
+	 */
+	private static Answer<Future<HTTPResponse>> failAndReturn(
+			final SettableFuture<HTTPResponse> first,
+			final Future<HTTPResponse> second
+	) {
+		return new Answer<Future<HTTPResponse>>() {
+			@Override
+			public Future<HTTPResponse> answer(InvocationOnMock invocation) {
+				first.setException(new IOException("first"));
+				return second;
+			}
+		};
+	}
+
+	@Test
+	public void serverErrorsNotRecorded() throws Exception {
+		HTTPResponse serverError = mock(HTTPResponse.class);
+		when(serverError.getResponseCode()).thenReturn(503);
+		when(delegate.fetchAsync(any(HTTPRequest.class)))
+				.thenReturn(Futures.immediateFuture(serverError));
+
+		for (int i = 0; i < HedgingUrlFetchService.MIN_SAMPLES; i++) {
+			assertThat(unit.fetch(request), sameInstance(serverError));
+		}
+
+		@SuppressWarnings("unchecked")
+		Map<String, Object> delays = (Map<String, Object>) unit.getDiagnostics().get("hedgeDelayMillis");
+		assertThat(delays.get("graph.facebook.com/debug_token"), is((Object) 10L));
+	}
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2016 Dzmitry Lazerka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.lazerka.gae.jersey.oauth2.urlfetch;
+
+import com.google.common.base.Ticker;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+/**
+ * @author Dzmitry Lazerka
+ */
+public class RecentLatenciesTest {
+	long nowNanos;
+	RecentLatencies unit;
+
+	@BeforeMethod
+	public void setUp() {
+		nowNanos = 0;
+		unit = new RecentLatencies(MINUTES.toNanos(1), new Ticker() {
+			@Override
+			public long read() {
+				return nowNanos;
+			}
+		});
+	}
+
+	@Test
+	public void interpolatesWithinBucket() {
+		// All in bucket [512, 1024) microseconds.
+		for (int i = 0; i < 100; i++) {
+			unit.record(MICROSECONDS.toNanos(600));
+		}
+
+		long p50 = unit.getPercentileNanos(50);
+		assertThat(p50, allOf(greaterThan(MICROSECONDS.toNanos(512)), lessThan(MICROSECONDS.toNanos(1024))));
+		assertThat(p50, lessThan(unit.getPercentileNanos(95)));
+	}
+
+	@Test
+	public void forgetsOldWindows() {
+		for (int i = 0; i < 100; i++) {
+			unit.record(MICROSECONDS.toNanos(100_000));
+		}
+		assertThat(unit.getCount(), is(100L));
+
+		nowNanos += MINUTES.toNanos(1);
+		unit.record(MICROSECONDS.toNanos(1000));
+		assertThat(unit.getCount(), is(101L));
+
+		nowNanos += MINUTES.toNanos(1);
+		assertThat(unit.getCount(), is(1L));
+		assertThat(unit.getPercentileNanos(95), lessThan(MICROSECONDS.toNanos(1024)));
+
+		nowNanos += MINUTES.toNanos(2);
+		assertThat(unit.getCount(), is(0L));
+		assertThat(unit.getPercentileNanos(95), is(0L));
+	}
+}